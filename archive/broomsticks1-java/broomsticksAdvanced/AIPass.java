@@ -0,0 +1,206 @@
+//=========================================================================
+//#
+//#  AIPass.java
+//#
+//#  Description: robot decisions as a pass of their own. Runs after the
+//#               rules and before anything moves, reads the match without
+//#               changing it and writes one intent per player; big rosters
+//#               are split over worker threads
+//#
+//#  usage: java AIPass [players] [threads] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+class AIPass {
+
+  static final int PARALLEL_MIN = 64;  // fewer robots than this run on the caller
+
+  Match match;
+  int[] intents;                       // per player, 1<<UP.. bits, -1 if not decided this tick
+  int threads;
+  ExecutorService pool;
+  Chunk[] chunks;
+  AtomicInteger pending;               // chunks still out on workers this tick
+  volatile Thread caller;              // unparked by the last of them
+
+  // stats
+  public long passes, nanos, maxNanos;
+
+  AIPass(Match m, int theThreads) {
+    match = m;
+    threads = theThreads < 1 ? 1 : theThreads;
+    intents = new int[0];
+    chunks = new Chunk[threads];
+    pending = new AtomicInteger();
+    for (int i=0; i<threads; i++)
+      chunks[i] = new Chunk();
+    if (threads > 1) {
+      pool = Executors.newFixedThreadPool(threads-1, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "ai");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+  }
+
+  // a contiguous range of players, decided by one thread
+  class Chunk implements Runnable {
+    int from, to, thinks;
+
+    // on a worker thread
+    public void run() {
+      try {
+        work();
+      } finally {
+        if (pending.decrementAndGet() == 0)
+          LockSupport.unpark(caller);
+      }
+    }
+
+    void work() {
+      thinks = 0;
+      for (int i=from; i<to; i++)
+        decide(i);
+    }
+
+    // same rules as Person.move() and Match.planRobots(), but the skill
+    // gate uses a per-player hash instead of the shared sequence, so the
+    // result doesn't depend on which thread got there first
+    void decide(int i) {
+      Person p = match.players[i];
+      if (!p.isRobot || p.forced >= 0 || !match.think.isDue(p)) {
+        intents[i] = -1;               // keeps its last decision
+        return;
+      }
+      thinks++;
+      int bits = 0;
+      if (p.planner == null && match.policy != null)
+        bits = match.policy.decide(p, match.hashInt(p.slot));
+      else if (match.hashInt(p.slot) % p.smart == 0) {
+        if (p.planner != null)
+          bits = p.planner.decide();
+        else
+          bits = p.classicActions();
+      }
+      intents[i] = bits;
+    }
+  }
+
+  public void run() {
+    long t0 = System.nanoTime();
+    Person[] players = match.players;
+    int n = players.length;
+    if (intents.length != n)
+      intents = new int[n];
+
+    int used = (n < PARALLEL_MIN && !hasPlanners()) ? 1 : Math.min(threads, n);
+    for (int c=0; c<used; c++) {
+      chunks[c].from = n * c / used;
+      chunks[c].to = n * (c+1) / used;
+    }
+    if (used == 1)
+      chunks[0].work();
+    else {
+      caller = Thread.currentThread();
+      pending.set(used-1);
+      for (int c=1; c<used; c++) {
+        try {
+          pool.execute(chunks[c]);
+        } catch (RejectedExecutionException e) {
+          chunks[c].run();             // shut down mid tick; do it here
+        }
+      }
+      chunks[0].work();
+      while (pending.get() > 0)
+        LockSupport.park(this);
+    }
+    for (int c=0; c<used; c++)
+      match.think.now += chunks[c].thinks;
+
+    // hand the intents over in player order
+    for (int i=0; i<n; i++) {
+      if (intents[i] < 0)
+        continue;
+      if (players[i].planner != null)
+        players[i].planned = intents[i];
+      else
+        players[i].decided = intents[i];
+    }
+
+    long took = System.nanoTime() - t0;
+    passes++;
+    nanos += took;
+    if (took > maxNanos)
+      maxNanos = took;
+  }
+
+  boolean hasPlanners() {
+    for (int i=0; i<match.players.length; i++)
+      if (match.players[i].planner != null)
+        return true;
+    return false;
+  }
+
+  public void shutdown() {
+    if (pool != null)
+      pool.shutdown();
+  }
+
+  public String summary() {
+    if (passes == 0)
+      return "ai pass: idle";
+    return "ai pass: " + threads + " threads, " + Math.round(nanos / passes / 100) / 10.0
+      + " us/tick, max " + maxNanos / 1000 + " us";
+  }
+
+  // -------------------------------------------------------------------
+  // benchmark: inline decisions against the pass on 1 and n threads
+
+  static long run(int players, int threads, int ticks, String label) {
+    Match m = SpatialGrid.arena(players, 0);
+    m.setSeed(1);
+    AIPass ai = null;
+    if (threads > 0) {
+      ai = new AIPass(m, threads);
+      m.ai = ai;
+    }
+    long t0 = System.nanoTime();
+    for (int t=0; t<ticks; t++)
+      m.step();
+    long took = System.nanoTime() - t0;
+    if (label != null)
+      System.out.println(label + ": players=" + players + " tick_us=" + took / ticks / 1000
+                         + (ai != null ? " " + ai.summary() : "")
+                         + " score=" + m.teamScore[0] + ":" + m.teamScore[1]);
+    if (ai != null)
+      ai.shutdown();
+    // fingerprint of the final state
+    long h = m.tick;
+    for (int i=0; i<m.players.length; i++)
+      h = h * 31 + Float.floatToIntBits(m.players[i].x) * 17 + Float.floatToIntBits(m.players[i].y);
+    return h;
+  }
+
+  public static void main(String[] args) {
+    int players = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int ticks = seconds * 1000 / Match.TICK_MS;
+
+    run(players, 0, ticks, null);   // warmup
+    run(players, threads, ticks, null);
+    run(players, 0, ticks, "inline");
+    long one = run(players, 1, ticks, "pass x1");
+    long many = run(players, Math.max(threads, 2), ticks, "pass x" + Math.max(threads, 2));
+    System.out.println(one == many ? "same result on 1 and " + Math.max(threads, 2) + " threads"
+                       : "RESULTS DIFFER between thread counts");
+  }
+}
@@ -0,0 +1,65 @@
+//=========================================================================
+//#
+//#  Ball.java
+//#
+//#  Author: Paul Rajlich
+//#  Email: prajlich@ncsa.uiuc.edu
+//#  WWW: http://www.ncsa.uiuc.edu/People/prajlich
+//#
+//#  Description: the red and black balls
+//#
+//=========================================================================
+//# Copyright (C) 2000, 2001   Paul Rajlich, all rights reserved
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.awt.*;
+
+class Ball extends FlyingObject { 
+  int model;
+  boolean alive;
+
+  Ball(Match m, int theModel, int initX, int initY) {
+    super(m, initX, initY);
+    model = theModel;
+    alive = true;
+    init();
+  }
+  
+  public void init() {
+    //System.out.println("Ball init()");
+    w = 16;
+    h = 16;
+  }
+
+  public void copyFrom(Ball o) {
+    super.copyFrom(o);
+    alive = o.alive;
+  }
+
+  public void move() {
+    if (match.think.due(this)) {
+      int choice = match.nextInt()%20;
+      decided = 0;
+      if (choice == 0)
+        decided = 1<<Person.UP;
+      if (choice == 1)
+        decided = 1<<Person.RIGHT;
+      if (choice == 2)
+        decided = 1<<Person.LEFT;
+    }
+    applyActions(decided);
+    if (y > match.height-90)
+      up();
+    super.move();
+  }
+
+  public void draw(Graphics g) {
+    drawAt(g, x, y);
+  }
+
+  public void drawAt(Graphics g, float px, float py) {
+    g.drawImage(bFrame.ballImg[model], (int) px, (int) py, bFrame);
+  }
+}
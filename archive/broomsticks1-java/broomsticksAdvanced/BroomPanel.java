@@ -0,0 +1,717 @@
+//=========================================================================
+//#
+//#  BroomPanel.java
+//#
+//#  Author: Paul Rajlich
+//#  Email: prajlich@ncsa.uiuc.edu
+//#  WWW: http://www.ncsa.uiuc.edu/People/prajlich
+//#
+//#  Description: the applet's game panel: loads the images and sounds,
+//#               runs the game thread and draws the Match
+//#
+//=========================================================================
+//# Copyright (C) 2000, 2001   Paul Rajlich, all rights reserved
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.applet.*;
+import java.io.*;
+
+class BroomPanel extends Panel implements Runnable {
+
+  static final int SND_SCORE = 0, SND_GRAB = 1, SND_BUMP = 2, SND_WIN = 3;
+  public SoundMixer sounds;
+  public SoundEvents soundEvents;
+  public BroomstickApplet applet;
+
+  public Image[][][] img;
+  public Image basket, basketH;
+  public Image[] ballImg;
+
+  String playersStr, itemsStr, fieldStr, bgStr;
+
+  public Image playersImg;
+  public Image itemsImg;
+  public Image introImg;
+  public Image fdImg, fieldImg;
+  public int backToggle;
+  SkyCache skies;
+
+  public Frame f;
+
+  Color blue, green, sky, yellow, gold;
+
+  Image offImage;
+  Graphics offgc;
+  MediaTracker tracker;
+
+  public Match match; // the game itself, this panel draws it and runs it
+  PredictedClient net; // runs the match against a GameServer, or null
+  NetState remote;     // what drawScene() shows of the others when networked
+  TraceWriter trace;   // TRACE=file records local games, or null
+  int width, height, midW, midH;
+  int sleepMS;
+
+  public boolean soundToggle;
+
+  public Thread thread;
+  InputRing input; // keys from the event thread, applied by the game thread
+  KeyMap keyMap;
+  volatile boolean startRequested;
+
+  // input-to-photon latency: stamps of keys applied this tick, handed to
+  // the paint thread once the tick is done and recorded when drawn
+  long tickStamps[];
+  int tickStampCount;
+  InputRing applied;
+  LatencyHistogram inputLatency;
+  boolean showLatency;
+  
+  public BroomPanel(BroomstickApplet app) {
+
+    applet = app;
+
+    setBackground(Color.white);
+    setFont(new Font("Helvetica", Font.PLAIN, 12));
+
+    this.setSize(getParam(applet.width), getParam(applet.height));
+
+    Dimension d = size();
+    width = d.width-10;
+    height = d.height-50; // was 20
+    midW = width/2;
+    midH = height/2;
+
+    soundToggle = false;
+    backToggle = 1; // was 0
+    offImage = null;
+    offgc = null;
+
+    green = new Color(0, 164, 0);
+    blue = new Color(0, 128, 255);
+    sky = new Color(216, 215, 255);
+    yellow = new Color(128, 128, 0);
+    gold = new Color(255, 255, 0);
+
+    match = new Match(width, height);
+    match.view = this;
+    match.setSeed(System.currentTimeMillis());
+
+    String numPlayersStr = applet.players.getSelectedItem();
+    if (numPlayersStr.equals("4")) match.teams = true; else match.teams = false;
+
+    String diveStr = applet.dive.getSelectedItem();
+    if (diveStr.equals("yes")) match.dive = true; else match.dive = false;
+
+    String soundStr = applet.sound.getSelectedItem();
+    if (soundStr.equals("on")) soundToggle = true;
+
+    match.accel = (float) getParam(applet.accel);
+    match.maxspeed = (float) getParam(applet.maxspeed);
+
+    match.redBalls = getParam(applet.red);
+    match.blackBalls = getParam(applet.black);
+    match.goldBalls = getParam(applet.gold);
+    match.goldval = getParam(applet.goldval);
+    match.winScore = getParam(applet.winscore);
+    match.goldTicks = getParam(applet.duration) * 1000 / Match.TICK_MS;
+    match.think.setEvery(getParam(applet.think));
+
+    playersStr = applet.playerImg.getSelectedItem();
+    itemsStr = applet.itemImg.getSelectedItem();
+    fieldStr = applet.fieldImg.getSelectedItem();
+    bgStr = applet.bgImg.getSelectedItem();
+
+    applet.window.setCursor(Frame.WAIT_CURSOR);
+    loadImages();
+    loadSounds();
+
+    if (soundToggle)
+      match.sounds = soundEvents;
+    net = null;
+    remote = null;
+    String serverStr = applet.getParameter("SERVER");
+    if (serverStr != null)
+      joinServer(serverStr);
+    else
+      match.setup();
+
+    Person players[] = match.players;
+    int i;
+
+    //players[0].setKeys('e', 'x', 's', 'f', '1', 't');
+    players[0].setKeys('e', 'x', 's', 'f', '1', 'p');
+    players[0].setInfoXY(20, height-15);
+
+    players[1].setKeys(Event.UP, Event.DOWN, Event.LEFT, Event.RIGHT, Event.ENTER, 0);
+    players[1].setInfoXY(width-150, height-15);
+
+    if (match.teams) {
+      players[2].setKeys(Event.HOME, Event.END, Event.DELETE, Event.PGDN, Event.INSERT, Event.PGUP);
+      players[2].setInfoXY(midW, height-15);
+
+      players[3].setKeys('i', 'm', 'j', 'l', '7', 'p');
+      players[3].setInfoXY(midW-150, height-15);
+    }
+
+    // KEYS1..KEYS4 override the default bindings, e.g. "w,s,a,d,q,r"
+    keyMap = new KeyMap();
+    for (i=0; i < players.length; i++) {
+      String keyStr = applet.getParameter("KEYS" + (i+1));
+      if (keyStr != null) {
+        int k[] = KeyMap.parseKeys(keyStr);
+        if (k != null)
+          players[i].setKeys(k[0], k[1], k[2], k[3], k[4], k[5]);
+        else
+          System.out.println("bad KEYS" + (i+1) + ": " + keyStr);
+      }
+      keyMap.bind(i, players[i]);
+    }
+    keyMap.compile();
+
+    // lookahead robots share a fixed slice of each tick
+    if (applet.robot.getSelectedItem().equals("planner")) {
+      for (i=0; i < players.length; i++)
+        players[i].planner = new Planner(match, i, Planner.TICK_BUDGET_US * 1000L / players.length);
+    }
+    // or a precomputed move per game state (see PolicyTable)
+    if (applet.robot.getSelectedItem().equals("table"))
+      match.policy = PolicyTable.load(applet.getCodeBase(), "policy.dat");
+    // robots decide in their own pass, on this many threads
+    String aiStr = applet.getParameter("AITHREADS");
+    if (aiStr != null)
+      match.ai = new AIPass(match, Integer.parseInt(aiStr));
+    // a play trace of each tick (see TraceWriter); a networked game is
+    // recorded by the server instead
+    String traceStr = applet.getParameter("TRACE");
+    trace = null;
+    if (traceStr != null && net == null) {
+      try {
+        trace = new TraceWriter(new BufferedOutputStream(new FileOutputStream(traceStr), 1 << 16), 16, 256);
+        match.recorder = trace.newRecorder(0);
+      } catch (IOException e) {
+        System.out.println("can't write trace " + traceStr + ": " + e);
+      }
+    }
+
+    input = new InputRing(64);
+    startRequested = false;
+    applied = new InputRing(256);
+    tickStamps = new long[64];
+    tickStampCount = 0;
+    inputLatency = new LatencyHistogram("input_to_photon", 500, 1000);
+    showLatency = false;
+    thread = null;
+
+  }
+
+  // SERVER=host:port plays in a GameServer room (ROOM, default 0). The
+  // match is rebuilt the way the server builds its rooms, so the form's
+  // ball and speed settings don't apply; falls back to a local game
+  void joinServer(String serverStr) {
+    int colon = serverStr.lastIndexOf(':');
+    String host = colon < 0 ? serverStr : serverStr.substring(0, colon);
+    int port = colon < 0 ? 4560 : Integer.parseInt(serverStr.substring(colon+1));
+    String roomStr = applet.getParameter("ROOM");
+    int room = roomStr == null ? 0 : Integer.parseInt(roomStr);
+
+    boolean teams = match.teams;
+    match = new Match(width, height);
+    match.view = this;
+    match.teams = teams;
+    if (soundToggle)
+      match.sounds = soundEvents;
+    GameServer.setupRoom(match, room);
+    try {
+      net = PredictedClient.connect(host, port, match);
+      net.join(room, teams, width, height);
+      remote = new NetState(match.players.length, match.balls.length);
+    } catch (IOException e) {
+      System.out.println("can't reach " + serverStr + ": " + e);
+      net = null;
+    }
+  }
+
+  //public void processWindowEvent(WindowEvent e) {
+  //  if (e == WINDOW_CLOSING)
+  //    this.dispose();
+  //}
+
+  public int getParam(TextField text) {
+    return (Integer.valueOf(text.getText())).intValue();
+  }
+
+  public int getParam(Choice choice) {
+    String str = choice.getSelectedItem();
+    return (Integer.valueOf(str)).intValue();
+  }
+
+  public void loadSounds() {
+    String names[] = new String[4];
+    names[SND_SCORE] = "snd/score.au";
+    names[SND_GRAB] = "snd/grab.au";
+    names[SND_BUMP] = "snd/bump.au";
+    names[SND_WIN] = "snd/win.au";
+    sounds = new SoundMixer(applet.getCodeBase(), names);
+    if (soundToggle)
+      sounds.start();
+
+    // bumps and grabs repeat every tick while players overlap
+    soundEvents = new SoundEvents(sounds, names.length);
+    soundEvents.setRateLimit(SND_BUMP, 5);
+    soundEvents.setRateLimit(SND_GRAB, 3);
+  }
+
+  public void loadImages() {
+    System.out.println("loading images...");
+
+    tracker = new MediaTracker(applet);
+    playersImg = applet.getImage(applet.getCodeBase(), playersStr);
+    itemsImg = applet.getImage(applet.getCodeBase(), itemsStr);
+    if (playersStr.equals("images/harden.gif"))
+      introImg = applet.getImage(applet.getCodeBase(),"images/introHarden.gif");
+    else
+      introImg = applet.getImage(applet.getCodeBase(), "images/intro.gif");
+    fdImg = applet.getImage(applet.getCodeBase(), fieldStr);
+    Image hitImg = applet.getImage(applet.getCodeBase(), "cgi-bin/logs.cgi?log=broomLog");
+    tracker.addImage(playersImg, 0);
+    tracker.addImage(itemsImg, 0);
+    tracker.addImage(introImg, 0);
+    tracker.addImage(fdImg, 0);
+    tracker.addImage(hitImg, 0);
+
+    // skies are loaded and scaled in the background, at most two are
+    // kept around: the one on screen and the next one for 'b'
+    String skyNames[] = new String[5];
+    for (int i=1; i<5; i++) { 
+      if (i == 1)
+        skyNames[i] = bgStr;
+      else
+        skyNames[i] = "images/sky"+i+".jpg";
+    }
+    skies = new SkyCache(this, applet.getCodeBase(), skyNames, width-22, height-52, 2);
+    skies.start();
+    skies.prefetch(1);
+    skies.prefetch(2);
+
+    // field
+    ImageFilter scale2 = new AreaAveragingScaleFilter(width-22, 25);
+    ImageProducer fdSrc = new FilteredImageSource(fdImg.getSource(), scale2);
+    fieldImg = createImage(fdSrc);
+    tracker.addImage(fieldImg, 0);
+
+    // players
+    img = new Image[10][2][2];
+    for (int m=0; m<10; m++) {
+      System.out.println("model " + m);
+      for (int i=0; i<2; i++)
+        for (int j=0; j<2; j++) {
+          ImageFilter crop;
+          if (m < 5)
+            crop = new CropImageFilter(i*80 + j*40 + 1, m*40 + 41,39,39);
+          else
+            crop = new CropImageFilter(i*80 + j*40 + 161,(m-5)*40 + 41,39,39);
+          ImageProducer producer;
+          producer = new FilteredImageSource(playersImg.getSource(), crop);
+          img[m][i][j] = createImage(producer);
+          tracker.addImage(img[m][i][j], 0);
+        }
+    }
+
+    // balls
+    ballImg = new Image[3];
+    for (int k=0; k<3; k++) {
+      ImageFilter crop = new CropImageFilter(1,k*40+1,39,39);
+      ImageProducer producer;
+      producer = new FilteredImageSource(itemsImg.getSource(), crop);
+      ballImg[k] = createImage(producer);
+      tracker.addImage(ballImg[k], 0);
+    }
+
+    // hoops
+    ImageFilter crop = new CropImageFilter(1,121,39,39);
+    ImageProducer producer;
+    producer = new FilteredImageSource(itemsImg.getSource(), crop);
+    basket = createImage(producer);
+    tracker.addImage(basket, 0);
+
+    ImageFilter cropH = new CropImageFilter(41,121,39,39);
+    ImageProducer producerH;
+    producerH = new FilteredImageSource(itemsImg.getSource(), cropH);
+    basketH = createImage(producerH);
+    tracker.addImage(basketH, 0);
+
+    //System.out.println("done");
+  }
+
+  public void start() {
+    if (thread == null)
+      thread = new Thread(this);
+    thread.start();
+  }
+
+  // NOTE: do not stop thread. According to docs, applet will stop it
+  // immediately even if it is in the middle of some critical operation.
+  // Rather, set it to null and that will cause its main loop to end
+  // (see SimThread). Garbage collector will then take care of it later.
+  public void stop() {
+    //thread.stop();
+    thread = null;
+    if (match.ai != null)
+      match.ai.shutdown();             // openGame() is about to make a new one
+    skies.stop();
+    sounds.stop();
+    inputLatency.dump(System.out);
+    //offImage = null;
+  }
+
+  public boolean mouseDown(Event e, int x, int y) {
+    startRequested = true; // picked up by the game thread
+    requestFocus();
+    return true;
+  }
+
+  public boolean keyDown(Event e, int key) {
+
+    // back toggle
+    if (key == 'b') {
+      backToggle++;
+      if (backToggle > 4)
+        backToggle = 0;
+      skies.prefetch(backToggle+1);
+    }
+
+    // latency overlay and dump
+    if (key == Event.F3)
+      showLatency = !showLatency;
+    if (key == Event.F4)
+      inputLatency.dump(System.out);
+
+    // LIMIT FOR DEMO!!
+    //if (key == 'n') {
+    //  if (soundToggle)
+    //    soundToggle = false;
+    //  else
+    //    soundToggle = true;
+    //  paint(getGraphics());
+    //}
+
+    // players are moved by the game thread, so hand the key over to it
+    // rather than touching them here
+    input.push(key, System.nanoTime());
+
+    return false;
+  }
+
+  // runs on the game thread at the start of each tick
+  public void applyInput() {
+    if (startRequested) {
+      startRequested = false;
+      if (net == null)                 // the server starts networked games
+        match.start();
+      paint(getGraphics());
+    }
+    while (input.poll()) {
+      keyMap.dispatch(input.key, match.players);
+      if (tickStampCount < tickStamps.length)
+        tickStamps[tickStampCount++] = input.stamp;
+    }
+  }
+
+  // the tick is complete, its keys are visible in the next frame drawn
+  public void publishApplied() {
+    for (int i=0; i<tickStampCount; i++)
+      applied.push(0, tickStamps[i]);
+    tickStampCount = 0;
+  }
+
+  public void update(Graphics g) {
+    // only keys applied before we start drawing are in this frame
+    int drawnInputs = applied.size();
+
+    if (offgc == null) {
+      System.out.println("w: " + width + " h: " + height);
+      offImage = createImage(width-22, height-52);
+      offgc = offImage.getGraphics();
+      offgc.translate(-11, -31);
+    }
+
+    // draw background into back buffer (plain sky until the image is ready)
+    Image back;
+    if (!match.started)
+      back = skies.get(1);
+    else
+      back = skies.get(backToggle);
+    if (back != null) { 
+      offgc.drawImage(back, 11, 31, this);
+      offgc.drawImage(fieldImg, 11, height-46, this);
+    }
+    else {
+      offgc.setColor(sky);
+      offgc.fillRect(11, 31, width-22, height-52);
+      offgc.setColor(green);
+      offgc.fillRect(11, height-46, width-22, 25);
+      offgc.setColor(Color.black);
+      offgc.drawLine(11, height-46, width-11, height-46);
+      offgc.drawLine(41, height-46, 11, height-21);
+      offgc.drawLine(width-51, height-46, width-11, height-21);
+    }
+
+    // draw timeline
+    if (match.goldBalls > 0)
+      drawTime(offgc);
+
+    // draw baskets and scene into back buffer
+    drawBaskets(offgc);
+    drawScene(offgc);
+    if (showLatency) {
+      offgc.setColor(Color.black);
+      offgc.drawString(inputLatency.summary(), 20, height-60);
+      if (match.goldBalls > 0)
+        offgc.drawString(match.grid.summary(), 20, height-45);
+      if (net != null) {
+        offgc.drawString(net.summary(), 20, height-75);
+        if (net.remote != null)
+          offgc.drawString(net.remote.summary(), 20, height-90);
+      }
+    }
+
+    // swap buffers
+    g.drawImage(offImage, 11, 31, this);
+    //offImage.flush();
+
+    if (drawnInputs > 0) {
+      getToolkit().sync();
+      long now = System.nanoTime();
+      for (int i=0; i<drawnInputs && applied.poll(); i++)
+        inputLatency.record(now - applied.stamp);
+    }
+  }
+
+  void drawBaskets(Graphics g) {
+    int hh = midH - 15;
+    int ll = height - (hh+39) - 31;
+    if (match.teamBasket[1]) {
+      g.drawImage(basketH, 21, hh, this);
+      g.setColor(Color.black);
+      g.drawRect(28, hh+39, 3, ll);
+      g.setColor(gold);
+      g.fillRect(29, hh+39, 2, ll);
+    }
+    else {
+      g.drawImage(basket, 21, hh, this);
+      g.setColor(Color.black);
+      g.drawRect(28, hh+39, 3, ll);
+      g.setColor(yellow);
+      g.fillRect(29, hh+39, 2, ll);
+    }
+
+    if (match.teamBasket[0]) {
+      g.drawImage(basketH, width-41, hh, this);
+      g.setColor(Color.black);
+      g.drawRect(width-34, hh+39, 3, ll);
+      g.setColor(gold);
+      g.fillRect(width-33, hh+39, 2, ll);
+    }
+    else {
+      g.drawImage(basket, width-41, hh, this);
+      g.setColor(Color.black);
+      g.drawRect(width-34, hh+39, 3, ll);
+      g.setColor(yellow);
+      g.fillRect(width-33, hh+39, 2, ll);
+    }
+  }
+   
+
+  public void drawScene(Graphics g) {
+    if (!tracker.checkAll(true)) {
+      g.setColor(Color.black);
+      g.drawString("Loading images, please wait...", midW-75, 200);
+      g.drawImage(introImg, midW-175, 90, this);
+    }
+    else if (!match.started) {
+      applet.window.setCursor(Frame.CROSSHAIR_CURSOR);
+      g.setColor(Color.black);
+      if (!match.gameover)
+        g.drawString("Click here to start.", midW-50, 200);
+      else
+        g.drawString("Game over. Click here to play again.", midW-75, 200);
+
+      g.drawString("It's easier to just click on the keys rather than hold them down.", midW-175, 330);
+      g.drawString("Click on your up key several times to start flying.", midW-140, 345);
+      //g.drawString("If it runs choppy or slow, close and restart.", midW-125, 365);
+      if (match.teams) {
+        g.drawString("Blue Team", 100, 240);
+        g.drawString("use E, S, F keys", 100, 260);
+        g.drawString("use I, J, L keys", 100, 275);
+      }
+      else {
+        g.drawString("Blue Player", 100, 240);
+        g.drawString("use E, S, F keys", 100, 260);
+        g.drawString("use 1 to switch player", 100, 275);
+        //g.setColor(Color.red);
+        //g.drawString("Press T for computer control", 100, 290);
+        //g.drawString("(use S and F to adjust skill)", 100, 305);
+        //g.setColor(Color.black);
+      }
+
+      if (match.teams) {
+        g.drawString("Green Team", width-250, 240);
+        g.drawString("use arrow-keys", width-250, 260);
+        g.drawString("use Del, Home, PgDn", width-250, 275);
+      }
+      else {
+        g.drawString("Green Player", width-250, 240);
+        g.drawString("use arrow keys", width-250, 260);
+        g.drawString("use ENTER to switch player", width-250, 275);
+      }
+
+      g.drawImage(introImg, midW-175, 90, this); // was 160
+    }
+    else if (net != null && net.remote != null && net.remote.sample(System.nanoTime(), remote)) {
+      // networked: our player where we predict it, the rest a little in
+      // the past, between server snapshots
+      int i;
+      for (i=0; i<match.players.length; i++) {
+        Person p = match.players[i];
+        if (i == net.slot)
+          p.draw(g);
+        else if (remote.has(i))        // else out of view in a big field
+          p.drawAt(g, remote.px[i], remote.py[i], remote.pvx[i], remote.pvy[i]);
+      }
+      for (i=0; i<match.balls.length; i++)
+        if (remote.has(match.players.length + i) && remote.alive[i] != 0)
+          match.balls[i].drawAt(g, remote.bx[i], remote.by[i]);
+    }
+    else {
+      int i;
+      for (i=0; i<match.players.length; i++)
+        match.players[i].draw(g);
+      for (i=0; i<match.balls.length; i++)
+        if (match.balls[i].alive)
+          match.balls[i].draw(g);
+    }
+  }
+
+  public void drawTime(Graphics g) {
+
+    float percent = match.tick/(float)match.goldTicks;
+    if (percent > 1.0)
+      return;
+
+    int len = (int) (200 * percent);
+    g.setColor(yellow);
+    g.fillRect(midW-100, 30, 200-len, 15);
+    g.setColor(Color.black);
+    g.drawRect(midW-100, 30, 200, 15);
+    g.drawString("time:", midW-20, 43);
+    g.drawLine(midW+100-len, 30, midW+100-len, 45);
+  }
+
+  public void drawScores(Graphics g) {
+    drawScores(g, 2);
+  }
+
+  public void drawScores(Graphics g, int scored) {
+    if (scored == 0)
+      g.setColor(gold);
+    else
+      g.setColor(blue);
+    g.fillRect(48, 8, 100, 15);
+    if (scored == 1)
+      g.setColor(gold);
+    else
+      g.setColor(green);
+    g.fillRect(width-152, 8, 100, 15);
+    g.setColor(Color.black);
+    g.drawRect(48, 8, 100, 15);
+    g.drawRect(width-152, 8, 100, 15);
+    g.drawString("Score: " + match.teamScore[0], 50, 20);
+    g.drawString("Score: " + match.teamScore[1], width-150, 20);
+  }
+
+  public void paint(Graphics g) {
+    System.out.println("paint()");
+
+    //g.translate(5, 20);
+    g.setColor(getBackground());
+    g.fillRect(0, 0, width, height); // clear whole drawing area
+    drawScene(g);
+    drawScores(g);
+    g.drawString("Broomsticks by Paul Rajlich", midW-75, 20);
+    g.drawRect(10, 30, width-21, height-51);
+
+    for (int i=0; i<match.players.length; i++)
+      match.players[i].drawInfo(g);
+
+    if (!match.teams) {
+      // LIMIT FOR DEMO!!
+      //if (soundToggle)
+      //  g.drawString("n for sound off, b to change background", midW-125, height-5);
+      //else
+      //  g.drawString("n for sound on, b to change background", midW-125, height-5);
+       
+      if (match.players[0].isRobot)
+        g.drawString("P for two-player, B to change background", midW-125, height-5);
+      else
+        g.drawString("P for single-player, B to change background", midW-125, height-5);
+      // was midW-65
+    }
+  }
+
+  public void run() {
+    System.out.println("Game thread started...\n");
+
+    //Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+    long sleepTime;
+    //sleepMS = parseParam("SLEEP", 30);
+    sleepMS = Match.TICK_MS;
+
+    while (Thread.currentThread() == thread) {
+      long oldTime = System.currentTimeMillis();
+      applyInput();
+      if (net != null) {
+        try {
+          net.tick();
+        } catch (IOException e) {
+          System.out.println("server: " + e);
+          net.close();
+        }
+      }
+      else if (match.started)
+        match.step();
+      publishApplied();
+      repaint();
+      //update(this.getGraphics()); // PAUL!!
+
+      long elapsedTime = System.currentTimeMillis() - oldTime;
+      //System.out.println("etime: " + elapsedTime);
+      if (match.started || net != null)
+        sleepTime = sleepMS;
+      else
+        sleepTime = 1000;
+      try {
+        // while idle, still wake up every tick to pick up key presses
+        while (elapsedTime < sleepTime) {
+          if (!match.started && (startRequested || !input.isEmpty()))
+            break;
+          Thread.sleep(Math.min(sleepMS, sleepTime-elapsedTime));
+          elapsedTime = System.currentTimeMillis() - oldTime;
+        }
+      } catch (InterruptedException e) { break; }
+    }
+    // the recorder belongs to this thread, so the trace ends here
+    if (trace != null) {
+      try {
+        trace.close();
+      } catch (IOException e) {
+        System.out.println("trace: " + e);
+      }
+      trace = null;
+    }
+    System.out.println("thread done.");
+  }
+}
@@ -0,0 +1,155 @@
+//=========================================================================
+//#
+//#  FlyingObject.java
+//#
+//#  Author: Paul Rajlich
+//#  Email: prajlich@ncsa.uiuc.edu
+//#  WWW: http://www.ncsa.uiuc.edu/People/prajlich
+//#
+//#  Description: anything that flies over the field: position, speed
+//#               and bouncing off its edges
+//#
+//=========================================================================
+//# Copyright (C) 2000, 2001   Paul Rajlich, all rights reserved
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.awt.*;
+
+class FlyingObject extends Object {
+  public int initX, initY;
+  public float x, y;
+  public int w, h;
+  int right, bottom;
+  Match match;
+  BroomPanel bFrame; // for drawing, null when headless
+  public float velocityX;
+  public float velocityY;
+  public boolean catchable;
+  public boolean isGoldBall;
+  public boolean dive;
+  //public float speedFactor;
+  public float accel, maxSpeed;
+  public int smart;
+  int slot;         // for the match's ThinkScheduler
+  int decided;      // last decision, repeated on ticks it doesn't think
+  int applied;      // action bits applied since the last trace record
+
+  FlyingObject(Match m, int iX, int iY) {
+    x = iX;
+    y = iY;
+    initX = iX;
+    initY = iY;
+
+    match = m;
+    bFrame = m.view;
+    slot = m.agents++;
+    decided = 0;
+    applied = 0;
+    velocityX = 0;
+    velocityY = 0;
+
+    catchable = false;
+    isGoldBall = false;
+
+    //speedFactor = bFrame.speed;
+    accel = match.accel;
+    maxSpeed = match.maxspeed;
+    dive = match.dive;
+
+    right = match.width - 11;
+    bottom = match.height - 21;
+  }
+
+  public void reset() {
+    x = initX;
+    y = initY;
+    velocityX = 0;
+    velocityY = 0;
+  }
+
+  public void copyFrom(FlyingObject o) {
+    x = o.x;
+    y = o.y;
+    velocityX = o.velocityX;
+    velocityY = o.velocityY;
+    smart = o.smart;
+    decided = o.decided;
+  }
+
+  public void draw(Graphics g) {
+    // implemented in derived classes
+  }
+
+  // bits of 1<<Person.UP..1<<Person.RIGHT
+  public void applyActions(int bits) {
+    applied |= bits;
+    if ((bits & (1<<Person.UP)) != 0)
+      up();
+    if ((bits & (1<<Person.DOWN)) != 0)
+      down();
+    if ((bits & (1<<Person.LEFT)) != 0)
+      left();
+    if ((bits & (1<<Person.RIGHT)) != 0)
+      right();
+  }
+
+  public void move() {
+    x += velocityX; //*speedFactor;
+    y += velocityY; //*speedFactor;
+    //velocityY += 0.1; // gravity
+    //if (velocityY > 2)
+    //  velocityY = 2;
+    if (velocityY < 2)
+      velocityY += 0.1; // gravity
+    bounds();
+  }
+
+  public void bounds() {
+    if (x < 11) {
+      x = 11;
+      velocityX = -velocityX;
+    }
+    if (x > right-w) {
+      x = right-w;
+      velocityX = -velocityX;
+    }
+    if (y < 31) {
+      y = 31;
+      velocityY = -velocityY;
+      if (velocityY == 0)
+        velocityY += 0.1;
+    }
+    if (y > bottom-h-10) {
+      y = bottom-h-10;
+      velocityY = 0;
+      velocityX = 0;
+    }
+  }
+
+  public void left() {
+    velocityX -= accel;
+    if (velocityX < -maxSpeed)
+      velocityX = -maxSpeed;
+  }
+ 
+  public void right() {
+    velocityX += accel;
+    if (velocityX > maxSpeed)
+      velocityX = maxSpeed;
+  }
+
+  public void up() {
+    velocityY -= accel;
+    if (velocityY < -maxSpeed)
+      velocityY = -maxSpeed;
+  }
+
+  public void down() {
+    if (!dive) return;
+    velocityY += accel;
+    if (velocityY > maxSpeed)
+      velocityY = maxSpeed;
+  }
+}
@@ -0,0 +1,185 @@
+//=========================================================================
+//#
+//#  GameClient.java
+//#
+//#  Description: non-blocking client side of the GameServer protocol.
+//#               poll() reads whatever arrived and keeps the latest
+//#               state; inputs and pings are written straight away
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+class GameClient {
+
+  SocketChannel ch;
+  ByteBuffer in, out;
+  public boolean welcomed, closed;
+  public int slot, players, balls;
+  public NetState state;               // latest state, null before WELCOME
+  SnapshotCodec codec;
+  public int frame;                    // last snapshot decoded, -1 for none
+  public int shown;                    // frame the others are drawn at, -1 for frame
+  int cookie;                          // from WELCOME; UDP echoes it in INPUTS
+  public String error;
+
+  // stats
+  public long states, bytesIn, lastRttNanos;
+
+  GameClient(SocketChannel theCh) throws IOException {
+    this();
+    ch = theCh;
+    ch.configureBlocking(false);
+    ch.socket().setTcpNoDelay(true);
+    in = ByteBuffer.allocate(65536);
+    out = ByteBuffer.allocate(4096);
+  }
+
+  // for another transport; it overrides the sending and poll()
+  protected GameClient() {
+    welcomed = false;
+    closed = false;
+    state = null;
+    frame = -1;
+    shown = -1;
+  }
+
+  public static GameClient connect(String host, int port) throws IOException {
+    SocketChannel ch = SocketChannel.open(new InetSocketAddress(host, port));
+    return new GameClient(ch);
+  }
+
+  public void join(int room, boolean teams) throws IOException {
+    join(room, teams, 630, 400);
+  }
+
+  // the size only counts for whoever opens the room
+  public void join(int room, boolean teams, int width, int height) throws IOException {
+    frame(GameServer.JOIN, 9);
+    out.putInt(room);
+    out.put((byte) (teams ? 1 : 0));
+    out.putShort((short) width);
+    out.putShort((short) height);
+    flush();
+  }
+
+  // as a spectator: states only, no seat
+  public void watch(int room) throws IOException {
+    frame(GameServer.WATCH, 4);
+    out.putInt(room);
+    flush();
+  }
+
+  public void sendInput(int seq, int bits) throws IOException {
+    frame(GameServer.INPUT, 13);
+    out.putInt(seq);
+    out.put((byte) bits);
+    out.putInt(frame);
+    out.putInt(shown);
+    flush();
+  }
+
+  public void ping() throws IOException {
+    frame(GameServer.PING, 8);
+    out.putLong(System.nanoTime());
+    flush();
+  }
+
+  public void leave() throws IOException {
+    frame(GameServer.LEAVE, 0);
+    flush();
+    close();
+  }
+
+  void frame(int type, int len) {
+    out.putShort((short) (1 + len));
+    out.put((byte) type);
+  }
+
+  void flush() throws IOException {
+    out.flip();
+    while (out.hasRemaining())
+      if (ch.write(out) == 0)
+        Thread.yield();                // small frames; the socket buffer is almost never full
+    out.clear();
+  }
+
+  // reads what is there without blocking; false once the connection is gone
+  public boolean poll() throws IOException {
+    if (closed)
+      return false;
+    int n = ch.read(in);
+    if (n < 0) {
+      close();
+      return false;
+    }
+    bytesIn += n;
+    in.flip();
+    while (in.remaining() >= 2) {
+      int len = in.getShort(in.position()) & 0xffff;
+      if (in.remaining() < 2 + len)
+        break;
+      int end = in.position() + 2 + len;
+      in.position(in.position() + 2);
+      handle(in.get(), in);
+      in.position(end);
+    }
+    in.compact();
+    return !closed;
+  }
+
+  protected void handle(int type, ByteBuffer b) throws IOException {
+    switch (type) {
+    case GameServer.WELCOME:
+      slot = b.get();
+      players = b.get();
+      balls = b.get();
+      state = new NetState(players, balls);
+      state.tick = b.getInt();
+      cookie = b.getInt();
+      codec = new SnapshotCodec(players, balls);
+      frame = -1;
+      welcomed = true;
+      break;
+    case GameServer.STATE:
+      if (state != null) {
+        int f = b.getInt(b.position());
+        if (codec.decode(b, state)) {
+          frame = f;
+          states++;
+          stateReceived();
+        } else
+          frame = -1;                  // lost the baseline; ask for a keyframe
+      }
+      break;
+    case GameServer.PONG:
+      lastRttNanos = System.nanoTime() - b.getLong();
+      break;
+    case GameServer.ERROR:
+      {
+        byte[] bytes = new byte[b.remaining()];
+        b.get(bytes);
+        error = new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+        close();
+      }
+      break;
+    }
+  }
+
+  // hook for subclasses, after state holds a new tick
+  protected void stateReceived() {
+  }
+
+  public void close() {
+    closed = true;
+    try {
+      ch.close();
+    } catch (IOException e) {
+    }
+  }
+}
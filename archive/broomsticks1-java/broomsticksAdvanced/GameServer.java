@@ -0,0 +1,871 @@
+//=========================================================================
+//#
+//#  GameServer.java
+//#
+//#  Description: authoritative game server. One selector thread hosts
+//#               many rooms, each a headless Match stepped every tick
+//#               with the inputs of its players; the state goes back to
+//#               every client of the room after each tick
+//#
+//#  usage: java GameServer [port] [trace file]
+//#
+//#  Frames are a 2 byte length, a type byte and the body, big endian:
+//#    client: JOIN room:int teams:byte width height:short
+//#            INPUT seq:int bits:byte frame:int shown:int
+//#            LEAVE                        PING time:long
+//#            WATCH room:int
+//#    server: WELCOME slot players balls:byte tick:int cookie:int
+//#            STATE snapshot               PONG time:long
+//#            ERROR message:UTF
+//#
+//#  A STATE is a SnapshotCodec delta against the last frame the client
+//#  reported in INPUT (-1 asks for a keyframe). Inputs are queued and
+//#  one is used per tick, so a client predicting ahead can count on it.
+//#  shown is the frame it draws the others at (see InterpolationBuffer),
+//#  -1 for frame, and its grabs and bumps are judged against that world
+//#  (see LagCompensation).
+//#  In a field at least Interest.MIN_AREA big with at least
+//#  Interest.MIN_ENTITIES players and balls, each client is only sent
+//#  the players and balls near its own (see Interest), so snapshots are
+//#  encoded once per client there instead of once per baseline; a
+//#  client leaves what it wasn't sent alone (see NetState.present)
+//#
+//#  WATCH makes a TCP client a spectator: WELCOME with slot -1, then
+//#  each tick's STATE as a delta on the tick before, shared by every
+//#  spectator of the room (see SpectatorFeed). A spectator that can't
+//#  keep up skips ahead to a keyframe
+//#
+//#  The same port takes UDP, one frame per datagram without the length:
+//#    client: seq:int, then a frame; inputs go as
+//#            INPUTS newest:int frame:int shown:int cookie:int count:byte bits[count]
+//#            with the newest first, repeated until the server acks them
+//#    server: seq:int ack:int ackBits:int, then a frame. ack is the
+//#            newest client packet seen, bit i of ackBits the one i+1
+//#            before it
+//#  JOIN is sent again until WELCOME comes back. The first WELCOME an
+//#  address gets has 0 players and only carries the cookie: no room is
+//#  opened and no seat taken until an INPUTS from it echoes the cookie,
+//#  then the real WELCOME follows. A JOIN with a forged source can't
+//#  fill rooms or aim the stream elsewhere.
+//#  Input bits are
+//#  1<<Person.UP..1<<Person.ROBOT on either transport
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+
+class GameServer implements Runnable {
+
+  static final int JOIN = 1, INPUT = 2, LEAVE = 3, PING = 4, INPUTS = 5, WATCH = 6;
+  static final int WELCOME = 10, STATE = 11, PONG = 12, ERROR = 13;
+
+  static final int MAX_FRAME = 4096;
+  static final int OUT_BUFFER = 32768;  // per client; states are dropped when it's full
+  static final int RESTART_TICKS = 100; // pause after a game is won
+  static final int INPUT_QUEUE = 8;     // per client; a longer backlog is merged
+  static final int INPUT_BACKLOG = 1;   // more than this waiting drains one extra a tick
+  static final int UDP_TIMEOUT_MS = 5000;
+  static final int MAX_ROOMS = 10000;   // a JOIN past this many open rooms is refused
+  static final int MAX_WIDTH = 4000, MAX_HEIGHT = 2500; // fields asked for are clamped to these
+
+  Selector selector;
+  ServerSocketChannel server;
+  DatagramChannel dgram;
+  public PacketChannel udp;            // over dgram; may be wrapped to test a bad link
+  HashMap<SocketAddress, Conn> udpConns;
+  SecureRandom cookies;
+  ByteBuffer packetIn, packetOut;
+  HashMap<Integer, Room> rooms;
+  public TraceWriter trace;            // every room records into it, or null
+  volatile boolean running;
+  long tickNanos;
+
+  // stats
+  public long ticks, busyNanos, maxBusyNanos, framesIn, bytesOut, statesDropped, inputsIn;
+  public int clients;
+
+  GameServer(int port) throws IOException {
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    server.configureBlocking(false);
+    server.socket().setReuseAddress(true);
+    server.socket().bind(new InetSocketAddress(port));
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    dgram = DatagramChannel.open();
+    dgram.socket().bind(new InetSocketAddress(port()));
+    udp = new UdpChannel(dgram);
+    dgram.register(selector, SelectionKey.OP_READ);
+    udpConns = new HashMap<SocketAddress, Conn>();
+    cookies = new SecureRandom();
+    packetIn = ByteBuffer.allocate(PacketChannel.MAX_PACKET);
+    packetOut = ByteBuffer.allocateDirect(PacketChannel.MAX_PACKET);
+    rooms = new HashMap<Integer, Room>();
+    tickNanos = Match.TICK_MS * 1000000L;
+    running = true;
+  }
+
+  public int port() {
+    return server.socket().getLocalPort();
+  }
+
+  public void stop() {
+    running = false;
+    selector.wakeup();
+  }
+
+  // -------------------------------------------------------------------
+  // one client connection
+
+  class Conn {
+    SocketChannel ch;                  // null for UDP
+    SelectionKey key;
+    ByteBuffer in, out;
+    SocketAddress addr;                // UDP only
+    boolean closed;
+    Room room;
+    int slot;                          // player index, -1 until seated
+    int[] inputSeq, inputBits;         // queued inputs, one used per tick
+    int inputHead, inputCount;
+    int ack;                           // seq of the input used in the last tick
+    int frame;                         // last snapshot the client decoded, -1 for none
+    int shown;                         // the frame it draws the others at, -1 for frame
+    int lastSeq;                       // newest input queued
+    boolean robot;                     // the seat is handed to the robot
+    int cookie;                        // UDP: in WELCOME, echoed in INPUTS
+    boolean verified;                  // the address answered; states may go to it
+    int joinRoom, joinWidth, joinHeight; // UDP: the JOIN waiting on the cookie
+    boolean joinTeams;
+    long[] interestPrev;               // interest rooms: entities sent last tick
+    long[][] sentMask;                 // and in each recent frame, by frame
+    SpectatorFeed.Watcher watch;       // spectators only
+
+    // UDP only
+    int outSeq, inSeq, inBits;
+    long heard;
+
+    Conn(SocketChannel theCh) {
+      this();
+      ch = theCh;
+      in = ByteBuffer.allocate(MAX_FRAME * 2);
+      out = ByteBuffer.allocateDirect(OUT_BUFFER);
+      verified = true;                 // the TCP handshake already did that
+    }
+
+    Conn(SocketAddress theAddr) {
+      this();
+      addr = theAddr;
+      heard = System.nanoTime();
+      cookie = cookies.nextInt();
+      verified = false;
+    }
+
+    Conn() {
+      closed = false;
+      room = null;
+      slot = -1;
+      inputSeq = new int[INPUT_QUEUE];
+      inputBits = new int[INPUT_QUEUE];
+      inputHead = 0;
+      inputCount = 0;
+      ack = 0;
+      frame = -1;
+      shown = -1;
+      lastSeq = 0;
+      robot = false;
+    }
+
+    // fold the oldest input into the next, so no press is lost
+    void fold() {
+      int j = (inputHead + 1) % INPUT_QUEUE;
+      inputBits[j] |= inputBits[inputHead];
+      inputHead = j;
+      inputCount--;
+    }
+
+    void queueInput(int seq, int bits) {
+      inputsIn++;
+      lastSeq = seq;
+      if (inputCount == INPUT_QUEUE)
+        fold();                        // way behind
+      int k = (inputHead + inputCount) % INPUT_QUEUE;
+      inputSeq[k] = seq;
+      inputBits[k] = bits;
+      inputCount++;
+    }
+
+    // the bits for this tick, 0 if nothing came in
+    int nextInput() {
+      if (inputCount == 0)
+        return 0;
+      // repeated inputs after a loss arrive together; don't let them
+      // add a tick of delay to everything after
+      if (inputCount > INPUT_BACKLOG)
+        fold();
+      int bits = inputBits[inputHead];
+      ack = inputSeq[inputHead];
+      inputHead = (inputHead + 1) % INPUT_QUEUE;
+      inputCount--;
+      return bits;
+    }
+
+    // false if the frame doesn't fit; the caller decides what to drop
+    boolean send(ByteBuffer frame) {
+      if (addr != null)
+        return sendPacket(frame);
+      if (out.remaining() < frame.remaining())
+        return false;
+      out.put(frame);
+      return true;
+    }
+
+    // a frame as one datagram, behind the seq and acks
+    boolean sendPacket(ByteBuffer frame) {
+      int at = frame.position();
+      ByteBuffer p = packetOut;
+      p.clear();
+      outSeq++;
+      p.putInt(outSeq);
+      p.putInt(inSeq);
+      p.putInt(inBits);
+      frame.position(at + 2);          // datagrams carry their own length
+      p.put(frame);
+      p.flip();
+      bytesOut += p.remaining();
+      try {
+        udp.send(p, addr);
+      } catch (IOException e) {
+        return false;
+      }
+      return true;
+    }
+
+    // a client packet came in: slide the ack window
+    void received(int seq) {
+      heard = System.nanoTime();
+      if (seq > inSeq) {
+        int shift = seq - inSeq;
+        inBits = shift >= 32 ? 0 : inBits << shift;
+        if (shift <= 32)
+          inBits |= 1 << (shift - 1);
+        inSeq = seq;
+      }
+      else if (seq < inSeq && inSeq - seq <= 32)
+        inBits |= 1 << (inSeq - seq - 1);
+    }
+
+    void flush() throws IOException {
+      if (addr != null)
+        return;
+      boolean more;
+      if (watch != null) {
+        bytesOut += watch.write(ch, out);
+        more = out.position() > 0 || watch.pending();
+      } else {
+        out.flip();
+        bytesOut += ch.write(out);
+        out.compact();
+        more = out.position() > 0;
+      }
+      int ops = SelectionKey.OP_READ | (more ? SelectionKey.OP_WRITE : 0);
+      if (key.interestOps() != ops)
+        key.interestOps(ops);
+    }
+  }
+
+  // -------------------------------------------------------------------
+  // a match and the clients playing it
+
+  class Room {
+    int id;
+    Match match;
+    NetState state;
+    SnapshotCodec codec;
+    int frame;                         // snapshot number, unlike match.tick never reset
+    Conn[] seats;
+    ArrayList<Conn> conns;
+    ArrayList<Conn> spectators;
+    SpectatorFeed feed;
+    ByteBuffer[] encoded;              // this tick's snapshots, one per baseline in use
+    int[] encodedBase;
+    Interest interest;                 // null when the field is sent whole
+    int restart;
+
+    Room(int theId, boolean teams, int w, int h) {
+      id = theId;
+      match = new Match(w, h);
+      match.teams = teams;
+      setupRoom(match, theId);
+      match.lag = new LagCompensation(match);
+      if (trace != null)
+        match.recorder = trace.newRecorder(theId);
+      state = new NetState(match.players.length, match.balls.length);
+      seats = new Conn[match.players.length];
+      conns = new ArrayList<Conn>();
+      spectators = new ArrayList<Conn>();
+      codec = new SnapshotCodec(state.players, state.balls);
+      feed = new SpectatorFeed(codec);
+      frame = 0;
+      encoded = new ByteBuffer[4];
+      encodedBase = new int[encoded.length];
+      for (int i=0; i<encoded.length; i++)
+        encoded[i] = ByteBuffer.allocateDirect(3 + codec.maxSize());
+      interest = Interest.wanted(match) ? new Interest(match) : null;
+      restart = 0;
+    }
+
+    boolean seat(Conn c) {
+      for (int i=0; i<seats.length; i++) {
+        if (seats[i] == null) {
+          seats[i] = c;
+          c.slot = i;
+          c.room = this;
+          conns.add(c);
+          Person p = match.players[i];
+          p.isRobot = false;
+          p.forced = 0;
+          if (interest != null && c.sentMask == null) {
+            c.interestPrev = new long[interest.words];
+            c.sentMask = new long[SnapshotCodec.HISTORY][interest.words];
+          }
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void watch(Conn c) {
+      c.room = this;
+      c.slot = -1;
+      c.watch = feed.new Watcher();
+      spectators.add(c);
+    }
+
+    void leave(Conn c) {
+      if (c.watch != null) {
+        spectators.remove(c);
+        c.watch.close();
+        c.watch = null;
+        c.room = null;
+        return;
+      }
+      conns.remove(c);
+      if (c.slot >= 0 && seats[c.slot] == c) {
+        seats[c.slot] = null;
+        Person p = match.players[c.slot];
+        p.isRobot = true;
+        p.forced = -1;
+        p.lagTicks = 0;
+      }
+      c.room = null;
+    }
+
+    void tick() {
+      int i;
+      for (i=0; i<seats.length; i++) {
+        Conn c = seats[i];
+        if (c != null) {
+          Person p = match.players[i];
+          int bits = c.nextInput();
+          if ((bits & (1<<Person.MODEL)) != 0)
+            p.switchModel();
+          if ((bits & (1<<Person.ROBOT)) != 0)
+            c.robot = !c.robot;
+          p.isRobot = c.robot;
+          p.forced = c.robot ? -1 : bits & 15;
+          // its client showed the others at this frame when it sent it
+          int seen = c.shown >= 0 ? c.shown : c.frame;
+          p.lagTicks = c.robot || seen < 0 || seen > frame ? 0 : frame - seen;
+        }
+      }
+      if (match.started)
+        match.step();
+      else if (++restart >= RESTART_TICKS) {
+        restart = 0;
+        match.start();
+      }
+
+      state.capture(match);
+      frame++;
+      codec.store(state, frame);
+      if (interest != null)
+        sendInterest();
+      else
+        sendShared();
+      if (!spectators.isEmpty()) {
+        feed.begin(frame, state);
+        for (i=0; i<spectators.size(); i++)
+          feed.send(spectators.get(i).watch);
+        feed.end();
+      }
+    }
+
+    void sendShared() {
+      int i, used = 0;
+      for (i=0; i<conns.size(); i++) {
+        Conn c = conns.get(i);
+        if (!c.verified)
+          continue;
+        int base = codec.hasBaseline(c.frame, frame) ? c.frame : -1;
+        // clients mostly ack the same frame, so encode once per baseline
+        int k;
+        for (k=0; k<used; k++)
+          if (encodedBase[k] == base)
+            break;
+        if (k == used && used == encoded.length)
+          k = used - 1;                // rare: more baselines than buffers
+        ByteBuffer b = encoded[k];
+        if (k == used || encodedBase[k] != base) {
+          b.clear();
+          b.position(3);
+          codec.encode(frame, base, state, b);
+          b.putShort(0, (short) (b.position() - 2));
+          b.put(2, (byte) STATE);
+          b.flip();
+          encodedBase[k] = base;
+          if (k == used)
+            used++;
+        }
+        b.putInt(3 + SnapshotCodec.ACK_OFFSET, c.ack);
+        b.rewind();
+        if (!c.send(b))
+          statesDropped++;
+      }
+    }
+
+    // every client its own snapshot: what it sees now, against what it
+    // was sent in the frame it acked
+    void sendInterest() {
+      interest.rebuild();
+      ByteBuffer b = encoded[0];
+      for (int i=0; i<conns.size(); i++) {
+        Conn c = conns.get(i);
+        if (!c.verified)
+          continue;
+        int base = codec.hasBaseline(c.frame, frame) ? c.frame : -1;
+        long[] now = c.sentMask[frame & (SnapshotCodec.HISTORY - 1)];
+        interest.update(c.slot, now, c.interestPrev);
+        long[] before = base < 0 ? null : c.sentMask[base & (SnapshotCodec.HISTORY - 1)];
+        b.clear();
+        b.position(3);
+        codec.encode(frame, base, state, b, now, before);
+        b.putShort(0, (short) (b.position() - 2));
+        b.put(2, (byte) STATE);
+        b.putInt(3 + SnapshotCodec.ACK_OFFSET, c.ack);
+        b.flip();
+        if (!c.send(b))
+          statesDropped++;
+      }
+    }
+  }
+
+  // a room's match as both server and predicting clients build it;
+  // teams and the field size are set by the caller. Empty seats are
+  // played by robots
+  static void setupRoom(Match m, int id) {
+    m.setSeed(id);
+    m.setup();
+    for (int i=0; i<m.players.length; i++) {
+      m.players[i].isRobot = true;
+      m.players[i].smart = 5;
+    }
+    m.start();
+  }
+
+  // -------------------------------------------------------------------
+  // the loop
+
+  public void run() {
+    long next = System.nanoTime() + tickNanos;
+    try {
+      while (running) {
+        long wait = next - System.nanoTime();
+        if (wait > 1000000)
+          selector.select(wait / 1000000);
+        else
+          selector.selectNow();
+        long t0 = System.nanoTime();
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey k = it.next();
+          it.remove();
+          if (!k.isValid())
+            continue;
+          if (k.isAcceptable())
+            accept();
+          else if (k.channel() == dgram)
+            readPackets();
+          else {
+            Conn c = (Conn) k.attachment();
+            try {
+              if (k.isReadable())
+                read(c);
+              if (k.isValid() && k.isWritable())
+                c.flush();
+            } catch (IOException e) {
+              close(c);
+            } catch (RuntimeException e) {
+              close(c);                // a malformed frame; the other clients go on
+            }
+          }
+        }
+
+        if (t0 >= next) {
+          tickAll();
+          next += tickNanos;
+          if (next < t0)
+            next = t0 + tickNanos;     // fell behind; don't try to catch up
+        }
+        long busy = System.nanoTime() - t0;
+        busyNanos += busy;
+        if (busy > maxBusyNanos)
+          maxBusyNanos = busy;
+      }
+      selector.close();
+      server.close();
+      udp.close();
+      if (trace != null)
+        trace.close();
+    } catch (IOException e) {
+      System.out.println("server: " + e);
+    }
+  }
+
+  void tickAll() {
+    ticks++;
+    if (ticks % 33 == 0)
+      dropSilent();
+    Iterator<Room> it = rooms.values().iterator();
+    while (it.hasNext()) {
+      Room r = it.next();
+      if (r.conns.isEmpty() && r.spectators.isEmpty()) {
+        it.remove();
+        continue;
+      }
+      r.tick();
+      flushAll(r.conns);
+      flushAll(r.spectators);
+    }
+  }
+
+  void flushAll(ArrayList<Conn> conns) {
+    for (int i=conns.size()-1; i>=0; i--) {
+      Conn c = conns.get(i);
+      try {
+        c.flush();
+      } catch (IOException e) {
+        close(c);
+      }
+    }
+  }
+
+  void accept() throws IOException {
+    SocketChannel ch = server.accept();
+    if (ch == null)
+      return;
+    ch.configureBlocking(false);
+    ch.socket().setTcpNoDelay(true);
+    Conn c = new Conn(ch);
+    c.key = ch.register(selector, SelectionKey.OP_READ, c);
+    clients++;
+  }
+
+  // UDP has no close; a client that stops sending is gone
+  void dropSilent() {
+    long old = System.nanoTime() - UDP_TIMEOUT_MS * 1000000L;
+    ArrayList<Conn> gone = new ArrayList<Conn>();
+    Iterator<Conn> it = udpConns.values().iterator();
+    while (it.hasNext()) {
+      Conn c = it.next();
+      if (c.heard < old)
+        gone.add(c);
+    }
+    for (int i=0; i<gone.size(); i++)
+      close(gone.get(i));
+  }
+
+  void readPackets() throws IOException {
+    ByteBuffer b = packetIn;
+    while (true) {
+      b.clear();
+      SocketAddress from = udp.receive(b);
+      if (from == null)
+        return;
+      b.flip();
+      if (b.remaining() < 5)
+        continue;
+      int seq = b.getInt();
+      int type = b.get();
+      Conn c = udpConns.get(from);
+      if (c == null) {
+        if (type != JOIN)
+          continue;                    // from a client we've dropped
+        c = new Conn(from);
+        udpConns.put(from, c);
+        clients++;
+      }
+      framesIn++;
+      c.received(seq);
+      try {
+        handle(c, type, b);
+      } catch (RuntimeException e) {
+        close(c);                      // a malformed packet
+      }
+    }
+  }
+
+  void read(Conn c) throws IOException {
+    int n = c.ch.read(c.in);
+    if (n < 0) {
+      close(c);
+      return;
+    }
+    c.in.flip();
+    while (c.in.remaining() >= 2) {
+      int len = c.in.getShort(c.in.position()) & 0xffff;
+      if (len == 0 || len > MAX_FRAME) {
+        close(c);
+        return;
+      }
+      if (c.in.remaining() < 2 + len)
+        break;
+      int end = c.in.position() + 2 + len, limit = c.in.limit();
+      c.in.position(c.in.position() + 2);
+      c.in.limit(end);                 // a short body can't read into the next frame
+      framesIn++;
+      handle(c, c.in.get(), c.in);
+      if (c.closed)
+        return;                        // closed while handling
+      c.in.limit(limit);
+      c.in.position(end);
+    }
+    c.in.compact();
+  }
+
+  // the shortest body each client frame can have, after the type
+  static int minBody(int type) {
+    switch (type) {
+    case JOIN:   return 9;
+    case INPUT:  return 13;
+    case INPUTS: return 17;
+    case WATCH:  return 4;
+    case PING:   return 8;
+    default:     return 0;
+    }
+  }
+
+  // b holds just this frame's body; a client sending a malformed one
+  // is closed by the caller, on any RuntimeException
+  void handle(Conn c, int type, ByteBuffer b) throws IOException {
+    if (b.remaining() < minBody(type)) {
+      close(c);
+      return;
+    }
+    switch (type) {
+    case JOIN:
+      {
+        int id = b.getInt();
+        boolean teams = b.get() != 0;
+        int width = b.getShort(), height = b.getShort();
+        if (!c.verified) {
+          c.joinRoom = id;             // kept until the cookie comes back
+          c.joinTeams = teams;
+          c.joinWidth = width;
+          c.joinHeight = height;
+          welcome(c);
+          return;
+        }
+        join(c, id, teams, width, height);
+      }
+      break;
+    case INPUT:
+      {
+        int seq = b.getInt();
+        int bits = b.get() & 63;
+        if (seq > c.lastSeq)
+          c.queueInput(seq, bits);
+        c.frame = b.getInt();
+        c.shown = b.getInt();
+      }
+      break;
+    case INPUTS:
+      {
+        int newest = b.getInt();
+        int frame = b.getInt();
+        int shown = b.getInt();
+        int cookie = b.getInt();
+        int n = b.get() & 0xff;
+        if (n > b.remaining() || n > UdpGameClient.REDUNDANT)
+          break;                       // malformed; no client sends this
+        if (c.addr != null && cookie != c.cookie)
+          break;                       // not from whoever got the WELCOME
+        if (!c.verified) {
+          c.verified = true;
+          join(c, c.joinRoom, c.joinTeams, c.joinWidth, c.joinHeight);
+          if (c.closed)
+            return;
+        }
+        if (newest > c.lastSeq) {      // else nothing new, or out of order
+          for (int k=n-1; k>=0; k--) {
+            int seq = newest - k;
+            if (seq > c.lastSeq)
+              c.queueInput(seq, b.get(b.position() + k) & 63);
+          }
+          c.frame = frame;
+          c.shown = shown;
+        }
+        b.position(b.position() + n);
+      }
+      break;
+    case WATCH:
+      {
+        Room r = rooms.get(Integer.valueOf(b.getInt()));
+        if (c.addr != null) {
+          error(c, "Spectators need TCP");
+          return;
+        }
+        if (r == null) {
+          error(c, "No such room");
+          return;
+        }
+        if (c.room != null)
+          c.room.leave(c);
+        c.ch.socket().setSendBufferSize(SpectatorFeed.SEND_BUFFER);
+        r.watch(c);
+        welcome(c);
+      }
+      break;
+    case LEAVE:
+      close(c);
+      break;
+    case PING:
+      {
+        ByteBuffer w = ByteBuffer.allocate(11);
+        w.putShort((short) 9);
+        w.put((byte) PONG);
+        w.putLong(b.getLong());
+        w.flip();
+        c.send(w);
+        c.flush();
+      }
+      break;
+    default:
+      error(c, "Unknown message " + type);
+    }
+  }
+
+  void join(Conn c, int id, boolean teams, int width, int height) throws IOException {
+    if (c.room != null && c.room.id == id) {
+      welcome(c);                      // a repeated JOIN: the WELCOME was lost
+      return;
+    }
+    if (c.room != null)
+      c.room.leave(c);
+    Integer key = Integer.valueOf(id);
+    Room r = rooms.get(key);
+    if (r == null) {
+      if (rooms.size() >= MAX_ROOMS) {
+        error(c, "Too many rooms");
+        return;
+      }
+      r = new Room(id, teams, Math.min(Math.max(width, 200), MAX_WIDTH),
+                   Math.min(Math.max(height, 150), MAX_HEIGHT));
+      rooms.put(key, r);
+    }
+    if (!r.seat(c)) {
+      error(c, "Room is full");
+      return;
+    }
+    welcome(c);
+  }
+
+  // before a UDP address is verified it has no room: slot -1, 0
+  // players and balls, just the cookie
+  void welcome(Conn c) throws IOException {
+    Room r = c.room;
+    ByteBuffer w = ByteBuffer.allocate(14);
+    w.putShort((short) 12);
+    w.put((byte) WELCOME);
+    w.put((byte) c.slot);
+    w.put((byte) (r == null ? 0 : r.match.players.length));
+    w.put((byte) (r == null ? 0 : r.match.balls.length));
+    w.putInt(r == null ? 0 : r.match.tick);
+    w.putInt(c.cookie);
+    w.flip();
+    c.send(w);
+    c.flush();
+  }
+
+  void error(Conn c, String msg) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream d = new DataOutputStream(bos);
+    d.writeShort(0);
+    d.writeByte(ERROR);
+    d.writeUTF(msg);
+    byte[] bytes = bos.toByteArray();
+    ByteBuffer w = ByteBuffer.wrap(bytes);
+    w.putShort(0, (short) (bytes.length - 2));
+    c.send(w);
+    c.flush();
+    close(c);
+  }
+
+  void close(Conn c) {
+    if (c.closed)
+      return;
+    c.closed = true;
+    if (c.room != null)
+      c.room.leave(c);                 // empty rooms go at the next tick
+    if (c.addr != null)
+      udpConns.remove(c.addr);
+    else {
+      c.key.cancel();
+      try {
+        c.ch.close();
+      } catch (IOException e) {
+      }
+    }
+    clients--;
+  }
+
+  public String summary() {
+    if (ticks == 0)
+      return "server: idle";
+    return "server: " + rooms.size() + " rooms, " + clients + " clients, busy "
+      + Math.round(busyNanos / ticks / 100) / 10.0 + " us/tick (max " + maxBusyNanos / 1000
+      + " us), " + statesDropped + " states dropped, " + snapshotBytes() + " bytes/state";
+  }
+
+  // a room's spectators, for benches; null if there is no such room
+  SpectatorFeed feed(int room) {
+    Room r = rooms.get(Integer.valueOf(room));
+    return r == null ? null : r.feed;
+  }
+
+  String snapshotBytes() {
+    long n = 0, bytes = 0;
+    Iterator<Room> it = rooms.values().iterator();
+    while (it.hasNext()) {
+      SnapshotCodec c = it.next().codec;
+      n += c.encodes;
+      bytes += c.bytesOut;
+    }
+    return n == 0 ? "-" : "" + Math.round(bytes * 10.0 / n) / 10.0;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 4560;
+    GameServer s = new GameServer(port);
+    if (args.length > 1)
+      s.trace = new TraceWriter(new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16),
+                                64, 4096);
+    System.out.println("server: listening on " + s.port());
+    s.run();
+  }
+}
@@ -0,0 +1,96 @@
+//=========================================================================
+//#
+//#  GoldBall.java
+//#
+//#  Author: Paul Rajlich
+//#  Email: prajlich@ncsa.uiuc.edu
+//#  WWW: http://www.ncsa.uiuc.edu/People/prajlich
+//#
+//#  Description: the gold ball, which flies away from the players
+//#
+//=========================================================================
+//# Copyright (C) 2000, 2001   Paul Rajlich, all rights reserved
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class GoldBall extends Ball {
+  static final int RANGE = 100;    // players closer than this are evaded
+  static final int NEAREST = 4;    // ... at most this many, the nearest
+
+  int evaded;                      // evasions recorded in decided
+  GoldBall(Match m, int theModel, int initX, int initY) {
+    super(m, theModel, initX, initY);
+    init();
+    smart = 1;
+  }
+ 
+  public void init() {
+    //System.out.println("GoldBall init()");
+    w = 8;
+    h = 8;
+    isGoldBall = true;
+    //speedFactor = 3 * bFrame.speed;
+    maxSpeed = 2 * match.maxspeed;
+    accel = 2 * match.accel;
+  }
+
+  public void move() {
+    if (!match.think.due(this)) {
+      // repeat what we did for each player last time
+      for (int i=0; i<8; i++) {
+        int bits = (decided >>> (4*i)) & 15;
+        if (bits == 0)
+          break;
+        applyActions(bits);
+      }
+      super.move();
+      return;
+    }
+    // move based on pos and vel of players
+    decided = 0;
+    evaded = 0;
+    if (match.useGrid) {
+      int n = match.grid.near(x, y, RANGE, NEAREST, match.nearby);
+      for (int i=0; i<n; i++)
+        evade(match.players[match.nearby[i]]);
+    }
+    else {
+      for (int i=0; i<match.players.length; i++) {
+        Person p = match.players[i];
+        int dx = (int) (x - p.x);
+        int dy = (int) (y - p.y);
+        if (Math.abs(dx) < RANGE && Math.abs(dy) < RANGE)
+          evade(p);
+      }
+    }
+    super.move();
+  }
+
+  void evade(Person p) {
+    int choice = match.nextInt()%smart;
+    //int choice = 0;
+    if (choice == 0) {
+      int bits = 0;
+      if (p.x < x)
+        bits |= 1<<Person.RIGHT;
+      if (p.x > x)
+        bits |= 1<<Person.LEFT;
+      if (p.y > y)
+        bits |= 1<<Person.UP;
+      if (p.y < y)
+        bits |= 1<<Person.DOWN;
+      applyActions(bits);
+      // remember up to 8 of these, 4 bits each
+      if (bits != 0 && evaded < 8)
+        decided |= bits << (4*evaded++);
+    }
+  }
+
+  public void down() {
+    velocityY += accel;
+    if (velocityY > maxSpeed)
+      velocityY = maxSpeed;
+  }
+}
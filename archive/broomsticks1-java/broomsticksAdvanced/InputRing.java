@@ -0,0 +1,80 @@
+//=========================================================================
+//#
+//#  InputRing.java
+//#
+//#  Description: single-producer/single-consumer ring of timestamped
+//#               key codes, no locks on either side
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.concurrent.atomic.*;
+
+class InputRing {
+
+  int[] keys;
+  long[] stamps;
+  int mask;
+
+  // tail is only written by the producer, head only by the consumer.
+  // lazySet publishes the slot contents before the new index.
+  AtomicLong head, tail;
+  long cachedHead;                   // producer's view of head
+
+  public int dropped;
+
+  // filled in by poll(), only read by the consumer
+  public int key;
+  public long stamp;
+
+  InputRing(int size) {
+    int n = 1;
+    while (n < size)
+      n <<= 1;
+    keys = new int[n];
+    stamps = new long[n];
+    mask = n-1;
+    head = new AtomicLong(0);
+    tail = new AtomicLong(0);
+    cachedHead = 0;
+    dropped = 0;
+  }
+
+  // producer side
+  public boolean push(int k, long t) {
+    long tl = tail.get();
+    if (tl - cachedHead > mask) {
+      cachedHead = head.get();
+      if (tl - cachedHead > mask) {
+        dropped++;
+        return false;
+      }
+    }
+    int i = (int) tl & mask;
+    keys[i] = k;
+    stamps[i] = t;
+    tail.lazySet(tl+1);
+    return true;
+  }
+
+  // consumer side
+  public boolean poll() {
+    long hd = head.get();
+    if (hd == tail.get())
+      return false;
+    int i = (int) hd & mask;
+    key = keys[i];
+    stamp = stamps[i];
+    head.lazySet(hd+1);
+    return true;
+  }
+
+  // entries visible to the consumer right now
+  public int size() {
+    return (int) (tail.get() - head.get());
+  }
+
+  public boolean isEmpty() {
+    return head.get() == tail.get();
+  }
+}
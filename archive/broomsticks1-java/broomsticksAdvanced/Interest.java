@@ -0,0 +1,186 @@
+//=========================================================================
+//#
+//#  Interest.java
+//#
+//#  Description: which players and balls each client is sent in a big
+//#               field. Everything in the grid cells overlapping a view
+//#               the size of the classic field, centred on the client's
+//#               own player, plus what is always relevant:
+//#               the player itself and the gold balls. The score and
+//#               match fields always go. Masks are bitsets over the
+//#               SnapshotCodec entities (players, then balls), so what
+//#               entered or left since last tick is a word-wide and-not
+//#
+//#  usage: java Interest [players] [clients] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.nio.*;
+
+class Interest {
+
+  static final int CELL = 100;
+  static final int VIEW_X = 320, VIEW_Y = 200; // half the view, rounded out to whole cells
+  static final int MIN_AREA = 4 * 630 * 400; // smaller fields are sent whole
+  // and so are smaller rosters: a masked snapshot is encoded per client,
+  // tens of times the shared encode, and only pays off in bytes once
+  // there are enough players and balls to leave out
+  static final int MIN_ENTITIES = 64;
+
+  Match match;
+  SpatialGrid playerGrid, ballGrid;
+  int players, balls, words;
+  long[] always;
+
+  // stats
+  public long updates, visible, entered, left, nanos;
+
+  Interest(Match m) {
+    match = m;
+    players = m.players.length;
+    balls = m.balls.length;
+    words = (players + balls + 63) >> 6;
+    playerGrid = new SpatialGrid(m.width, m.height, CELL);
+    ballGrid = new SpatialGrid(m.width, m.height, CELL);
+    always = new long[words];
+  }
+
+  public static boolean wanted(Match m) {
+    return m.width * m.height >= MIN_AREA
+      && m.players.length + m.balls.length >= MIN_ENTITIES;
+  }
+
+  // once per tick, before update()
+  public void rebuild() {
+    long t0 = System.nanoTime();
+    playerGrid.rebuild(match.players);
+    ballGrid.rebuild(match.balls);
+    Arrays.fill(always, 0);
+    for (int i=0; i<balls; i++)
+      if (match.balls[i].isGoldBall) {
+        int e = players + i;
+        always[e >> 6] |= 1L << e;
+      }
+    nanos += System.nanoTime() - t0;
+  }
+
+  // mask becomes what the client seated at slot should get this tick;
+  // prev is what it got last tick and becomes a copy of mask
+  public void update(int slot, long[] mask, long[] prev) {
+    long t0 = System.nanoTime();
+    System.arraycopy(always, 0, mask, 0, words);
+    Person p = match.players[slot];
+    float x = p.x + p.w / 2, y = p.y + p.h / 2;
+    playerGrid.mark(x, y, VIEW_X, VIEW_Y, mask, 0);
+    ballGrid.mark(x, y, VIEW_X, VIEW_Y, mask, players);
+    mask[slot >> 6] |= 1L << slot;
+    int seen = 0, in = 0, out = 0;
+    for (int i=0; i<words; i++) {
+      seen += Long.bitCount(mask[i]);
+      in += Long.bitCount(mask[i] & ~prev[i]);
+      out += Long.bitCount(prev[i] & ~mask[i]);
+      prev[i] = mask[i];
+    }
+    updates++;
+    visible += seen;
+    entered += in;
+    left += out;
+    nanos += System.nanoTime() - t0;
+  }
+
+  public String summary() {
+    if (updates == 0)
+      return "interest: idle";
+    return "interest: " + Math.round(visible * 10.0 / updates) / 10.0 + " of " + (players + balls)
+      + " visible, " + Math.round(entered * 100.0 / updates) / 100.0 + " enter "
+      + Math.round(left * 100.0 / updates) / 100.0 + " leave per client tick, "
+      + Math.round(nanos / updates / 10) / 100.0 + " us per client";
+  }
+
+  // -------------------------------------------------------------------
+  // bench: a robot arena, some players watched by clients that ack every
+  // frame. Whole snapshots are encoded once per tick and shared; masked
+  // ones once per client
+
+  public static void main(String[] args) {
+    int players = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    int ticks = seconds * 1000 / Match.TICK_MS;
+
+    Match m = SpatialGrid.arena(players, 8);
+    NetState s = new NetState(m.players.length, m.balls.length);
+    SnapshotCodec codec = new SnapshotCodec(s.players, s.balls);
+    Interest interest = new Interest(m);
+    ByteBuffer out = ByteBuffer.allocateDirect(codec.maxSize());
+    long[][] mask = new long[clients][interest.words];
+    long[][][] sent = new long[clients][SnapshotCodec.HISTORY][interest.words];
+    SnapshotCodec[] client = new SnapshotCodec[clients];
+    NetState got = new NetState(s.players, s.balls);
+    int[] want = new int[codec.fields], check = new int[codec.fields];
+    long fullBytes = 0, fullNanos = 0, aoiBytes = 0, aoiNanos = 0;
+    int c, frame, measured = 0, errors = 0;
+    for (c=0; c<clients; c++)
+      client[c] = new SnapshotCodec(s.players, s.balls);
+
+    for (frame=0; frame<ticks; frame++) {
+      m.step();
+      s.capture(m);
+      codec.store(s, frame);
+      boolean measure = frame >= ticks / 10;
+      if (measure && frame == ticks / 10) {
+        interest.updates = interest.visible = interest.entered = interest.left = interest.nanos = 0;
+      }
+
+      out.clear();
+      long t0 = System.nanoTime();
+      codec.encode(frame, frame - 1, s, out);
+      long t1 = System.nanoTime();
+      if (measure) {
+        fullBytes += (long) out.position() * clients;
+        fullNanos += t1 - t0;
+      }
+
+      t0 = System.nanoTime();
+      interest.rebuild();
+      long aoi = System.nanoTime() - t0;
+      codec.quantize(s, want);
+      for (c=0; c<clients; c++) {
+        int slot = c * players / clients;
+        long[] now = sent[c][frame & (SnapshotCodec.HISTORY - 1)];
+        long[] before = sent[c][(frame - 1) & (SnapshotCodec.HISTORY - 1)];
+        out.clear();
+        t0 = System.nanoTime();
+        interest.update(slot, now, mask[c]);
+        codec.encode(frame, frame - 1, s, out, now, before);
+        aoi += System.nanoTime() - t0;
+        if (measure)
+          aoiBytes += out.position();
+
+        // the client sees exactly what it was sent
+        out.flip();
+        client[c].decode(out, got);
+        client[c].quantize(got, check);
+        for (int e=0; e<codec.entities; e++)
+          if (SnapshotCodec.has(now, e))
+            for (int f=codec.first[e]; f<codec.first[e+1]; f++)
+              if (check[f] != want[f])
+                errors++;
+      }
+      if (measure) {
+        aoiNanos += aoi;
+        measured++;
+      }
+    }
+
+    System.out.println("players=" + players + " balls=" + m.balls.length + " clients=" + clients
+                       + " field=" + m.width + "x" + m.height + " decode errors=" + errors);
+    System.out.println("whole:    " + fullBytes / measured / clients + " bytes/client/tick, encode "
+                       + fullNanos / measured / 1000 + " us/tick");
+    System.out.println("interest: " + aoiBytes / measured / clients + " bytes/client/tick, encode "
+                       + aoiNanos / measured / 1000 + " us/tick (masks included)");
+    System.out.println(interest.summary());
+  }
+}
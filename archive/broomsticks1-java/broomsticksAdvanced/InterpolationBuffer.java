@@ -0,0 +1,268 @@
+//=========================================================================
+//#
+//#  InterpolationBuffer.java
+//#
+//#  Description: server snapshots by frame with their arrival times, so
+//#               remote players and balls can be drawn a little in the
+//#               past, between two snapshots. The delay follows the
+//#               measured arrival jitter: up at once, down slowly. When
+//#               snapshots stop coming, positions run on from the last
+//#               one for at most MAX_EXTRAPOLATE ticks, then hold
+//#
+//#  usage: java InterpolationBuffer [jitter ms] [loss %] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class InterpolationBuffer {
+
+  static final int SIZE = 64;                // power of two
+  static final float MAX_EXTRAPOLATE = 3;    // ticks
+  static final long MARGIN = 2000000;        // ns on top of the jitter
+  static final double JITTER_DECAY = 0.995;  // per snapshot, ~4 s half life
+  static final long DELAY_STEP = 200000;     // ns the delay may shrink per snapshot
+
+  long tickNanos;
+  NetState[] snaps;
+  int[] frameOf;
+  int newest;                                // -1 until the first snapshot
+
+  // arrival = offset + frame * tickNanos + lateness
+  long offset;
+  double jitter;                             // recent peak lateness, ns
+  public long delay;                         // render this far behind, ns
+  public volatile int shown;                 // frame the last sample() drew from, -1 before
+
+  // stats
+  public long added, stale, samples, extrapolated, held;
+
+  InterpolationBuffer(int players, int balls) {
+    tickNanos = Match.TICK_MS * 1000000L;
+    snaps = new NetState[SIZE];
+    frameOf = new int[SIZE];
+    for (int i=0; i<SIZE; i++) {
+      snaps[i] = new NetState(players, balls);
+      frameOf[i] = -1;
+    }
+    newest = -1;
+    shown = -1;
+    jitter = 0;
+    delay = tickNanos + MARGIN;
+  }
+
+  // game thread, as each state is decoded
+  public synchronized void add(int frame, NetState s, long now) {
+    if (frame <= newest) {
+      // reordered: still fills a gap, but says nothing about timing
+      if (newest - frame < SIZE && frameOf[frame & (SIZE - 1)] != frame) {
+        snaps[frame & (SIZE - 1)].copyFrom(s);
+        frameOf[frame & (SIZE - 1)] = frame;
+        added++;
+      }
+      else
+        stale++;
+      return;
+    }
+    if (newest < 0 || frame - newest >= SIZE)
+      offset = now - frame * tickNanos;      // first, or after a long gap
+    int k = frame & (SIZE - 1);
+    snaps[k].copyFrom(s);
+    frameOf[k] = frame;
+    newest = frame;
+    added++;
+
+    long raw = now - frame * tickNanos;
+    if (raw < offset)
+      offset = raw;                          // the quickest arrival so far
+    else
+      offset += (raw - offset) >> 10;        // follow a drifting clock
+    long late = now - (offset + frame * tickNanos);
+    jitter = Math.max(late, jitter * JITTER_DECAY);
+
+    long want = tickNanos + (long) jitter + MARGIN;
+    if (want > delay)
+      delay = want;
+    else
+      delay = Math.max(want, delay - DELAY_STEP);
+  }
+
+  // paint thread: fills out with remote positions for render time now;
+  // false before the first snapshot
+  public synchronized boolean sample(long now, NetState out) {
+    if (newest < 0)
+      return false;
+    samples++;
+    double at = (double) (now - delay - offset) / tickNanos;
+    if (at >= newest) {
+      NetState s = snaps[newest & (SIZE - 1)];
+      float dt = (float) (at - newest);
+      if (dt > MAX_EXTRAPOLATE) {
+        dt = MAX_EXTRAPOLATE;
+        held++;
+      }
+      else if (dt > 0)
+        extrapolated++;
+      out.copyFrom(s);
+      shown = newest;
+      for (int i=0; i<out.players; i++) {
+        out.px[i] += s.pvx[i] * dt;
+        out.py[i] += s.pvy[i] * dt;
+      }
+      for (int i=0; i<out.balls; i++) {
+        out.bx[i] += s.bvx[i] * dt;
+        out.by[i] += s.bvy[i] * dt;
+      }
+      return true;
+    }
+
+    // the snapshots either side of at, across lost ones
+    int f = (int) Math.floor(at), a = -1, b = -1;
+    for (int j=f; j>newest-SIZE && j>=0; j--)
+      if (frameOf[j & (SIZE - 1)] == j) {
+        a = j;
+        break;
+      }
+    for (int j=f+1; j<=newest; j++)
+      if (frameOf[j & (SIZE - 1)] == j) {
+        b = j;
+        break;
+      }
+    if (a < 0) {
+      out.copyFrom(snaps[b & (SIZE - 1)]);   // before anything we hold
+      shown = b;
+      return true;
+    }
+    shown = a;
+    // with interest masks, one that left by b isn't drawn and one that
+    // came in since a appears at b, rather than sliding from stale data
+    NetState sa = snaps[a & (SIZE - 1)], sb = snaps[b & (SIZE - 1)];
+    float t = (float) ((at - a) / (b - a));
+    out.copyFrom(sa);
+    System.arraycopy(sb.present, 0, out.present, 0, out.present.length);
+    for (int i=0; i<out.players; i++) {
+      if (!sb.has(i))
+        continue;
+      if (!sa.has(i)) {
+        out.copyPlayer(sb, i);
+        continue;
+      }
+      out.px[i] = sa.px[i] + (sb.px[i] - sa.px[i]) * t;
+      out.py[i] = sa.py[i] + (sb.py[i] - sa.py[i]) * t;
+      out.pvx[i] = sb.pvx[i];                // facing follows where it's going
+      out.pvy[i] = sb.pvy[i];
+    }
+    for (int i=0; i<out.balls; i++) {
+      int e = out.players + i;
+      if (!sb.has(e))
+        continue;
+      if (!sa.has(e)) {
+        out.copyBall(sb, i);
+        continue;
+      }
+      if (sa.alive[i] == 0 || sb.alive[i] == 0)
+        continue;
+      out.bx[i] = sa.bx[i] + (sb.bx[i] - sa.bx[i]) * t;
+      out.by[i] = sa.by[i] + (sb.by[i] - sa.by[i]) * t;
+    }
+    return true;
+  }
+
+  public synchronized String summary() {
+    if (samples == 0)
+      return "interp: no samples";
+    return "interp: delay " + Math.round(delay / 100000) / 10.0 + " ms (jitter "
+      + Math.round(jitter / 100000) / 10.0 + "), " + Math.round(extrapolated * 1000.0 / samples) / 10.0
+      + "% extrapolated, " + Math.round(held * 1000.0 / samples) / 10.0 + "% held, " + stale + " stale";
+  }
+
+  // -------------------------------------------------------------------
+  // bench: a robot match sent at the tick rate over a link with random
+  // extra delay and loss, drawn at 60 fps. Error is against the true
+  // path at the same render time; a pop is a frame to frame jump bigger
+  // than the fastest a ball can go plus 2 px
+
+  public static void main(String[] args) {
+    double jitterMs = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+    double loss = args.length > 1 ? Double.parseDouble(args[1]) / 100 : 0.02;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+
+    Match m = new Match(630, 400);
+    GameServer.setupRoom(m, 3);
+    int frames = seconds * 1000 / Match.TICK_MS;
+    NetState[] truth = new NetState[frames];
+    for (int f=0; f<frames; f++) {
+      if (m.started)
+        m.step();
+      else
+        m.start();
+      truth[f] = new NetState(m.players.length, m.balls.length);
+      truth[f].capture(m);
+    }
+
+    // arrival time of each frame, then in arrival order
+    Random rnd = new Random(5);
+    long tick = Match.TICK_MS * 1000000L, base = 40000000L;
+    long[] arrive = new long[frames];
+    Integer[] order = new Integer[frames];
+    for (int f=0; f<frames; f++) {
+      order[f] = Integer.valueOf(f);
+      double extra = -Math.log(1 - rnd.nextDouble()) * jitterMs * 1000000;
+      arrive[f] = rnd.nextDouble() < loss ? Long.MAX_VALUE : f * tick + base + (long) extra;
+    }
+    final long[] arr = arrive;
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer x, Integer y) {
+        long d = arr[x.intValue()] - arr[y.intValue()];
+        return d < 0 ? -1 : (d > 0 ? 1 : 0);
+      }
+    });
+
+    InterpolationBuffer buf = new InterpolationBuffer(m.players.length, m.balls.length);
+    NetState out = new NetState(m.players.length, m.balls.length);
+    float[] lastX = new float[m.players.length];
+    float[] lastY = new float[m.players.length];
+    long frameNanos = 1000000000L / 60, delaySum = 0;
+    int next = 0, drawn = 0, pops = 0;
+    double errSum = 0, errMax = 0;
+    float maxStep = 2 * m.maxspeed * 1.5f * frameNanos / tick + 2;
+    for (long now=base; now<(frames - 10) * tick; now+=frameNanos) {
+      while (next < frames && arrive[order[next].intValue()] <= now) {
+        int f = order[next++].intValue();
+        buf.add(f, truth[f], arrive[f]);
+      }
+      if (!buf.sample(now, out))
+        continue;
+      // true positions at the time drawn, from the send times
+      double at = (double) (now - buf.delay - base) / tick;
+      int f = (int) Math.floor(at);
+      if (f < 0 || f + 1 >= frames)
+        continue;
+      float t = (float) (at - f);
+      for (int i=0; i<out.players; i++) {
+        NetState a = truth[f], b = truth[f+1];
+        float tx = a.px[i] + (b.px[i] - a.px[i]) * t, ty = a.py[i] + (b.py[i] - a.py[i]) * t;
+        double err = Math.sqrt((out.px[i] - tx) * (out.px[i] - tx) + (out.py[i] - ty) * (out.py[i] - ty));
+        if (err < 50) {                      // a score resets positions; not a pop
+          errSum += err;
+          errMax = Math.max(errMax, err);
+        }
+        if (drawn > 0 && Math.abs(out.px[i] - lastX[i]) + Math.abs(out.py[i] - lastY[i]) > maxStep
+            && Math.abs(tx - lastX[i]) + Math.abs(ty - lastY[i]) <= maxStep)
+          pops++;
+        lastX[i] = out.px[i];
+        lastY[i] = out.py[i];
+      }
+      delaySum += buf.delay;
+      drawn++;
+    }
+
+    System.out.println("jitter " + jitterMs + " ms, loss " + Math.round(loss * 1000) / 10.0 + "%, "
+                       + drawn + " frames drawn");
+    System.out.println(buf.summary());
+    System.out.println("delay mean " + Math.round(delaySum / drawn / 100000) / 10.0 + " ms, error mean "
+                       + Math.round(errSum / drawn / m.players.length * 100) / 100.0 + " px max "
+                       + Math.round(errMax * 10) / 10.0 + " px, pops " + pops);
+  }
+}
@@ -0,0 +1,234 @@
+//=========================================================================
+//#
+//#  JsonReader.java
+//#
+//#  Description: finds the members of a JSON object in a ByteBuffer
+//#               without building anything: check() walks the whole
+//#               message once and notes where each top level value
+//#               starts and ends, so a relay can test a few of them and
+//#               copy the rest on untouched. Messages that aren't well
+//#               formed JSON objects are refused, the way JSON.parse
+//#               would
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.nio.*;
+
+class JsonReader {
+
+  static final int MEMBERS = 32;       // top level members kept track of
+  static final int DEPTH = 32;
+
+  ByteBuffer in;
+  int pos, end;
+  public int members;
+  int[] keyFrom, keyTo, valueFrom, valueTo;
+  public int from, to;                 // the value find() found
+
+  JsonReader() {
+    keyFrom = new int[MEMBERS];
+    keyTo = new int[MEMBERS];
+    valueFrom = new int[MEMBERS];
+    valueTo = new int[MEMBERS];
+  }
+
+  // false unless in[theFrom, theTo) is one JSON object
+  public boolean check(ByteBuffer theIn, int theFrom, int theTo) {
+    in = theIn;
+    pos = theFrom;
+    end = theTo;
+    members = 0;
+    ws();
+    if (pos >= end || in.get(pos) != '{')
+      return false;
+    pos++;
+    ws();
+    if (pos < end && in.get(pos) == '}') {
+      pos++;
+      return trailing();
+    }
+    while (true) {
+      ws();
+      int k = pos;
+      if (!string())
+        return false;
+      int kEnd = pos;
+      ws();
+      if (pos >= end || in.get(pos) != ':')
+        return false;
+      pos++;
+      ws();
+      int v = pos;
+      if (!value(0))
+        return false;
+      if (members < MEMBERS) {
+        keyFrom[members] = k + 1;
+        keyTo[members] = kEnd - 1;
+        valueFrom[members] = v;
+        valueTo[members] = pos;
+        members++;
+      }
+      ws();
+      if (pos >= end)
+        return false;
+      byte c = in.get(pos++);
+      if (c == '}')
+        return trailing();
+      if (c != ',')
+        return false;
+    }
+  }
+
+  boolean trailing() {
+    ws();
+    return pos == end;
+  }
+
+  // the last member with this key, as JSON.parse keeps the last one;
+  // its value goes in from, to
+  public boolean find(String key) {
+    for (int m=members-1; m>=0; m--) {
+      if (keyTo[m] - keyFrom[m] != key.length())
+        continue;
+      int i = 0;
+      while (i < key.length() && in.get(keyFrom[m] + i) == key.charAt(i))
+        i++;
+      if (i == key.length()) {
+        from = valueFrom[m];
+        to = valueTo[m];
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the value found is this string (no escapes in it)
+  public boolean is(String s) {
+    if (to - from != s.length() + 2 || in.get(from) != '"')
+      return false;
+    for (int i=0; i<s.length(); i++)
+      if (in.get(from + 1 + i) != s.charAt(i))
+        return false;
+    return true;
+  }
+
+  void ws() {
+    while (pos < end) {
+      byte c = in.get(pos);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+        return;
+      pos++;
+    }
+  }
+
+  boolean value(int depth) {
+    if (pos >= end || depth >= DEPTH)
+      return false;
+    byte c = in.get(pos);
+    if (c == '"')
+      return string();
+    if (c == '{' || c == '[') {
+      byte close = (byte) (c == '{' ? '}' : ']');
+      pos++;
+      ws();
+      if (pos < end && in.get(pos) == close) {
+        pos++;
+        return true;
+      }
+      while (true) {
+        ws();
+        if (c == '{') {
+          if (!string())
+            return false;
+          ws();
+          if (pos >= end || in.get(pos) != ':')
+            return false;
+          pos++;
+          ws();
+        }
+        if (!value(depth + 1))
+          return false;
+        ws();
+        if (pos >= end)
+          return false;
+        byte d = in.get(pos++);
+        if (d == close)
+          return true;
+        if (d != ',')
+          return false;
+      }
+    }
+    if (c == 't')
+      return word("true");
+    if (c == 'f')
+      return word("false");
+    if (c == 'n')
+      return word("null");
+    return number();
+  }
+
+  boolean string() {
+    if (pos >= end || in.get(pos) != '"')
+      return false;
+    pos++;
+    while (pos < end) {
+      byte c = in.get(pos++);
+      if (c == '"')
+        return true;
+      if (c == '\\') {
+        if (pos >= end)
+          return false;
+        c = in.get(pos++);
+        if (c == 'u') {
+          for (int i=0; i<4; i++, pos++)
+            if (pos >= end || Character.digit((char) in.get(pos), 16) < 0)
+              return false;
+        } else if ("\"\\/bfnrt".indexOf(c) < 0)
+          return false;
+      } else if (c >= 0 && c < 0x20)
+        return false;
+    }
+    return false;
+  }
+
+  boolean word(String w) {
+    if (end - pos < w.length())
+      return false;
+    for (int i=0; i<w.length(); i++)
+      if (in.get(pos + i) != w.charAt(i))
+        return false;
+    pos += w.length();
+    return true;
+  }
+
+  boolean number() {
+    int start = pos;
+    if (pos < end && in.get(pos) == '-')
+      pos++;
+    int digits = pos;
+    while (pos < end && in.get(pos) >= '0' && in.get(pos) <= '9')
+      pos++;
+    if (pos == digits || (in.get(digits) == '0' && pos - digits > 1))
+      return false;
+    if (pos < end && in.get(pos) == '.') {
+      pos++;
+      int f = pos;
+      while (pos < end && in.get(pos) >= '0' && in.get(pos) <= '9')
+        pos++;
+      if (pos == f)
+        return false;
+    }
+    if (pos < end && (in.get(pos) == 'e' || in.get(pos) == 'E')) {
+      pos++;
+      if (pos < end && (in.get(pos) == '+' || in.get(pos) == '-'))
+        pos++;
+      int e = pos;
+      while (pos < end && in.get(pos) >= '0' && in.get(pos) <= '9')
+        pos++;
+      if (pos == e)
+        return false;
+    }
+    return pos > start;
+  }
+}
@@ -0,0 +1,195 @@
+//=========================================================================
+//#
+//#  JsonWriter.java
+//#
+//#  Description: JSON straight into a ByteBuffer, without allocating:
+//#               keys are constant Strings written char by char, numbers
+//#               digit by digit, and values already in JSON form (a
+//#               span of a message being relayed) are copied as they
+//#               are. Commas are kept track of per nesting level.
+//#               state() writes a Match the way the web client's
+//#               StateSerializer.serialize() lays out a game
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.nio.*;
+
+class JsonWriter {
+
+  static final int DEPTH = 16;
+
+  ByteBuffer out;
+  boolean[] first;                     // nothing written yet at this level
+  int depth;
+  byte[] digits;
+
+  JsonWriter() {
+    first = new boolean[DEPTH];
+    digits = new byte[20];
+  }
+
+  public JsonWriter begin(ByteBuffer theOut) {
+    out = theOut;
+    depth = 0;
+    first[0] = true;
+    return this;
+  }
+
+  void comma() {
+    if (!first[depth])
+      out.put((byte) ',');
+    first[depth] = false;
+  }
+
+  public JsonWriter obj() {
+    comma();
+    out.put((byte) '{');
+    first[++depth] = true;
+    return this;
+  }
+
+  public JsonWriter arr() {
+    comma();
+    out.put((byte) '[');
+    first[++depth] = true;
+    return this;
+  }
+
+  public JsonWriter end() {
+    depth--;
+    out.put((byte) '}');
+    return this;
+  }
+
+  public JsonWriter endArr() {
+    depth--;
+    out.put((byte) ']');
+    return this;
+  }
+
+  // the key; the value written next goes without another comma
+  public JsonWriter key(String k) {
+    comma();
+    chars(k);
+    out.put((byte) ':');
+    first[depth] = true;
+    return this;
+  }
+
+  public JsonWriter str(String s) {
+    comma();
+    chars(s);
+    return this;
+  }
+
+  void chars(String s) {
+    out.put((byte) '"');
+    for (int i=0; i<s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.put((byte) '\\');
+        out.put((byte) c);
+      } else if (c < 0x20 || c > 0x7e) {
+        out.put((byte) '\\');
+        out.put((byte) 'u');
+        for (int k=12; k>=0; k-=4)
+          out.put((byte) "0123456789abcdef".charAt((c >> k) & 15));
+      } else
+        out.put((byte) c);
+    }
+    out.put((byte) '"');
+  }
+
+  public JsonWriter num(long v) {
+    comma();
+    if (v < 0) {
+      out.put((byte) '-');
+      v = -v;                          // Long.MIN_VALUE never comes up here
+    }
+    int n = 0;
+    do {
+      digits[n++] = (byte) ('0' + v % 10);
+      v /= 10;
+    } while (v > 0);
+    while (n > 0)
+      out.put(digits[--n]);
+    return this;
+  }
+
+  public JsonWriter bool(boolean v) {
+    comma();
+    if (v) {
+      out.put((byte) 't'); out.put((byte) 'r'); out.put((byte) 'u'); out.put((byte) 'e');
+    } else {
+      out.put((byte) 'f'); out.put((byte) 'a'); out.put((byte) 'l'); out.put((byte) 's'); out.put((byte) 'e');
+    }
+    return this;
+  }
+
+  public JsonWriter nul() {
+    comma();
+    out.put((byte) 'n'); out.put((byte) 'u'); out.put((byte) 'l'); out.put((byte) 'l');
+    return this;
+  }
+
+  // a value already in JSON, src[from, to)
+  public JsonWriter raw(ByteBuffer src, int from, int to) {
+    comma();
+    int pos = src.position(), lim = src.limit();
+    src.limit(to);
+    src.position(from);
+    out.put(src);
+    src.limit(lim);
+    src.position(pos);
+    return this;
+  }
+
+  public JsonWriter raw(byte[] src) {
+    comma();
+    out.put(src);
+    return this;
+  }
+
+  // StateSerializer.serialize(): integer positions, velocities x100.
+  // A player's score is its side's; currBasket is 1 while the left
+  // side holds a ball, 2 for the right, 0 for neither
+  public JsonWriter state(Match m, int tick, int lastInput) {
+    obj();
+    key("tick").num(tick);
+    key("lastProcessedInputTick").num(lastInput);
+    key("players").arr();
+    for (int i=0; i<m.players.length; i++) {
+      Person p = m.players[i];
+      obj();
+      key("x").num(Math.round(p.x));
+      key("y").num(Math.round(p.y));
+      key("vx").num(Math.round(p.velocityX * 100));
+      key("vy").num(Math.round(p.velocityY * 100));
+      key("score").num(m.teamScore[p.side]);
+      key("model").num(p.model);
+      end();
+    }
+    endArr();
+    boolean gold = false;
+    key("balls").arr();
+    for (int i=0; i<m.balls.length; i++) {
+      Ball b = m.balls[i];
+      obj();
+      key("x").num(Math.round(b.x));
+      key("y").num(Math.round(b.y));
+      key("vx").num(Math.round(b.velocityX * 100));
+      key("vy").num(Math.round(b.velocityY * 100));
+      key("alive").bool(b.alive);
+      end();
+      if (b.isGoldBall && b.alive)
+        gold = true;
+    }
+    endArr();
+    key("currBasket").num(m.teamBasket[1] ? 2 : (m.teamBasket[0] ? 1 : 0));
+    key("timer").num(m.timer);
+    key("goldSpawned").bool(gold);
+    key("gameState").str(m.started ? "playing" : "game_over");
+    return end();
+  }
+}
@@ -0,0 +1,126 @@
+//=========================================================================
+//#
+//#  KeyMap.java
+//#
+//#  Description: key code -> (player, action) dispatch table for up to
+//#               16 local players
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.awt.*;
+
+class KeyMap {
+
+  static final int MAX_PLAYERS = 16;
+  static final int KEYS = 2048;       // covers chars and the AWT Event keys
+
+  int[][] bound;                      // [player][action] -> key, 0 if none
+
+  // compiled table: the bindings of key k are entries[first[k]..first[k+1])
+  // packed as player<<3 | action
+  int[] first;
+  int[] entries;
+
+  KeyMap() {
+    bound = new int[MAX_PLAYERS][Person.ACTIONS];
+    first = new int[KEYS+1];
+    entries = new int[0];
+  }
+
+  public void bind(int player, int action, int key) {
+    if (player < 0 || player >= MAX_PLAYERS)
+      throw new IllegalArgumentException("player " + player + " out of range");
+    bound[player][action] = key;
+  }
+
+  public void bind(int player, Person p) {
+    bind(player, Person.UP, p.upKey);
+    bind(player, Person.DOWN, p.downKey);
+    bind(player, Person.LEFT, p.leftKey);
+    bind(player, Person.RIGHT, p.rightKey);
+    bind(player, Person.MODEL, p.modelKey);
+    bind(player, Person.ROBOT, p.robotKey);
+  }
+
+  // rebuild the table, only needed after bindings change
+  public void compile() {
+    int p, a, k;
+    int[] count = new int[KEYS+1];
+    int n = 0;
+    for (p=0; p<MAX_PLAYERS; p++)
+      for (a=0; a<Person.ACTIONS; a++) {
+        k = bound[p][a];
+        if (k > 0 && k < KEYS) {
+          count[k]++;
+          n++;
+        }
+      }
+    first[0] = 0;
+    for (k=0; k<KEYS; k++)
+      first[k+1] = first[k] + count[k];
+    entries = new int[n];
+    for (p=0; p<MAX_PLAYERS; p++)
+      for (a=0; a<Person.ACTIONS; a++) {
+        k = bound[p][a];
+        if (k > 0 && k < KEYS) {
+          count[k]--;
+          entries[first[k] + count[k]] = (p << 3) | a;
+        }
+      }
+  }
+
+  // cost depends only on how many players bound this key
+  public void dispatch(int key, Person[] players) {
+    if (key <= 0 || key >= KEYS)
+      return;
+    for (int i=first[key]; i<first[key+1]; i++) {
+      int p = entries[i] >> 3;
+      if (p < players.length)
+        players[p].handleAction(entries[i] & 7);
+    }
+  }
+
+  // "e,x,s,f,1,p" or names like "UP,DOWN,LEFT,RIGHT,ENTER,NONE"; six keys
+  // in up, down, left, right, model, robot order, NONE leaving one unbound
+  // (a single digit is that key). Returns null if malformed.
+  public static int[] parseKeys(String str) {
+    StringTokenizer st = new StringTokenizer(str, ", ");
+    if (st.countTokens() != Person.ACTIONS)
+      return null;
+    int[] keys = new int[Person.ACTIONS];
+    for (int i=0; i<Person.ACTIONS; i++) {
+      keys[i] = parseKey(st.nextToken());
+      if (keys[i] < 0)
+        return null;
+    }
+    return keys;
+  }
+
+  // the key codes are the 1.0 event model's, as keyDown() gets them
+  @SuppressWarnings("deprecation")
+  public static int parseKey(String s) {
+    if (s.length() == 1)
+      return s.charAt(0);
+    String u = s.toUpperCase();
+    if (u.equals("UP")) return Event.UP;
+    if (u.equals("DOWN")) return Event.DOWN;
+    if (u.equals("LEFT")) return Event.LEFT;
+    if (u.equals("RIGHT")) return Event.RIGHT;
+    if (u.equals("HOME")) return Event.HOME;
+    if (u.equals("END")) return Event.END;
+    if (u.equals("PGUP")) return Event.PGUP;
+    if (u.equals("PGDN")) return Event.PGDN;
+    if (u.equals("INSERT")) return Event.INSERT;
+    if (u.equals("DELETE")) return Event.DELETE;
+    if (u.equals("ENTER")) return Event.ENTER;
+    if (u.equals("SPACE")) return ' ';
+    if (u.equals("NONE")) return 0;
+    try {
+      return Integer.parseInt(s);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+//=========================================================================
+//#
+//#  LagCompensation.java
+//#
+//#  Description: where every player and ball was at the end of each of
+//#               the last HISTORY ticks, in flat arrays, so the server
+//#               can judge a grab or a bump the way the player's client
+//#               drew it: the player where it is now, everything else
+//#               Person.lagTicks ago. Rewinds stop at MAX_REWIND and
+//#               never reach back past a reset or a ball put back in
+//#               the middle after a score, so nothing is grabbed twice
+//#
+//#  usage: java LagCompensation [lag ticks] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class LagCompensation {
+
+  static final int HISTORY = 16;       // power of two, > MAX_REWIND
+  static final int MAX_REWIND = 10;    // ticks, 300 ms
+
+  Match match;
+  int players, entities;
+  float[] xs, ys;                      // [tick % HISTORY * entities + entity]
+  int recorded;                        // ticks recorded so far
+  int[] validFrom;                     // per entity, oldest tick it can rewind to
+  public float rx, ry;                 // the position rewind() found
+
+  // stats
+  public long lookups, rewound, clamped, saved;
+
+  LagCompensation(Match m) {
+    match = m;
+    players = m.players.length;
+    entities = players + m.balls.length;
+    xs = new float[HISTORY * entities];
+    ys = new float[HISTORY * entities];
+    validFrom = new int[entities];
+    recorded = 0;
+  }
+
+  // end of every step
+  public void record() {
+    int k = (recorded & (HISTORY - 1)) * entities, i;
+    for (i=0; i<players; i++) {
+      xs[k + i] = match.players[i].x;
+      ys[k + i] = match.players[i].y;
+    }
+    for (i=players; i<entities; i++) {
+      xs[k + i] = match.balls[i - players].x;
+      ys[k + i] = match.balls[i - players].y;
+    }
+    recorded++;
+  }
+
+  // everything was put back
+  public void clear() {
+    Arrays.fill(validFrom, recorded);
+  }
+
+  // entity e (players first, then balls) jumped; don't rewind across it
+  public void teleported(int e) {
+    validFrom[e] = recorded;
+  }
+
+  // rx, ry become where entity e was as p's client saw it; false when
+  // that is simply where it is now
+  public boolean rewind(Person p, int e) {
+    lookups++;
+    int ago = p.lagTicks;
+    if (ago <= 0)
+      return false;
+    if (ago > MAX_REWIND) {
+      ago = MAX_REWIND;
+      clamped++;
+    }
+    int t = recorded - 1 - ago;
+    if (t < validFrom[e])
+      t = validFrom[e];
+    if (t >= recorded - 1)
+      return false;                    // the newest record is now
+    int k = (t & (HISTORY - 1)) * entities + e;
+    rx = xs[k];
+    ry = ys[k];
+    rewound++;
+    return true;
+  }
+
+  // a rewound grab: count it if the present alone would have missed
+  public void grabbed(Person p, Ball b) {
+    if (Math.abs((int) (p.x+8 - b.x)) >= 20 || Math.abs((int) (p.y+8 - b.y)) >= 20)
+      saved++;
+  }
+
+  public String summary() {
+    if (lookups == 0)
+      return "lag: no lookups";
+    return "lag: " + lookups + " lookups, " + Math.round(rewound * 1000.0 / lookups) / 10.0
+      + "% rewound, " + clamped + " clamped, " + saved + " grabs only the rewind gave";
+  }
+
+  // -------------------------------------------------------------------
+  // bench: player 0's client sees everything else lag ticks late. Each
+  // tick, does its screen show it on the red ball, and does the server
+  // count side 0 as holding it? Run without and with compensation from
+  // the same seed; then the cost of a step with robots everywhere
+
+  public static void main(String[] args) {
+    int lag = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+    int ticks = seconds * 1000 / Match.TICK_MS;
+
+    for (int pass=0; pass<2; pass++) {
+      Match m = new Match(630, 400);
+      GameServer.setupRoom(m, 7);
+      // judged against the same history either way
+      LagCompensation seen = new LagCompensation(m);
+      if (pass == 1)
+        m.lag = seen;
+      m.players[0].lagTicks = lag;
+      long shown = 0, counted = 0, missed = 0, extra = 0, nanos = 0;
+      for (int t=0; t<ticks; t++) {
+        if (!m.started) {
+          m.start();
+          continue;
+        }
+        Person p = m.players[0];
+        Ball b = m.balls[0];
+        float bx = b.x, by = b.y;
+        if (seen.rewind(p, m.players.length)) {
+          bx = seen.rx;
+          by = seen.ry;
+        }
+        boolean onScreen = b.alive && Math.abs((int) (p.x+8 - bx)) < 20 && Math.abs((int) (p.y+8 - by)) < 20;
+        long t0 = System.nanoTime();
+        m.step();
+        nanos += System.nanoTime() - t0;
+        if (pass == 0) {
+          seen.record();
+          if (!m.started)
+            seen.clear();
+        }
+        boolean server = m.teamBasket[0];
+        if (onScreen)
+          shown++;
+        if (server)
+          counted++;
+        if (onScreen && !server)
+          missed++;
+        if (server && !onScreen)
+          extra++;
+      }
+      System.out.println((pass == 0 ? "plain:       " : "compensated: ") + "lag " + lag + " ticks, grab on screen "
+                         + shown + " ticks, server counted " + counted + ", missed "
+                         + Math.round(missed * 1000.0 / Math.max(shown, 1)) / 10.0 + "%, not on screen "
+                         + Math.round(extra * 1000.0 / Math.max(counted, 1)) / 10.0 + "%, "
+                         + Math.round(nanos / ticks / 10) / 100.0 + " us/step");
+      if (pass == 1)
+        System.out.println("  " + seen.summary());
+    }
+
+    // lookup cost where it is largest: a big field of lagged players
+    for (int pass=0; pass<2; pass++) {
+      Match m = SpatialGrid.arena(200, 8);
+      if (pass == 1) {
+        m.lag = new LagCompensation(m);
+        for (int i=0; i<m.players.length; i++)
+          m.players[i].lagTicks = 1 + i % MAX_REWIND;
+      }
+      int steps = 2000;
+      long t0 = 0;
+      for (int t=0; t<steps; t++) {
+        if (t == steps / 10)
+          t0 = System.nanoTime();
+        m.step();
+      }
+      long per = (System.nanoTime() - t0) / (steps - steps / 10);
+      System.out.println((pass == 0 ? "arena plain:       " : "arena compensated: ") + m.players.length
+                         + " players " + m.balls.length + " balls, " + per / 1000 + " us/step"
+                         + (pass == 1 ? ", " + m.lag.lookups / steps + " lookups/step" : ""));
+    }
+  }
+}
@@ -0,0 +1,91 @@
+//=========================================================================
+//#
+//#  LatencyHistogram.java
+//#
+//#  Description: fixed-size histogram of latencies with percentiles,
+//#               recording never allocates
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.io.*;
+
+class LatencyHistogram {
+
+  String name;
+  long bucketNanos;
+  int[] counts;            // last bucket collects everything beyond range
+  long count, max, total;
+
+  LatencyHistogram(String theName, long bucketMicros, int buckets) {
+    name = theName;
+    bucketNanos = bucketMicros * 1000;
+    counts = new int[buckets+1];
+    reset();
+  }
+
+  public void reset() {
+    for (int i=0; i<counts.length; i++)
+      counts[i] = 0;
+    count = 0;
+    max = 0;
+    total = 0;
+  }
+
+  public void record(long nanos) {
+    if (nanos < 0)
+      nanos = 0;
+    int b = (int) Math.min(nanos / bucketNanos, counts.length-1);
+    counts[b]++;
+    count++;
+    total += nanos;
+    if (nanos > max)
+      max = nanos;
+  }
+
+  // upper edge of the bucket holding the given fraction of samples
+  public long percentile(double p) {
+    if (count == 0)
+      return 0;
+    long want = (long) Math.ceil(p * count);
+    long seen = 0;
+    for (int i=0; i<counts.length-1; i++) {
+      seen += counts[i];
+      if (seen >= want)
+        return Math.min((i+1) * bucketNanos, max);
+    }
+    return max;
+  }
+
+  public long mean() {
+    return count > 0 ? total / count : 0;
+  }
+
+  public String summary() {
+    return name + ": p50 " + percentile(0.5)/100000/10.0 + "ms  p99 "
+      + percentile(0.99)/100000/10.0 + "ms  max " + max/100000/10.0 + "ms  (" + count + ")";
+  }
+
+  // one line of key=value pairs, then the non-empty buckets
+  public void dump(PrintStream out) {
+    StringBuffer sb = new StringBuffer();
+    sb.append("histogram name=").append(name);
+    sb.append(" count=").append(count);
+    sb.append(" mean_us=").append(mean()/1000);
+    sb.append(" p50_us=").append(percentile(0.5)/1000);
+    sb.append(" p99_us=").append(percentile(0.99)/1000);
+    sb.append(" max_us=").append(max/1000);
+    sb.append(" bucket_us=").append(bucketNanos/1000);
+    sb.append(" buckets=");
+    boolean first = true;
+    for (int i=0; i<counts.length; i++) {
+      if (counts[i] == 0)
+        continue;
+      if (!first)
+        sb.append(',');
+      sb.append(i).append(':').append(counts[i]);
+      first = false;
+    }
+    out.println(sb.toString());
+  }
+}
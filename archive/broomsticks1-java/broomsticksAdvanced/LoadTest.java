@@ -0,0 +1,107 @@
+//=========================================================================
+//#
+//#  LoadTest.java
+//#
+//#  Description: runs a GameServer and many clients on localhost. Each
+//#               client sends an input every tick and a ping every
+//#               second; reports server CPU per tick, state delivery and
+//#               round trip times
+//#
+//#  usage: java LoadTest [rooms] [clients per room] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.lang.management.*;
+
+class LoadTest {
+
+  public static void main(String[] args) throws Exception {
+    int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int perRoom = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    boolean teams = perRoom > 2;
+
+    GameServer server = new GameServer(0);
+    Thread st = new Thread(server, "server");
+    st.start();
+
+    int n = rooms * perRoom;
+    GameClient[] clients = new GameClient[n];
+    for (int i=0; i<n; i++) {
+      clients[i] = GameClient.connect("localhost", server.port());
+      clients[i].join(i / perRoom, teams);
+    }
+
+    LatencyHistogram rtt = new LatencyHistogram("rtt", 100, 2000);
+    Random rnd = new Random(1);
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    long warmup = System.nanoTime() + 3000000000L;
+    long end = warmup + seconds * 1000000000L;
+    long cpu0 = 0, ticks0 = 0, busy0 = 0, states0 = 0, bytes0 = 0;
+    boolean measuring = false;
+    long next = System.nanoTime();
+    int seq = 0;
+
+    while (System.nanoTime() < end) {
+      long now = System.nanoTime();
+      if (!measuring && now >= warmup) {
+        measuring = true;
+        cpu0 = mx.getThreadCpuTime(st.getId());
+        ticks0 = server.ticks;
+        busy0 = server.busyNanos;
+        for (int i=0; i<n; i++) {
+          states0 += clients[i].states;
+          bytes0 += clients[i].bytesIn;
+        }
+      }
+      if (now >= next) {
+        seq++;
+        for (int i=0; i<n; i++) {
+          if (clients[i].closed)
+            continue;
+          clients[i].sendInput(seq, rnd.nextInt(16));
+          if ((seq + i) % 33 == 0) {
+            if (measuring && clients[i].lastRttNanos > 0)
+              rtt.record(clients[i].lastRttNanos);
+            clients[i].ping();
+          }
+        }
+        next += Match.TICK_MS * 1000000L;
+      }
+      for (int i=0; i<n; i++)
+        clients[i].poll();
+      Thread.sleep(1);
+    }
+
+    long cpu = mx.getThreadCpuTime(st.getId()) - cpu0;
+    long ticks = server.ticks - ticks0;
+    long busy = server.busyNanos - busy0;
+    long states = -states0, bytes = -bytes0;
+    int errors = 0;
+    for (int i=0; i<n; i++) {
+      states += clients[i].states;
+      bytes += clients[i].bytesIn;
+      if (clients[i].error != null)
+        errors++;
+    }
+    server.stop();
+    st.join();
+
+    double cpuPerTick = (double) cpu / ticks / 1000;
+    double budget = Match.TICK_MS * 1000.0;
+    System.out.println("rooms=" + rooms + " clients=" + n + " seconds=" + seconds + " errors=" + errors);
+    System.out.println("server cpu/tick=" + Math.round(cpuPerTick) + " us (busy " + busy / ticks / 1000
+                       + " us) of " + (int) budget + " us, " + server.statesDropped + " states dropped");
+    System.out.println("states/client/s=" + Math.round(states * 10.0 / n / seconds) / 10.0
+                       + " (tick rate " + Math.round(ticks * 10.0 / seconds) / 10.0 + ")"
+                       + " bytes/client/s=" + bytes / n / seconds);
+    System.out.println(rtt.summary());
+    // the server's share of a core scales with rooms; half a core leaves
+    // room for GC and bursts
+    System.out.println("per core at 50% load: ~" + Math.round(rooms * budget * 0.5 / cpuPerTick)
+                       + " rooms, ~" + Math.round(n * budget * 0.5 / cpuPerTick) + " clients");
+  }
+}
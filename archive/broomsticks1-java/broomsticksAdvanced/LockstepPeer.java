@@ -0,0 +1,313 @@
+//=========================================================================
+//#
+//#  LockstepPeer.java
+//#
+//#  Description: two to four players without a server and without
+//#               snapshots. Every peer runs the same Match from the same
+//#               seed and only input bytes go over the wire. Input for
+//#               tick t is taken at tick t - delay and sent to every
+//#               other peer; tick t is simulated once all of them have
+//#               it, and a peer that is missing one stalls. Each packet
+//#               repeats the inputs some peer hasn't acked yet and
+//#               carries the hash of the sender's newest tick, so a
+//#               desync shows up within a round trip
+//#
+//#  usage: java LockstepPeer [peers] [seconds per run] [loss %] [jitter ms]
+//#
+//#  Packets, one per peer per tick, over UDP:
+//#    from:byte newest:int count:byte bits[count], newest first
+//#    have:int per peer (newest tick held with nothing missing before)
+//#    hashTick:int hash:long
+//#  A packet too short for its count, or not from the address of the
+//#  seat it names, is dropped
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+
+class LockstepPeer {
+
+  static final int RING = 64;          // power of two, > 2 * MAX_DELAY + MAX_REPEAT
+  static final int MAX_DELAY = 12;     // ticks
+  static final int MAX_REPEAT = 32;    // inputs per packet
+
+  PacketChannel net;
+  SocketAddress[] peers;               // by slot, null for this one
+  int slot, count, delay;
+  public Match match;
+  boolean[] robot;
+  int restart;
+
+  int simTick;                         // next tick to simulate
+  int[][] bits, tickOf;                // [peer][tick % RING]
+  int[] have;                          // per peer, newest tick held with none missing
+  int[] ackedBy;                       // per peer, newest of our ticks it has
+  long[] hashes;                       // ours, by tick
+  long[][] peerHash;                   // theirs, by tick, until compared
+  int[][] peerHashTick;
+  ByteBuffer out, in;
+
+  // stats
+  public long ticks, stalls, packetsOut, bytesOut, hashChecks, desyncs;
+  public int firstDesync;
+
+  // m is set up from the same seed on every peer (GameServer.setupRoom)
+  LockstepPeer(PacketChannel theNet, SocketAddress[] thePeers, int theSlot, Match m, int theDelay) {
+    net = theNet;
+    peers = thePeers;
+    slot = theSlot;
+    count = thePeers.length;
+    delay = Math.max(0, Math.min(theDelay, MAX_DELAY));
+    match = m;
+    robot = new boolean[count];
+    restart = 0;
+    simTick = 0;
+    bits = new int[count][RING];
+    tickOf = new int[count][RING];
+    have = new int[count];
+    ackedBy = new int[count];
+    hashes = new long[RING];
+    peerHash = new long[count][RING];
+    peerHashTick = new int[count][RING];
+    for (int p=0; p<count; p++) {
+      Arrays.fill(tickOf[p], -1);
+      Arrays.fill(peerHashTick[p], -1);
+      // nobody pressed anything in the ticks before the first input lands
+      for (int t=0; t<delay; t++)
+        tickOf[p][t] = t;
+      have[p] = delay - 1;
+      ackedBy[p] = delay - 1;
+      match.players[p].isRobot = false;
+      match.players[p].forced = 0;
+    }
+    firstDesync = -1;
+    out = ByteBuffer.allocate(PacketChannel.MAX_PACKET);
+    in = ByteBuffer.allocate(PacketChannel.MAX_PACKET);
+  }
+
+  // once a frame with this frame's key bits: read, simulate the next
+  // tick if every input for it is in, and send. False on a stall
+  public boolean tick(int keys) throws IOException {
+    poll();
+    boolean ran = ready(simTick);
+    if (ran) {
+      step(simTick);
+      int t = simTick + delay;         // what we press now lands then
+      bits[slot][t & (RING - 1)] = keys;
+      tickOf[slot][t & (RING - 1)] = t;
+      have[slot] = t;
+      simTick++;
+      ticks++;
+    } else
+      stalls++;
+    send();
+    return ran;
+  }
+
+  boolean ready(int t) {
+    for (int p=0; p<count; p++)
+      if (have[p] < t)
+        return false;
+    return true;
+  }
+
+  // the same for every peer: the seats' inputs, then the match
+  void step(int t) {
+    int k = t & (RING - 1);
+    for (int p=0; p<count; p++) {
+      Person pl = match.players[p];
+      int b = bits[p][k];
+      if ((b & (1<<Person.MODEL)) != 0)
+        pl.switchModel();
+      if ((b & (1<<Person.ROBOT)) != 0)
+        robot[p] = !robot[p];
+      pl.isRobot = robot[p];
+      pl.forced = robot[p] ? -1 : b & 15;
+    }
+    if (match.started)
+      match.step();
+    else if (++restart >= GameServer.RESTART_TICKS) {
+      restart = 0;
+      match.start();
+    }
+    hashes[k] = match.stateHash();
+    for (int p=0; p<count; p++)
+      if (peerHashTick[p][k] == t)
+        compare(p, t, peerHash[p][k]);
+  }
+
+  void compare(int p, int t, long h) {
+    hashChecks++;
+    peerHashTick[p][t & (RING - 1)] = -1;
+    if (hashes[t & (RING - 1)] != h) {
+      desyncs++;
+      if (firstDesync < 0 || t < firstDesync)
+        firstDesync = t;
+    }
+  }
+
+  void send() throws IOException {
+    int newest = have[slot];
+    int first = newest + 1;
+    for (int p=0; p<count; p++)
+      if (p != slot && ackedBy[p] + 1 < first)
+        first = ackedBy[p] + 1;
+    if (first < newest - MAX_REPEAT + 1)
+      first = newest - MAX_REPEAT + 1;
+    int n = Math.max(0, newest - first + 1);
+    out.clear();
+    out.put((byte) slot);
+    out.putInt(newest);
+    out.put((byte) n);
+    for (int i=0; i<n; i++)
+      out.put((byte) bits[slot][(newest - i) & (RING - 1)]);
+    for (int p=0; p<count; p++)
+      out.putInt(have[p]);
+    out.putInt(simTick - 1);
+    out.putLong(simTick > 0 ? hashes[(simTick - 1) & (RING - 1)] : 0);
+    out.flip();
+    for (int p=0; p<count; p++) {
+      if (p == slot)
+        continue;
+      out.rewind();
+      bytesOut += out.remaining();
+      packetsOut++;
+      net.send(out, peers[p]);
+    }
+  }
+
+  void poll() throws IOException {
+    while (true) {
+      in.clear();
+      SocketAddress addr = net.receive(in);
+      if (addr == null)
+        return;
+      in.flip();
+      if (in.remaining() < 6)
+        continue;
+      // only the peer in that seat may speak for it
+      int from = in.get();
+      if (from < 0 || from >= count || from == slot || !addr.equals(peers[from]))
+        continue;
+      int newest = in.getInt();
+      int n = in.get() & 0xff;
+      if (in.remaining() < n + 4 * count + 12)
+        continue;
+      for (int i=0; i<n; i++) {
+        int t = newest - i, b = in.get();
+        if (t > have[from] && t <= simTick + 2 * MAX_DELAY + MAX_REPEAT) {
+          bits[from][t & (RING - 1)] = b;
+          tickOf[from][t & (RING - 1)] = t;
+        }
+      }
+      while (tickOf[from][(have[from] + 1) & (RING - 1)] == have[from] + 1)
+        have[from]++;
+      for (int p=0; p<count; p++) {
+        int h = in.getInt();
+        if (p == slot && h > ackedBy[from])
+          ackedBy[from] = h;
+      }
+      int t = in.getInt();
+      long h = in.getLong();
+      if (t < 0 || t <= simTick - RING)
+        continue;                      // too old to check
+      if (t < simTick)
+        compare(from, t, h);
+      else {
+        peerHash[from][t & (RING - 1)] = h;
+        peerHashTick[from][t & (RING - 1)] = t;
+      }
+    }
+  }
+
+  public String summary() {
+    return "lockstep: " + ticks + " ticks, " + Math.round(stalls * 1000.0 / Math.max(ticks + stalls, 1)) / 10.0
+      + "% stalled, " + hashChecks + " hash checks, " + desyncs + " desyncs"
+      + (firstDesync >= 0 ? " from tick " + firstDesync : "");
+  }
+
+  // -------------------------------------------------------------------
+  // bench: peers on localhost, each through a NetworkSimulator, pressing
+  // random keys. For each round trip time, the smallest input delay that
+  // stalls under 1% of frames; then one peer is nudged off course to
+  // show the hashes catch it
+
+  public static void main(String[] args) throws Exception {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+    double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+    double loss = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.01;
+    double jitter = args.length > 3 ? Double.parseDouble(args[3]) : 5;
+    int[] rtts = { 20, 60, 100, 150, 200, 300 };
+
+    System.out.println(n + " peers, loss " + Math.round(loss * 1000) / 10.0 + "%, jitter " + jitter
+                       + " ms, " + seconds + " s per run");
+    for (int r=0; r<rtts.length; r++) {
+      // at least the one way trip, in ticks
+      int d = (int) Math.ceil(rtts[r] / 2.0 / Match.TICK_MS);
+      for (; d<=MAX_DELAY; d++) {
+        LockstepPeer[] peers = run(n, d, rtts[r], jitter, loss, seconds, -1);
+        long ticks = 0, stalls = 0, bytes = 0, desyncs = 0;
+        for (int i=0; i<n; i++) {
+          ticks += peers[i].ticks;
+          stalls += peers[i].stalls;
+          bytes += peers[i].bytesOut;
+          desyncs += peers[i].desyncs;
+        }
+        double stalled = stalls * 100.0 / (ticks + stalls);
+        System.out.println("rtt " + rtts[r] + " ms, delay " + d + " ticks (" + d * Match.TICK_MS + " ms): "
+                           + Math.round(stalled * 10) / 10.0 + "% stalled, "
+                           + Math.round(bytes / n / seconds) + " bytes/s per player, " + desyncs + " desyncs");
+        if (stalled < 1)
+          break;
+      }
+    }
+
+    LockstepPeer[] peers = run(n, 4, 60, jitter, loss, seconds, 30);
+    System.out.println("nudged peer 1 at tick 30: " + peers[0].summary());
+  }
+
+  // nudge: at that tick, peer 1's first ball moves a pixel on its own
+  static LockstepPeer[] run(int n, int delay, double rtt, double jitter, double loss, double seconds,
+                            int nudge) throws Exception {
+    NetworkSimulator[] sims = new NetworkSimulator[n];
+    SocketAddress[] addrs = new SocketAddress[n];
+    UdpChannel[] chans = new UdpChannel[n];
+    for (int i=0; i<n; i++) {
+      chans[i] = UdpChannel.open();
+      addrs[i] = new InetSocketAddress("localhost", chans[i].ch.socket().getLocalPort());
+      sims[i] = new NetworkSimulator(chans[i], 50 + i);
+      sims[i].set(rtt / 2, jitter, loss, 0, 0);
+    }
+    LockstepPeer[] peers = new LockstepPeer[n];
+    Random[] keys = new Random[n];
+    for (int i=0; i<n; i++) {
+      Match m = new Match(630, 400);
+      m.teams = n > 2;
+      GameServer.setupRoom(m, 9);
+      SocketAddress[] others = addrs.clone();
+      others[i] = null;
+      peers[i] = new LockstepPeer(sims[i], others, i, m, delay);
+      keys[i] = new Random(i);
+    }
+    long next = System.nanoTime();
+    long end = next + (long) (seconds * 1000000000L);
+    while (System.nanoTime() < end) {
+      long wait = next - System.nanoTime();
+      if (wait > 0)
+        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+      next += Match.TICK_MS * 1000000L;
+      for (int i=0; i<n; i++) {
+        if (i == 1 && peers[i].simTick == nudge)
+          peers[i].match.balls[0].x += 1;
+        peers[i].tick(keys[i].nextInt(4) == 0 ? 1 << keys[i].nextInt(4) : 0);
+      }
+    }
+    for (int i=0; i<n; i++)
+      sims[i].close();
+    return peers;
+  }
+}
@@ -0,0 +1,437 @@
+//=========================================================================
+//#
+//#  Match.java
+//#
+//#  Description: the game without any drawing: field, players, balls,
+//#               score and rules. A BroomPanel runs one and draws it;
+//#               with no view it runs headless
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class Match {
+
+  static final int TICK_MS = 30;
+
+  public BroomPanel view;        // null when headless
+  public SoundEvents sounds;     // null when silent
+  public PolicyTable policy;     // table robot instead of the classic one, or null
+  public SpatialGrid grid;       // players by position, for the gold ball AI
+  public boolean useGrid;        // false: gold balls scan every player
+  public ThinkScheduler think;   // when robots and balls decide
+  public AIPass ai;              // robots decide in a pass of their own, or null
+  public TraceRecorder recorder; // play trace of this match, or null
+  public LagCompensation lag;    // server: grabs and bumps as each client saw them, or null
+  int agents;                    // flying objects created, for their think slots
+  int[] nearby;                  // grid query results
+
+  public Person[] players;
+  public Ball[] balls;
+  public int teamScore[];
+  public boolean teamBasket[], prevTeamBasket[];
+  int width, height, midW, midH;
+  public boolean started, gameover, teams, dive;
+  int redBalls, blackBalls, goldBalls, goldval, winScore;
+  int goldTicks;                 // ticks until the gold ball appears
+  public float accel, maxspeed;
+  int timer;
+  public int tick;               // ticks since start()
+  public int winner;             // side that won, -1 if none yet
+  long seed, baseSeed;
+
+  Match(int w, int h) {
+    width = w;
+    height = h;
+    midW = width/2;
+    midH = height/2;
+
+    // same defaults as the applet form
+    teams = false;
+    dive = true;
+    accel = 2;
+    maxspeed = 5;
+    redBalls = 1;
+    blackBalls = 2;
+    goldBalls = 0;
+    goldval = 150;
+    winScore = 50;
+    goldTicks = 60 * 1000 / TICK_MS;
+
+    view = null;
+    sounds = null;
+    policy = null;
+    useGrid = true;
+    think = new ThinkScheduler(1);
+    ai = null;
+    recorder = null;
+    lag = null;
+    agents = 0;
+    started = false;
+    gameover = false;
+    timer = 0;
+    tick = 0;
+    winner = -1;
+    setSeed(0);
+
+    teamScore = new int[2];
+    teamBasket = new boolean[2];
+    prevTeamBasket = new boolean[2];
+  }
+
+  public void setSeed(long s) {
+    seed = s ^ 0x9E3779B97F4A7C15L;
+    if (seed == 0)
+      seed = 1;
+    baseSeed = seed;
+  }
+
+  // xorshift64*, so a match replays exactly from its seed
+  public int nextInt() {
+    seed ^= seed >>> 12;
+    seed ^= seed << 25;
+    seed ^= seed >>> 27;
+    return (int) ((seed * 0x2545F4914F6CDD1DL) >>> 32);
+  }
+
+  // a non-negative number that only depends on the seed, the tick and
+  // the slot, for decisions made in any order (see AIPass)
+  public int hashInt(int slot) {
+    long z = baseSeed + tick * 0x9E3779B97F4A7C15L + slot * 0xD6E8FEB86659FD93L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return (int) ((z ^ (z >>> 31)) >>> 33);
+  }
+
+  // create players and balls from the settings above
+  public void setup() {
+    balls = new Ball[redBalls + blackBalls + goldBalls];
+    grid = new SpatialGrid(width, height, GoldBall.RANGE);
+    nearby = new int[GoldBall.NEAREST];
+
+    int i;
+    for (i=0; i < redBalls; i++) {
+      //balls[i] = new Ball(this, 2, midW, midH-20*i-20);
+      balls[i] = new Ball(this, 2, midW, midH-20);
+      balls[i].catchable = true;
+    }
+    for (i=0; i < blackBalls; i++) {
+      //balls[redBalls+i] = new Ball(this, 1, midW, midH+20*i+20);
+      balls[redBalls+i] = new Ball(this, 1, midW, midH+20);
+      //balls[redBalls+i].speedFactor *= 1.5;
+      balls[redBalls+i].maxSpeed *= 1.5;
+    }
+    for (i=0; i < goldBalls; i++) {
+      balls[redBalls+blackBalls+i] = new GoldBall(this, 0, midW, 50);
+      balls[redBalls+blackBalls+i].catchable = true;
+      balls[redBalls+blackBalls+i].alive = false;
+      //balls[redBalls+blackBalls+i].smart = parseParam("GOLDSMART", 1);
+      balls[redBalls+blackBalls+i].smart = 1;
+    }
+
+    if (teams)
+      players = new Person[4];
+    else
+      players = new Person[2];
+
+    players[0] = new Person(balls[0], this, 1, 100, midH);
+
+    players[1] = new Person(balls[0], this, 4, width-100, midH);
+    players[1].side = 1; // team (and dir facing when not moving)
+
+    if (teams) {
+      players[2] = new Person(balls[0], this, 2, width-200, midH);
+      players[2].side = 1;
+
+      players[3] = new Person(balls[0], this, 3, 200, midH);
+    }
+
+    teamScore[0] = 0;
+    teamScore[1] = 0;
+    teamBasket[0] = false;
+    teamBasket[1] = false;
+    prevTeamBasket[0] = false;
+    prevTeamBasket[1] = false;
+  }
+
+  // an empty match with the same settings, for copyFrom()
+  public Match newScratch() {
+    Match m = new Match(width, height);
+    m.teams = teams;
+    m.dive = dive;
+    m.accel = accel;
+    m.maxspeed = maxspeed;
+    m.redBalls = redBalls;
+    m.blackBalls = blackBalls;
+    m.goldBalls = goldBalls;
+    m.goldval = goldval;
+    m.winScore = winScore;
+    m.goldTicks = goldTicks;
+    m.policy = policy;
+    m.useGrid = useGrid;
+    m.think.setEvery(think.every);
+    m.setup();
+    return m;
+  }
+
+  // copy the whole game state of a match made with the same settings,
+  // without allocating. View, sounds and planners are not copied.
+  public void copyFrom(Match o) {
+    int i;
+    for (i=0; i<players.length; i++)
+      players[i].copyFrom(o.players[i]);
+    for (i=0; i<balls.length; i++)
+      balls[i].copyFrom(o.balls[i]);
+    teamScore[0] = o.teamScore[0];
+    teamScore[1] = o.teamScore[1];
+    teamBasket[0] = o.teamBasket[0];
+    teamBasket[1] = o.teamBasket[1];
+    prevTeamBasket[0] = o.prevTeamBasket[0];
+    prevTeamBasket[1] = o.prevTeamBasket[1];
+    started = o.started;
+    gameover = o.gameover;
+    timer = o.timer;
+    tick = o.tick;
+    winner = o.winner;
+    seed = o.seed;
+    baseSeed = o.baseSeed;
+  }
+
+  // everything copyFrom() copies that play depends on, folded into one
+  // number; two matches that agree on it have almost surely not diverged
+  public long stateHash() {
+    long h = seed;
+    h = h * 31 + tick;
+    h = h * 31 + timer;
+    h = h * 31 + winner;
+    h = h * 31 + teamScore[0];
+    h = h * 31 + teamScore[1];
+    h = h * 31 + (started ? 1 : 0);
+    int i;
+    for (i=0; i<players.length; i++) {
+      Person p = players[i];
+      h = h * 31 + Float.floatToIntBits(p.x);
+      h = h * 31 + Float.floatToIntBits(p.y);
+      h = h * 31 + Float.floatToIntBits(p.velocityX);
+      h = h * 31 + Float.floatToIntBits(p.velocityY);
+      h = h * 31 + p.model;
+    }
+    for (i=0; i<balls.length; i++) {
+      Ball b = balls[i];
+      h = h * 31 + Float.floatToIntBits(b.x);
+      h = h * 31 + Float.floatToIntBits(b.y);
+      h = h * 31 + Float.floatToIntBits(b.velocityX);
+      h = h * 31 + Float.floatToIntBits(b.velocityY);
+      h = h * 31 + (b.alive ? 1 : 0);
+    }
+    return h;
+  }
+
+  public void start() {
+    started = true;
+    gameover = false;
+    winner = -1;
+    tick = 0;
+    teamScore[0] = 0;
+    teamScore[1] = 0;
+    for (int i=0; i < goldBalls; i++)
+      balls[redBalls+blackBalls+i].alive = false;
+    if (lag != null)
+      lag.clear();
+  }
+
+  // one game tick
+  public void step() {
+    think.beginTick(tick);
+    if (ai == null)
+      planRobots();
+    checkCollisions();
+    checkCaught();
+    if (ai != null)
+      ai.run();
+    moveFlyers();
+    if (sounds != null)
+      sounds.endTick();
+    if (timer > 0) {
+      timer--;
+      if (timer == 1)
+        showScores(2);
+    }
+    if (recorder != null)
+      recorder.record(this);
+    if (lag != null)
+      lag.record();
+    tick++;
+    // time for gold ball
+    if (goldBalls > 0 && tick > goldTicks) {
+      for (int i=0; i < goldBalls; i++)
+        balls[redBalls+blackBalls+i].alive = true;
+    }
+  }
+
+  // planner robots decide at the start of the tick, on the same skill
+  // gate as the classic robot
+  void planRobots() {
+    for (int i=0; i<players.length; i++) {
+      Person p = players[i];
+      if (p.isRobot && p.planner != null && think.due(p)) {
+        if (nextInt()%p.smart == 0)
+          p.planned = p.planner.decide();
+        else
+          p.planned = 0;
+      }
+    }
+  }
+
+  void showScores(int side) {
+    if (view != null)
+      view.drawScores(view.getGraphics(), side);
+  }
+
+  public void gameOver(int side) {
+    started = false;
+    gameover = true;
+    winner = side;
+    int i;
+    if (sounds != null)
+      sounds.request(BroomPanel.SND_WIN, 0);
+    for (i=0; i < players.length; i++)
+      players[i].reset();
+    for (i=0; i < balls.length; i++)
+      balls[i].reset();
+    if (lag != null)
+      lag.clear();
+  }
+
+  public void moveFlyers() {
+    int i;
+    for (i=0; i<players.length; i++)
+      players[i].move();
+    // only timed when there is gold ball AI to time
+    long t0 = (goldBalls > 0) ? System.nanoTime() : 0;
+    if (useGrid && goldBalls > 0)
+      grid.rebuild(players);
+    for (i=0; i<balls.length; i++)
+      if (balls[i].alive)
+        balls[i].move();
+    if (goldBalls > 0)
+      grid.addNanos(System.nanoTime() - t0);
+  }
+
+  public void checkCaught() {
+
+    teamBasket[0] = false;
+    teamBasket[1] = false;
+
+    // check all pairs of player and balls
+    for (int i=0; i<players.length; i++) {
+      for (int j=0; j<balls.length; j++) {
+        Person p = players[i];
+        Ball b = balls[j];
+        // player and catchable ball 
+        if (b.alive && b.catchable) {
+          float bx = b.x, by = b.y;
+          boolean rewound = lag != null && lag.rewind(p, players.length + j);
+          if (rewound) {
+            bx = lag.rx;
+            by = lag.ry;
+          }
+          int dx = (int) (p.x+8 - bx);
+          int dy = (int) (p.y+8 - by);
+          if (Math.abs(dx) < 20 && Math.abs(dy) < 20) {
+            if (rewound)
+              lag.grabbed(p, b);
+            if (p.velocityX > 0)
+              b.x = p.x + 18;
+            else
+              b.x = p.x + 8;
+            b.y = p.y + 15;
+            if (b.isGoldBall) {
+              teamScore[p.side] += goldval;
+              showScores(p.side);
+              gameOver(p.side);
+            }
+            teamBasket[p.side] = true;
+            if (sounds != null && !prevTeamBasket[p.side])
+              sounds.request(BroomPanel.SND_GRAB, i);
+            if ((p.side == 0 && (p.x > (width-17-p.w))) ||
+                (p.side == 1 && (p.x < 17))) {
+              //dy = (int) (b.y - (midH - 10));
+              dy = (int) (b.y - midH);
+              //if (Math.abs(dy) < 15) {
+              if (Math.abs(dy) < 20) {
+                teamScore[p.side] += 10;
+                //paint(getGraphics());
+                showScores(p.side);
+                timer = 15;
+                //play(getCodeBase(), "snd/score.au");
+                if (sounds != null)
+                  sounds.request(BroomPanel.SND_SCORE, i);
+                b.x = midW;
+                if (lag != null)
+                  lag.teleported(players.length + j);
+                if (goldBalls == 0 && teamScore[p.side] >= winScore) {
+                  gameOver(p.side);
+                  showScores(p.side);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    prevTeamBasket[0] = teamBasket[0];
+    prevTeamBasket[1] = teamBasket[1];
+  }
+
+  public void checkCollisions() {
+    // check all pairs of players
+    int i, j;
+    for (i=0; i<players.length; i++) {
+      for (j=0; j<players.length; j++) {
+        if (i != j) {
+          Person p1 = players[i];
+          Person p2 = players[j];
+          float x2 = p2.x, y2 = p2.y;
+          if (lag != null && lag.rewind(p1, j)) {
+            x2 = lag.rx;
+            y2 = lag.ry;
+          }
+          int dx = (int) (p1.x - x2);
+          int dy = (int) (p1.y - y2);
+          if (Math.abs(dx) < p1.w && Math.abs(dy) < p1.h)  {
+            if (sounds != null && (p1.y < p1.bottom-p1.h-50))
+              sounds.request(BroomPanel.SND_BUMP, i);
+            // lower one gets bumped (lower is higher y value)
+            if (p1.y < y2)
+              p2.y = 1000; // will be clamped
+            else if (y2 > p1.y)
+              p1.y = 1000;
+          }
+        }
+      }
+    }
+    // check all pairs of players and balls
+    for (i=0; i<players.length; i++) {
+      for (j=0; j<balls.length; j++) {
+        Person p = players[i];
+        Ball b = balls[j];
+        if (b.alive && !b.catchable) {
+          float bx = b.x, by = b.y;
+          if (lag != null && lag.rewind(p, players.length + j)) {
+            bx = lag.rx;
+            by = lag.ry;
+          }
+          int dx = (int) (p.x+8 - bx);
+          int dy = (int) (p.y+8 - by);
+          if (Math.abs(dx) < 20 && Math.abs(dy) < 20) {
+            if (sounds != null && (p.y < p.bottom-p.h-50))
+              sounds.request(BroomPanel.SND_BUMP, i);
+            p.y = 1000;
+          }
+        }
+      }
+    }
+  }
+}
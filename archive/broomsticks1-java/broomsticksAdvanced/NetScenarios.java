@@ -0,0 +1,174 @@
+//=========================================================================
+//#
+//#  NetScenarios.java
+//#
+//#  Description: scripted link conditions for tuning the netcode. Each
+//#               scenario runs a local GameServer and two predicting UDP
+//#               clients pressing random keys, every packet both ways
+//#               through a NetworkSimulator, and steps through its
+//#               phases. Reports per scenario how long inputs took to
+//#               show up in a state, how many states arrived, how often
+//#               prediction had to correct, and how much of the drawing
+//#               of the other player was extrapolated
+//#
+//#  usage: java NetScenarios [seconds per phase] [scenario name]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+
+class NetScenarios {
+
+  // name, then phases of: length (relative), latency ms, jitter ms,
+  // loss, duplicate, reorder
+  static final Object[][] SCENARIOS = {
+    { "lan",       new double[] { 1,   1,  0.2, 0,    0,    0    } },
+    { "broadband", new double[] { 1,  20,  3,   0.005, 0,   0    } },
+    { "wifi",      new double[] { 1,  10, 15,   0.02, 0.01, 0.02 } },
+    { "mobile",    new double[] { 1,  60, 25,   0.05, 0.01, 0.05 } },
+    { "bad",       new double[] { 1, 120, 40,   0.15, 0.03, 0.1  } },
+    // a good link that drops out for a while and comes back
+    { "dropout",   new double[] { 1,  20,  3,   0.005, 0,   0,
+                                  0.4, 20,  3,   0.6,  0,    0,
+                                  1,  20,  3,   0.005, 0,   0    } },
+    // latency that steps up and back down, as on a congested route
+    { "spike",     new double[] { 1,  20,  3,   0,    0,    0,
+                                  0.5, 150, 30,  0.02, 0,    0.05,
+                                  1,  20,  3,   0,    0,    0    } },
+  };
+
+  // a UdpGameClient with prediction
+  static class Client extends UdpGameClient {
+    Prediction prediction;
+    NetState drawn;
+
+    Client(PacketChannel net, SocketAddress server, Match m) {
+      super(net, server);
+      prediction = new Prediction(m);
+      drawn = new NetState(m.players.length, m.balls.length);
+    }
+
+    protected void handle(int type, ByteBuffer b) throws IOException {
+      super.handle(type, b);
+      if (type == GameServer.WELCOME && welcomed && prediction.remote == null && !prediction.welcome(this)) {
+        error = "room doesn't match the local setup";
+        close();
+      }
+    }
+
+    protected void stateReceived() {
+      super.stateReceived();
+      prediction.received(this);
+    }
+
+    // a game tick, and where the other player would be drawn
+    public void tick() throws IOException {
+      poll();
+      prediction.tick(this);
+      if (prediction.remote != null)
+        prediction.remote.sample(System.nanoTime(), drawn);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    double phase = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+    String only = args.length > 1 ? args[1] : null;
+    for (int i=0; i<SCENARIOS.length; i++)
+      if (only == null || only.equals(SCENARIOS[i][0]))
+        run((String) SCENARIOS[i][0], (double[]) SCENARIOS[i][1], phase, 1000 + i);
+  }
+
+  static void run(String name, double[] script, double phase, long seed) throws Exception {
+    GameServer server = new GameServer(0);
+    ArrayList<NetworkSimulator> sims = new ArrayList<NetworkSimulator>();
+    NetworkSimulator down = new NetworkSimulator(server.udp, seed);
+    server.udp = down;
+    sims.add(down);
+    Thread st = new Thread(server, "server");
+    st.start();
+
+    InetSocketAddress to = new InetSocketAddress("localhost", server.port());
+    LatencyHistogram latency = new LatencyHistogram("input", 1000, 1000);
+    Client[] clients = new Client[2];
+    for (int i=0; i<clients.length; i++) {
+      Match m = new Match(630, 400);
+      GameServer.setupRoom(m, 1);
+      NetworkSimulator up = new NetworkSimulator(UdpChannel.open(), seed * 10 + i);
+      sims.add(up);
+      clients[i] = new Client(up, to, m);
+      clients[i].inputLatency = latency;
+    }
+
+    Random rnd = new Random(seed);
+    long tickNanos = Match.TICK_MS * 1000000L;
+    int phases = script.length / 6, ticks = 0;
+    for (int p=0; p<phases; p++) {
+      for (int k=0; k<sims.size(); k++)
+        sims.get(k).set(script[p*6+1], script[p*6+2], script[p*6+3],
+                        script[p*6+4], script[p*6+5]);
+      if (p == 0)
+        for (int i=0; i<clients.length; i++)
+          clients[i].join(1, false);
+      long next = System.nanoTime();
+      long end = next + (long) (script[p*6] * phase * 1000000000L);
+      while (System.nanoTime() < end) {
+        long wait = next - System.nanoTime();
+        if (wait > 0)
+          Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        next += tickNanos;
+        for (int i=0; i<clients.length; i++) {
+          Client c = clients[i];
+          if (c.welcomed && rnd.nextInt(4) == 0)
+            c.prediction.match.players[c.slot].handleAction(rnd.nextInt(4));
+          c.tick();
+        }
+        ticks++;
+      }
+    }
+    server.stop();
+    st.join();
+
+    long states = 0, checks = 0, rollbacks = 0, depth = 0, snaps = 0, samples = 0, extrapolated = 0, held = 0;
+    int maxDepth = 0;
+    for (int i=0; i<clients.length; i++) {
+      Client c = clients[i];
+      Prediction pr = c.prediction;
+      states += c.states;
+      checks += pr.checks;
+      rollbacks += pr.rollbacks;
+      depth += pr.resimTicks;
+      snaps += pr.snaps;
+      maxDepth = Math.max(maxDepth, pr.maxDepth);
+      if (pr.remote != null) {
+        samples += pr.remote.samples;
+        extrapolated += pr.remote.extrapolated;
+        held += pr.remote.held;
+      }
+      c.close();
+    }
+    long sent = 0, lost = 0, duplicated = 0, reordered = 0;
+    for (int k=0; k<sims.size(); k++) {
+      NetworkSimulator s = sims.get(k);
+      sent += s.sent;
+      lost += s.lost;
+      duplicated += s.duplicated;
+      reordered += s.reordered;
+    }
+    System.out.println(name + ": " + phases + " phase" + (phases > 1 ? "s, " : ", ") + ticks + " ticks, "
+                       + sent + " packets, " + Math.round(lost * 1000.0 / sent) / 10.0 + "% lost, "
+                       + duplicated + " duplicated, " + reordered + " reordered");
+    System.out.println("  input->state p50 " + latency.percentile(0.5) / 1000000 + " ms p99 "
+                       + latency.percentile(0.99) / 1000000 + " ms; states "
+                       + Math.round(states * 1000.0 / ticks / clients.length) / 10.0 + "% of ticks");
+    System.out.println("  corrections " + rollbacks + " in " + checks + " checks ("
+                       + Math.round(rollbacks * 1000.0 / Math.max(checks, 1)) / 10.0 + "%), depth mean "
+                       + Math.round(depth * 10.0 / Math.max(rollbacks, 1)) / 10.0 + " max " + maxDepth
+                       + ", " + snaps + " snaps; remote extrapolated "
+                       + Math.round(extrapolated * 1000.0 / Math.max(samples, 1)) / 10.0 + "% held "
+                       + Math.round(held * 1000.0 / Math.max(samples, 1)) / 10.0 + "%");
+  }
+}
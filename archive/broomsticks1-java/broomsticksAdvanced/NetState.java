@@ -0,0 +1,245 @@
+//=========================================================================
+//#
+//#  NetState.java
+//#
+//#  Description: the part of a Match that goes over the network, as
+//#               plain arrays: capture from a match, apply to one, and
+//#               read or write it as bytes. A state decoded from a
+//#               masked snapshot (see Interest) only has some players
+//#               and balls; the others are left alone when applying
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.nio.*;
+
+class NetState {
+
+  public int tick;
+  public int ack;                      // last input seq the server applied for the receiver
+  public long seed;                    // match RNG, so a client can simulate ahead
+  public int score0, score1;
+  public int flags;                    // STARTED | GAMEOVER | BASKET0 | BASKET1
+  public int winner;
+  public int timer;
+
+  public int players;
+  public float[] px, py, pvx, pvy;
+  public byte[] model;
+  public byte[] side;
+  public byte[] robot;
+
+  public int balls;
+  public byte[] alive;
+  public float[] bx, by, bvx, bvy;
+
+  public long[] present;               // players then balls this state has
+
+  static final int STARTED = 1, GAMEOVER = 2, BASKET0 = 4, BASKET1 = 8;
+
+  NetState(int thePlayers, int theBalls) {
+    players = thePlayers;
+    px = new float[players];
+    py = new float[players];
+    pvx = new float[players];
+    pvy = new float[players];
+    model = new byte[players];
+    side = new byte[players];
+    robot = new byte[players];
+    balls = theBalls;
+    alive = new byte[balls];
+    bx = new float[balls];
+    by = new float[balls];
+    bvx = new float[balls];
+    bvy = new float[balls];
+    present = new long[(players + balls + 63) >> 6];
+    all();
+  }
+
+  // entity e: player e, or ball e - players
+  public boolean has(int e) {
+    return (present[e >> 6] & (1L << e)) != 0;
+  }
+
+  void all() {
+    int n = players + balls;
+    for (int w=0; w<present.length; w++)
+      present[w] = n >= 64 * (w + 1) ? -1L : (1L << (n - 64 * w)) - 1;
+  }
+
+  public void copyPlayer(NetState o, int i) {
+    px[i] = o.px[i];
+    py[i] = o.py[i];
+    pvx[i] = o.pvx[i];
+    pvy[i] = o.pvy[i];
+    model[i] = o.model[i];
+    side[i] = o.side[i];
+    robot[i] = o.robot[i];
+  }
+
+  public void copyBall(NetState o, int i) {
+    alive[i] = o.alive[i];
+    bx[i] = o.bx[i];
+    by[i] = o.by[i];
+    bvx[i] = o.bvx[i];
+    bvy[i] = o.bvy[i];
+  }
+
+  public void capture(Match m) {
+    int i;
+    tick = m.tick;
+    seed = m.seed;
+    score0 = m.teamScore[0];
+    score1 = m.teamScore[1];
+    flags = (m.started ? STARTED : 0) | (m.gameover ? GAMEOVER : 0)
+      | (m.teamBasket[0] ? BASKET0 : 0) | (m.teamBasket[1] ? BASKET1 : 0);
+    winner = m.winner;
+    timer = m.timer;
+    all();
+    for (i=0; i<players; i++) {
+      Person p = m.players[i];
+      px[i] = p.x;
+      py[i] = p.y;
+      pvx[i] = p.velocityX;
+      pvy[i] = p.velocityY;
+      model[i] = (byte) p.model;
+      side[i] = (byte) p.side;
+      robot[i] = (byte) (p.isRobot ? 1 : 0);
+    }
+    for (i=0; i<balls; i++) {
+      Ball b = m.balls[i];
+      alive[i] = (byte) (b.alive ? 1 : 0);
+      bx[i] = b.x;
+      by[i] = b.y;
+      bvx[i] = b.velocityX;
+      bvy[i] = b.velocityY;
+    }
+  }
+
+  public void applyTo(Match m) {
+    int i;
+    m.tick = tick;
+    m.seed = seed;
+    m.teamScore[0] = score0;
+    m.teamScore[1] = score1;
+    m.started = (flags & STARTED) != 0;
+    m.gameover = (flags & GAMEOVER) != 0;
+    m.teamBasket[0] = (flags & BASKET0) != 0;
+    m.teamBasket[1] = (flags & BASKET1) != 0;
+    m.prevTeamBasket[0] = m.teamBasket[0];
+    m.prevTeamBasket[1] = m.teamBasket[1];
+    m.winner = winner;
+    m.timer = timer;
+    for (i=0; i<players && i<m.players.length; i++) {
+      if (!has(i))
+        continue;                      // out of view; the match keeps its own
+      Person p = m.players[i];
+      p.x = px[i];
+      p.y = py[i];
+      p.velocityX = pvx[i];
+      p.velocityY = pvy[i];
+      p.model = model[i];
+      p.side = side[i];
+      p.isRobot = robot[i] != 0;
+    }
+    for (i=0; i<balls && i<m.balls.length; i++) {
+      if (!has(players + i))
+        continue;
+      Ball b = m.balls[i];
+      b.alive = alive[i] != 0;
+      b.x = bx[i];
+      b.y = by[i];
+      b.velocityX = bvx[i];
+      b.velocityY = bvy[i];
+    }
+  }
+
+  public void copyFrom(NetState o) {
+    tick = o.tick;
+    ack = o.ack;
+    seed = o.seed;
+    score0 = o.score0;
+    score1 = o.score1;
+    flags = o.flags;
+    winner = o.winner;
+    timer = o.timer;
+    System.arraycopy(o.px, 0, px, 0, players);
+    System.arraycopy(o.py, 0, py, 0, players);
+    System.arraycopy(o.pvx, 0, pvx, 0, players);
+    System.arraycopy(o.pvy, 0, pvy, 0, players);
+    System.arraycopy(o.model, 0, model, 0, players);
+    System.arraycopy(o.side, 0, side, 0, players);
+    System.arraycopy(o.robot, 0, robot, 0, players);
+    System.arraycopy(o.alive, 0, alive, 0, balls);
+    System.arraycopy(o.bx, 0, bx, 0, balls);
+    System.arraycopy(o.by, 0, by, 0, balls);
+    System.arraycopy(o.bvx, 0, bvx, 0, balls);
+    System.arraycopy(o.bvy, 0, bvy, 0, balls);
+    System.arraycopy(o.present, 0, present, 0, present.length);
+  }
+
+  // -------------------------------------------------------------------
+  // plain encoding: every field, floats as they are
+
+  public int size() {
+    return 4 + 4 + 8 + 2 + 2 + 1 + 1 + 2 + players * 19 + balls * 17;
+  }
+
+  public void write(ByteBuffer b) {
+    int i;
+    b.putInt(tick);
+    b.putInt(ack);
+    b.putLong(seed);
+    b.putShort((short) score0);
+    b.putShort((short) score1);
+    b.put((byte) flags);
+    b.put((byte) winner);
+    b.putShort((short) timer);
+    for (i=0; i<players; i++) {
+      b.putFloat(px[i]);
+      b.putFloat(py[i]);
+      b.putFloat(pvx[i]);
+      b.putFloat(pvy[i]);
+      b.put(model[i]);
+      b.put(side[i]);
+      b.put(robot[i]);
+    }
+    for (i=0; i<balls; i++) {
+      b.put(alive[i]);
+      b.putFloat(bx[i]);
+      b.putFloat(by[i]);
+      b.putFloat(bvx[i]);
+      b.putFloat(bvy[i]);
+    }
+  }
+
+  public void read(ByteBuffer b) {
+    int i;
+    tick = b.getInt();
+    ack = b.getInt();
+    seed = b.getLong();
+    score0 = b.getShort();
+    score1 = b.getShort();
+    flags = b.get();
+    winner = b.get();
+    timer = b.getShort();
+    all();
+    for (i=0; i<players; i++) {
+      px[i] = b.getFloat();
+      py[i] = b.getFloat();
+      pvx[i] = b.getFloat();
+      pvy[i] = b.getFloat();
+      model[i] = b.get();
+      side[i] = b.get();
+      robot[i] = b.get();
+    }
+    for (i=0; i<balls; i++) {
+      alive[i] = b.get();
+      bx[i] = b.getFloat();
+      by[i] = b.getFloat();
+      bvx[i] = b.getFloat();
+      bvy[i] = b.getFloat();
+    }
+  }
+}
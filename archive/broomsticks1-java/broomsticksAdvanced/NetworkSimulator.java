@@ -0,0 +1,184 @@
+//=========================================================================
+//#
+//#  NetworkSimulator.java
+//#
+//#  Description: a PacketChannel that makes a local link behave like a
+//#               bad one. Each packet sent may be lost or duplicated and
+//#               is held for the latency plus a random jitter; packets
+//#               keep their order unless one is picked to be reordered,
+//#               which holds it a little longer past the ones behind
+//#               it. All draws come from one seeded Random, in send
+//#               order, so a run loses and delays the same packets
+//#               again. A daemon thread hands packets on when due, to
+//#               the millisecond. Conditions can change mid run
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+
+class NetworkSimulator implements PacketChannel, Runnable {
+
+  static final long REORDER_NANOS = 20000000L; // a reordered packet is held up to this much more
+
+  // a packet on its way
+  static class Delivery {
+    long due, order;
+    ByteBuffer data;
+    SocketAddress to;
+  }
+
+  PacketChannel inner;
+  Random rnd;
+  long latency, jitter;                // ns; jitter is the mean extra delay
+  double loss, duplicate, reorder;     // chances per packet
+  PriorityQueue<Delivery> pending;     // by due time, then order
+  ArrayList<Delivery> pool;
+  long lastDue, order;
+  Thread deliverer;
+  boolean closed;
+
+  // stats
+  public long sent, lost, duplicated, reordered, delivered, delayNanos;
+
+  NetworkSimulator(PacketChannel theInner, long seed) {
+    inner = theInner;
+    rnd = new Random(seed);
+    pending = new PriorityQueue<Delivery>(64, new Comparator<Delivery>() {
+      public int compare(Delivery a, Delivery b) {
+        if (a.due != b.due)
+          return a.due < b.due ? -1 : 1;
+        return a.order < b.order ? -1 : (a.order > b.order ? 1 : 0);
+      }
+    });
+    pool = new ArrayList<Delivery>();
+    lastDue = 0;
+    order = 0;
+    closed = false;
+  }
+
+  // one way; loss, duplicate and reorder as fractions
+  public synchronized void set(double latencyMs, double jitterMs, double theLoss,
+                               double theDuplicate, double theReorder) {
+    latency = (long) (latencyMs * 1000000);
+    jitter = (long) (jitterMs * 1000000);
+    loss = theLoss;
+    duplicate = theDuplicate;
+    reorder = theReorder;
+  }
+
+  public void send(ByteBuffer packet, SocketAddress to) throws IOException {
+    boolean direct = false;
+    synchronized (this) {
+      sent++;
+      if (rnd.nextDouble() < loss) {
+        lost++;
+        packet.position(packet.limit());
+        return;
+      }
+      int copies = 1;
+      if (rnd.nextDouble() < duplicate) {
+        copies = 2;
+        duplicated++;
+      }
+      for (int i=0; i<copies; i++) {
+        long delay = latency;
+        if (jitter > 0)
+          delay += (long) (-Math.log(1 - rnd.nextDouble()) * jitter);
+        long now = System.nanoTime(), due = now + delay;
+        if (reorder > 0 && rnd.nextDouble() < reorder) {
+          due += (long) (rnd.nextDouble() * REORDER_NANOS);
+          reordered++;
+        } else {
+          if (due < lastDue)
+            due = lastDue;             // a queue doesn't overtake itself
+          lastDue = due;
+        }
+        if (due <= now && pending.isEmpty() && copies == 1) {
+          direct = true;               // a perfect link: no copy, no thread
+          break;
+        }
+        delayNanos += due - now;
+        Delivery d = pool.isEmpty() ? new Delivery() : pool.remove(pool.size() - 1);
+        if (d.data == null)
+          d.data = ByteBuffer.allocate(MAX_PACKET);
+        d.data.clear();
+        d.data.put(packet.duplicate());
+        d.data.flip();
+        d.due = due;
+        d.order = order++;
+        d.to = to;
+        pending.add(d);
+      }
+      if (!direct) {
+        packet.position(packet.limit());
+        if (deliverer == null) {
+          deliverer = new Thread(this, "netsim");
+          deliverer.setDaemon(true);
+          deliverer.start();
+        }
+        notify();
+      }
+    }
+    if (direct) {
+      inner.send(packet, to);
+      synchronized (this) {
+        delivered++;
+      }
+    }
+  }
+
+  public void run() {
+    try {
+      while (true) {
+        Delivery d;
+        synchronized (this) {
+          while (true) {
+            if (closed)
+              return;
+            d = pending.peek();
+            long wait = d == null ? 0 : d.due - System.nanoTime();
+            if (d != null && wait <= 0)
+              break;
+            if (d == null)
+              wait();
+            else
+              wait(wait / 1000000, (int) (wait % 1000000));
+          }
+          pending.poll();
+        }
+        inner.send(d.data, d.to);
+        synchronized (this) {
+          delivered++;
+          d.to = null;
+          pool.add(d);
+        }
+      }
+    } catch (InterruptedException e) {
+    } catch (IOException e) {
+    }
+  }
+
+  public SocketAddress receive(ByteBuffer into) throws IOException {
+    return inner.receive(into);
+  }
+
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      notify();
+    }
+    inner.close();
+  }
+
+  public synchronized String summary() {
+    if (sent == 0)
+      return "netsim: nothing sent";
+    return "netsim: " + sent + " sent, " + Math.round(lost * 1000.0 / sent) / 10.0 + "% lost, "
+      + duplicated + " duplicated, " + reordered + " reordered, mean delay "
+      + Math.round(delayNanos / Math.max(sent - lost + duplicated, 1) / 100000) / 10.0 + " ms";
+  }
+}
@@ -0,0 +1,27 @@
+//=========================================================================
+//#
+//#  PacketChannel.java
+//#
+//#  Description: datagrams in and out, without blocking. UdpChannel is
+//#               the real thing; wrappers can drop, delay or reorder
+//#               packets to try the game on a bad link
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+
+interface PacketChannel {
+
+  static final int MAX_PACKET = 1400;  // stays under a typical MTU
+
+  // sends what remains of packet, or silently loses it like UDP would
+  public void send(ByteBuffer packet, SocketAddress to) throws IOException;
+
+  // the sender, or null when nothing is waiting
+  public SocketAddress receive(ByteBuffer into) throws IOException;
+
+  public void close() throws IOException;
+}
@@ -0,0 +1,288 @@
+//=========================================================================
+//#
+//#  Person.java
+//#
+//#  Author: Paul Rajlich
+//#  Email: prajlich@ncsa.uiuc.edu
+//#  WWW: http://www.ncsa.uiuc.edu/People/prajlich
+//#
+//#  Description: a player on a broom, steered by keys or by the robot
+//#
+//=========================================================================
+//# Copyright (C) 2000, 2001   Paul Rajlich, all rights reserved
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.awt.*;
+
+class Person extends FlyingObject {
+  static final int UP = 0, DOWN = 1, LEFT = 2, RIGHT = 3, MODEL = 4, ROBOT = 5;
+  static final int ACTIONS = 6;
+
+  public int model, side;
+  public boolean isRobot;
+  Ball target;
+  int upKey, downKey, leftKey, rightKey, modelKey, robotKey;
+  int infoX, infoY;
+
+  Planner planner;  // lookahead robot instead of the classic one, or null
+  int planned;      // bits of 1<<UP..1<<RIGHT chosen by the planner
+  int forced;       // same bits, replaces robot and keys; -1 if unused
+  int lagTicks;     // server: how old this player's view of the others is
+
+  Person(Ball t, Match m, int theModel, int initX, int initY) {
+    super(m, initX, initY);
+    model = theModel;
+    target = t;
+    isRobot = false;
+    smart = 15;
+    init();
+    upKey = '-';
+    downKey = '-';
+    leftKey = '-';
+    rightKey = '-';
+    modelKey = '-';
+    robotKey = '-';
+    infoX = 0; 
+    infoY = 0;
+    planner = null;
+    planned = 0;
+    forced = -1;
+    lagTicks = 0;
+  }
+
+  public void copyFrom(Person o) {
+    super.copyFrom(o);
+    model = o.model;
+    side = o.side;
+    isRobot = o.isRobot;
+  }
+
+  public void setInfoXY(int x, int y) {
+    infoX = x;
+    infoY = y;
+  }
+
+  public void setKeys(int up, int down, int left, int right, int m, int robot) {
+    upKey = up;
+    downKey = down;
+    leftKey = left; 
+    rightKey = right;
+    modelKey = m;
+    robotKey = robot;
+  } 
+
+  public void init() {
+    //System.out.println("Person init()");
+    //w = img[0][0].getWidth(applet);
+    //h = img[0][0].getHeight(applet);
+    //System.out.println("size: " + w + "x" + h);
+    w = 38;
+    h = 38;
+    side = 0;
+  }
+
+  // action is one of UP..ROBOT, looked up from the key by the KeyMap
+  public void handleAction(int action) {
+    if (forced >= 0) {
+      // input comes from forced bits (a predicted network game): collect
+      // the key, model and robot ones too, for the next tick instead of
+      // acting now, so the server gets it as well
+      forced |= 1<<action;
+      return;
+    }
+    if (isRobot) {
+      if (action == LEFT)
+        dumber();
+      if (action == RIGHT)
+        smarter();
+      if (action == ROBOT) {
+        isRobot = false; 
+        velocityX = 0;
+        //drawInfo(bFrame.getGraphics());
+        if (bFrame != null)
+          bFrame.paint(bFrame.getGraphics());
+      }
+    }
+    else {
+      if (action <= RIGHT)
+        applied |= 1<<action;
+      if (action == UP)
+        up();
+      if (action == DOWN)
+        down();
+      if (action == LEFT)
+        left();
+      if (action == RIGHT)
+        right();
+      if (action == ROBOT) {
+        isRobot = true;
+        decided = 0;
+        //drawInfo(bFrame.getGraphics());
+        if (bFrame != null)
+          bFrame.paint(bFrame.getGraphics());
+      }
+      if (action == MODEL)
+        switchModel();
+    }
+  }
+
+  public void toggleRobot() {
+    if (isRobot) {
+      isRobot = false;
+      velocityX = 0;
+    }
+    else
+      isRobot = true;
+    if (bFrame != null)
+      bFrame.paint(bFrame.getGraphics());
+  }
+
+  public void smarter() {
+    smart -= 5;
+    if (smart <= 1)
+      smart = 1;
+    if (bFrame != null)
+      drawInfo(bFrame.getGraphics());
+  }
+
+  public void dumber() {
+    smart += 5;
+    if (smart >= 30)
+      smart = 30;
+    if (bFrame != null)
+      drawInfo(bFrame.getGraphics());
+  }
+
+  public void move() {
+
+    if (forced >= 0)
+      applyActions(forced);
+    else if (isRobot && planner != null)
+      applyActions(planned);
+    else if (isRobot) {
+      // with an AIPass, decided was already filled in this tick
+      if (match.ai == null && match.think.due(this)) {
+        if (match.policy != null)
+          decided = match.policy.decide(this, match.nextInt());
+        else {
+          int choice;
+          choice = match.nextInt()%smart;
+
+          decided = 0;
+          if (choice == 0)
+            decided = classicActions();
+        }
+      }
+      applyActions(decided);
+    }
+    super.move();
+  }
+
+  // the classic robot, as 1<<UP.. bits
+  public int classicActions() {
+    int bits = 0;
+    // we have the ball
+    if (match.teamBasket[side]) {
+      if (side == 0) {
+        if (this.x < match.width-50)
+          bits |= 1<<RIGHT;
+        if (this.y > match.midH-10)
+          bits |= 1<<UP;
+        //else if (this.y < bFrame.midH-30)
+        //  down();
+      }
+      else {
+        if (this.x > 50)
+          bits |= 1<<LEFT;
+        if (this.y > match.midH-10)
+          bits |= 1<<UP;
+        //else if (this.y < bFrame.midH-30)
+        //  down();
+      }
+    }
+    else {  // get the ball
+      // idea: only have one of these happen
+      if (target.y < this.y)
+        bits |= 1<<UP;
+      if (Math.abs(target.y - this.y) < 100) {
+        if (target.x < this.x-10) 
+          bits |= 1<<LEFT;
+        else if (target.x > this.x+10)
+          bits |= 1<<RIGHT;
+      }
+      if (target.y > this.y)
+        bits |= 1<<DOWN;
+    }
+    return bits;
+  }
+
+  public void switchModel() {
+    model++;
+    if (model > 4)
+      model = 0;
+  }
+
+  public void drawInfo(Graphics g) {
+    g.setColor(bFrame.getBackground());
+    g.fillRect(infoX, infoY, 145, 15);
+    if (!isRobot) {
+      g.setColor(Color.black);
+      if (upKey == Event.UP)
+        g.drawString("arrow-keys and ENTER", infoX, infoY+10);
+      else if (upKey == Event.HOME)
+        g.drawString("Home Del PD Ins PU", infoX, infoY+10);
+      else if (upKey == 'e')
+        //g.drawString("E X S F 1 T", infoX, infoY+10);
+        g.drawString("E X S F 1", infoX, infoY+10);
+      else
+        g.drawString("I J L 7 P", infoX, infoY+10);
+
+      //g.drawString((char) upKey + " " + (char) leftKey + " " + (char) rightKey
+      //     + " " + (char) modelKey + " " + (char) robotKey, infoX, infoY+10);
+    }
+    else {
+      g.setColor(Color.red);
+      g.fillRect(infoX+30, infoY, 35-smart, 10);
+      g.setColor(Color.black);
+      g.drawRect(infoX+30, infoY, 34, 10);
+      g.drawString("skill:", infoX, infoY+10);
+      if (upKey == Event.HOME)
+        g.drawString("Del PD PU", infoX+70, infoY+10);
+      else if (upKey == 'e')
+        //g.drawString("S F T", infoX+70, infoY+10);
+        g.drawString("S F", infoX+70, infoY+10);
+      else
+        g.drawString("J L P", infoX+70, infoY+10);
+
+      //  g.drawString((char) leftKey + " " + (char) rightKey + " "
+      //             + (char) robotKey, infoX+70, infoY+10);
+    }
+  }
+
+  public void draw(Graphics g) {
+    drawAt(g, x, y, velocityX, velocityY);
+  }
+
+  // somewhere other than where the match has it, e.g. interpolated
+  public void drawAt(Graphics g, float px, float py, float vx, float vy) {
+    int h, v;
+    if (vx > 0)
+      h = 0;
+    else if (vx < 0)
+      h = 1;
+    else
+      h = side;
+
+    if (vy >= 0)
+      v = 0;
+    else
+      v = 1;
+
+    if (side == 0)
+      g.drawImage(bFrame.img[model][v][h], (int) px, (int) py, bFrame);
+    else
+      g.drawImage(bFrame.img[model+5][v][h], (int) px, (int) py, bFrame);
+  }
+}
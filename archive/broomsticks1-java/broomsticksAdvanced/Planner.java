@@ -0,0 +1,242 @@
+//=========================================================================
+//#
+//#  Planner.java
+//#
+//#  Description: lookahead robot. Copies the match into a scratch match,
+//#               plays each candidate move forward and keeps the best,
+//#               all within a fixed time budget per tick. The budget
+//#               bounds the planning work, not wall time: if the thread
+//#               is descheduled or stopped for GC mid rollout the tick
+//#               still overruns, so on a shared core this is best effort,
+//#               not a hard guarantee. main reports such ticks
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class Planner {
+
+  // candidate moves as 1<<UP.. bits: nothing, the four directions and
+  // the four diagonals
+  static final int U = 1<<Person.UP, D = 1<<Person.DOWN;
+  static final int L = 1<<Person.LEFT, R = 1<<Person.RIGHT;
+  static final int[] MOVES = { 0, U, D, L, R, U|L, U|R, D|L, D|R };
+
+  static final int CLICK = 4;       // the candidate is pressed every CLICK ticks
+  static final int COMMIT = 16;     // ... for this long, then the classic robot takes over
+  static final int MAX_HORIZON = 400;
+  static final int TICK_BUDGET_US = 4000; // for all planners together, of a 30ms tick
+
+  Match real, scratch;
+  int me;
+  long budget;                      // nanoseconds per decide()
+  long copyNanos, stepNanos, evalNanos; // slowest copy, simulated tick and evaluate seen lately
+  long pause;                       // longer than this was the thread being stopped, not the work
+
+  // stats
+  public long decisions, rollouts, steps, overruns, maxNanos, nanos;
+  public int lastHorizon;
+
+  Planner(Match m, int player, long budgetNanos) {
+    real = m;
+    me = player;
+    budget = budgetNanos;
+    pause = budgetNanos / 4;
+    copyNanos = 0;
+    stepNanos = 0;
+    evalNanos = 0;
+    scratch = m.newScratch();
+  }
+
+  public void resetStats() {
+    decisions = 0;
+    rollouts = 0;
+    steps = 0;
+    overruns = 0;
+    maxNanos = 0;
+    nanos = 0;
+  }
+
+  // Iterative deepening: score every move at horizon 25, then 50, 100...
+  // until the budget runs out, and answer with the best move of the
+  // deepest horizon that was completed for all moves. A rollout only
+  // starts if the slowest recent copy, tick and evaluate still fit
+  // before the deadline, and each simulated tick only if a tick and the
+  // evaluate do. A sample longer than a quarter of the budget is the
+  // thread being stopped, not the work, and would stall planning, so it
+  // is left out; the rest decay slowly. That keeps decisions within the budget
+  // as far as the work itself goes; a thread that is descheduled or
+  // stopped for GC mid rollout still overruns (see main)
+  public int decide() {
+    long start = System.nanoTime();
+    long deadline = start + budget;
+    copyNanos -= copyNanos >> 6;
+    stepNanos -= stepNanos >> 6;
+    evalNanos -= evalNanos >> 6;
+    int best = 0;
+    lastHorizon = 0;
+
+    for (int horizon=25; horizon<=MAX_HORIZON; horizon*=2) {
+      int levelBest = -1;
+      float levelScore = 0;
+      boolean done = true;
+      for (int k=0; k<MOVES.length; k++) {
+        float score = rollout(MOVES[k], horizon, deadline);
+        if (Float.isNaN(score)) {
+          done = false;
+          break;
+        }
+        if (levelBest < 0 || score > levelScore) {
+          levelBest = MOVES[k];
+          levelScore = score;
+        }
+      }
+      if (!done)
+        break;
+      best = levelBest;
+      lastHorizon = horizon;
+    }
+
+    long took = System.nanoTime() - start;
+    decisions++;
+    nanos += took;
+    if (took > budget)
+      overruns++;
+    if (took > maxNanos)
+      maxNanos = took;
+    return best;
+  }
+
+  // NaN if the deadline was hit
+  float rollout(int move, int horizon, long deadline) {
+    long prev = System.nanoTime();
+    if (prev + copyNanos + stepNanos + evalNanos > deadline)
+      return Float.NaN;
+    scratch.copyFrom(real);
+    Person p = scratch.players[me];
+    rollouts++;
+    long now = System.nanoTime();
+    if (now - prev > copyNanos && now - prev < pause)
+      copyNanos = now - prev;
+    prev = now;
+    for (int t=0; t<horizon; t++) {
+      now = System.nanoTime();
+      if (t > 0 && now - prev > stepNanos && now - prev < pause)
+        stepNanos = now - prev;
+      prev = now;
+      if (now + stepNanos + evalNanos > deadline)
+        return Float.NaN;
+      if (t < COMMIT)
+        p.forced = (t % CLICK == 0) ? move : 0;
+      else {
+        // hand back to the classic robot for the rest of the rollout
+        p.forced = -1;
+        p.isRobot = true;
+      }
+      scratch.step();
+      steps++;
+      if (!scratch.started)
+        break;
+    }
+    p.forced = -1;
+    long e0 = System.nanoTime();
+    float score = evaluate(scratch, me);
+    long e = System.nanoTime() - e0;
+    if (e > evalNanos && e < pause)
+      evalNanos = e;
+    return score;
+  }
+
+  // higher is better for player me
+  static float evaluate(Match m, int me) {
+    Person p = m.players[me];
+    int side = p.side;
+    float score = 1000 * (m.teamScore[side] - m.teamScore[1-side]);
+    if (m.gameover)
+      return m.winner == side ? score + 100000 : score - 100000;
+
+    if (m.teamBasket[side]) {
+      // carrying: get to the other team's hoop at mid height
+      float goalX = (side == 0) ? m.width - 17 - p.w : 17;
+      score += 200;
+      score -= 100 * Math.abs(goalX - p.x) / m.width;
+      score -= 50 * Math.abs(m.midH - p.y) / m.height;
+    }
+    else {
+      // chasing: get close to the ball
+      score -= 100 * (Math.abs(p.target.x - p.x) + Math.abs(p.target.y - p.y)) / m.width;
+      if (m.teamBasket[1-side])
+        score -= 100;
+    }
+    return score;
+  }
+
+  // java Planner [budget us per tick] [seconds]: four planner robots
+  // against each other, reports how close decisions get to the budget
+  public static void main(String[] args) {
+    long budgetMicros = args.length > 0 ? Long.parseLong(args[0]) : TICK_BUDGET_US;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+
+    Match m = new Match(630, 400);
+    m.teams = true;
+    m.winScore = 1000000; // keep playing
+    m.setSeed(1);
+    m.setup();
+    Planner[] planners = new Planner[m.players.length];
+    for (int i=0; i<m.players.length; i++) {
+      planners[i] = new Planner(m, i, budgetMicros * 1000 / m.players.length);
+      m.players[i].planner = planners[i];
+      m.players[i].isRobot = true;
+      m.players[i].smart = 1;
+    }
+    m.start();
+
+    // first 10 game seconds are JIT warmup and not counted
+    int warmup = 10 * 1000 / Match.TICK_MS;
+    // max_tick_us is the whole tick, physics included; max_plan_us is
+    // what the planners took together, which is what the budget covers
+    long maxTick = 0, maxPlan = 0, planned = 0;
+    int over = 0;
+    int ticks = warmup + seconds * 1000 / Match.TICK_MS;
+    for (int t=0; t<ticks && m.started; t++) {
+      if (t == warmup) {
+        for (int i=0; i<planners.length; i++)
+          planners[i].resetStats();
+        planned = 0;
+      }
+      long t0 = System.nanoTime();
+      m.step();
+      long t1 = System.nanoTime();
+      long sum = 0;
+      for (int i=0; i<planners.length; i++)
+        sum += planners[i].nanos;
+      long plan = sum - planned;
+      planned = sum;
+      if (t < warmup)
+        continue;
+      if (t1-t0 > maxTick)
+        maxTick = t1-t0;
+      if (plan > maxPlan)
+        maxPlan = plan;
+      if (plan > budgetMicros * 1000)
+        over++;
+    }
+
+    System.out.println("budget_us=" + budgetMicros + " ticks=" + m.tick
+                       + " score=" + m.teamScore[0] + ":" + m.teamScore[1]
+                       + " max_tick_us=" + maxTick/1000 + " max_plan_us=" + maxPlan/1000
+                       + " ticks_over_budget=" + over);
+    for (int i=0; i<planners.length; i++) {
+      Planner p = planners[i];
+      System.out.println("robot " + i + ": decisions=" + p.decisions + " rollouts=" + p.rollouts
+                         + " steps=" + p.steps + " max_us=" + p.maxNanos/1000
+                         + " overruns=" + p.overruns + " last_horizon=" + p.lastHorizon);
+    }
+    if (over > 0) {
+      System.out.println("OVER BUDGET: planners took " + maxPlan/1000 + "us > " + budgetMicros
+                         + "us on " + over + " ticks");
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,327 @@
+//=========================================================================
+//#
+//#  PolicyTable.java
+//#
+//#  Description: robot moves precomputed for a discretized game state,
+//#               so a robot decision, skill gate included, is a compare
+//#               and a few table lookups instead of the classic robot's
+//#               division and comparisons (see bench). policy.dat next
+//#               to the applet is made by generate with its defaults
+//#
+//#  usage: java PolicyTable generate [file] [matches]
+//#         java PolicyTable bench [file] [rooms] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+
+class PolicyTable {
+
+  static final int MAGIC = 0x42525054; // "BRPT"
+  static final int VERSION = 1;
+
+  // bin edges; a value v falls in the first bin whose edge is > v
+  static final int[] DX_EDGES = { -200, -100, -50, -20, -10, 0, 10, 20, 50, 100, 200 };
+  static final int[] DY_EDGES = { -200, -100, -50, -20, -10, 0, 10, 20, 50, 100, 200 };
+  static final int[] H_EDGES  = { -100, -40, -10, 0, 10, 40, 100 };  // y - (midH-10)
+  static final int[] G_EDGES  = { 0, 50, 150 };                      // distance to the goal line
+
+  static final int DX = DX_EDGES.length+1, DY = DY_EDGES.length+1;
+  static final int H = H_EDGES.length+1, G = G_EDGES.length+1;
+  static final int CELLS = DX * DY * 2 * H * 2 * G;
+  // how far apart neighbouring bins of each part are in the cell index
+  static final int G_STEP = 1, SIDE_STEP = G, H_STEP = 2 * G;
+  static final int BASKET_STEP = H * H_STEP, DY_STEP = 2 * BASKET_STEP, DX_STEP = DY * DY_STEP;
+
+  static final int RANGE = 1024;        // values are clamped to +-RANGE
+  static final int MAX_SMART = 30;      // as Person.dumber(); worse robots act as this
+
+  byte[] moves;                         // cell -> 1<<UP.. bits
+  int[] dxPart, dyPart, hPart, gPart;   // value+RANGE -> bin * its step
+  int[] odds;                           // smart -> acts if a random int is below this
+
+  PolicyTable() {
+    moves = new byte[CELLS];
+    dxPart = bins(DX_EDGES, DX_STEP);
+    dyPart = bins(DY_EDGES, DY_STEP);
+    hPart = bins(H_EDGES, H_STEP);
+    gPart = bins(G_EDGES, G_STEP);
+    odds = new int[MAX_SMART+1];
+    for (int i=1; i<=MAX_SMART; i++)
+      odds[i] = Integer.MAX_VALUE / i;
+  }
+
+  static int[] bins(int[] edges, int step) {
+    int[] b = new int[2*RANGE+1];
+    for (int v=-RANGE; v<=RANGE; v++) {
+      int k = 0;
+      while (k < edges.length && v >= edges[k])
+        k++;
+      b[v+RANGE] = k * step;
+    }
+    return b;
+  }
+
+  static int clamp(float v) {
+    return Math.min(Math.max((int) v, -RANGE), RANGE) + RANGE;
+  }
+
+  // the parts come out of the tables already scaled, so a cell is
+  // their sum
+  public int cell(Person p) {
+    Match m = p.match;
+    float goal = (p.side == 0) ? (m.width-50) - p.x : p.x - 50;
+    return dxPart[clamp(p.target.x - p.x)]
+      + dyPart[clamp(p.target.y - p.y)]
+      + (m.teamBasket[p.side] ? BASKET_STEP : 0)
+      + hPart[clamp(p.y - (m.midH-10))]
+      + p.side * SIDE_STEP
+      + gPart[clamp(goal)];
+  }
+
+  // the table robot's whole decision: its move, or nothing if the skill
+  // gate says it lets this one pass. Acts about once in smart times like
+  // the classic robot's nextInt()%smart == 0, but with a compare instead
+  // of the division; random is any int (nextInt() or hashInt())
+  public int decide(Person p, int random) {
+    if ((random & Integer.MAX_VALUE) > odds[Math.min(p.smart, MAX_SMART)])
+      return 0;
+    return moves[cell(p)];
+  }
+
+  // -------------------------------------------------------------------
+  // generating
+
+  // Plays classic-robot matches and labels every cell seen along the way
+  // with the move the classic robot made most often in the real states
+  // that fell into it. Cells never seen keep the classic robot's move
+  // for the middle of the cell.
+  public static PolicyTable generate(int matches, int samplesPerCell) {
+    PolicyTable t = new PolicyTable();
+    int[] classic = new int[CELLS * 16];
+    int[] samples = new int[CELLS];
+
+    for (int r=0; r<matches; r++) {
+      Match m = new Match(630, 400);
+      m.teams = (r % 2) == 1;
+      m.winScore = 1000000;
+      m.setSeed(r);
+      m.setup();
+      for (int i=0; i<m.players.length; i++) {
+        m.players[i].isRobot = true;
+        m.players[i].smart = 1 + (r + i) % 20;
+      }
+      m.start();
+
+      for (int tick=0; tick<3000; tick++) {
+        for (int i=0; i<m.players.length; i++) {
+          Person p = m.players[i];
+          int c = t.cell(p);
+          if (samples[c] >= samplesPerCell)
+            continue;
+          samples[c]++;
+          classic[c*16 + p.classicActions()]++;
+        }
+        m.step();
+      }
+    }
+
+    int visited = 0;
+    for (int c=0; c<CELLS; c++) {
+      t.moves[c] = (byte) t.classicAt(c);
+      if (samples[c] == 0)
+        continue;
+      visited++;
+      int bits = 0;
+      for (int k=1; k<16; k++)
+        if (classic[c*16 + k] > classic[c*16 + bits])
+          bits = k;
+      t.moves[c] = (byte) bits;
+    }
+    System.out.println("policy: " + visited + " of " + CELLS + " cells sampled");
+    return t;
+  }
+
+  // a value inside bin k, away from the edges
+  static int middle(int[] edges, int k) {
+    if (k == 0)
+      return edges[0] - 50;
+    if (k == edges.length)
+      return edges[edges.length-1] + 50;
+    return (edges[k-1] + edges[k]) / 2;
+  }
+
+  // the classic robot's move (Person.classicActions) for a state in the
+  // middle of the cell
+  int classicAt(int c) {
+    int goal = middle(G_EDGES, c % G);   c /= G;
+    int side = c % 2;                    c /= 2;
+    int h = middle(H_EDGES, c % H);      c /= H;
+    int basket = c % 2;                  c /= 2;
+    int dy = middle(DY_EDGES, c % DY);   c /= DY;
+    int dx = middle(DX_EDGES, c);
+
+    int bits = 0;
+    if (basket == 1) {
+      if (goal > 0)
+        bits |= 1 << (side == 0 ? Person.RIGHT : Person.LEFT);
+      if (h > 0)
+        bits |= 1 << Person.UP;
+    }
+    else {
+      if (dy < 0)
+        bits |= 1 << Person.UP;
+      if (Math.abs(dy) < 100) {
+        if (dx < -10)
+          bits |= 1 << Person.LEFT;
+        else if (dx > 10)
+          bits |= 1 << Person.RIGHT;
+      }
+      if (dy > 0)
+        bits |= 1 << Person.DOWN;
+    }
+    return bits;
+  }
+
+  // -------------------------------------------------------------------
+  // storage
+
+  public void write(OutputStream os) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(CELLS);
+    out.write(moves);
+    out.flush();
+  }
+
+  public static PolicyTable read(InputStream is) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != CELLS)
+      throw new IOException("not a policy table for this version");
+    PolicyTable t = new PolicyTable();
+    in.readFully(t.moves);
+    return t;
+  }
+
+  // from the applet's code base, or the classic robot's moves if missing
+  public static PolicyTable load(URL base, String name) {
+    try {
+      InputStream in = new URL(base, name).openStream();
+      try {
+        PolicyTable t = read(in);
+        System.out.println("policy: loaded " + name);
+        return t;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      System.out.println("policy: could not load " + name + ", using classic moves (" + e + ")");
+      PolicyTable t = new PolicyTable();
+      for (int c=0; c<CELLS; c++)
+        t.moves[c] = (byte) t.classicAt(c);
+      return t;
+    }
+  }
+
+  // -------------------------------------------------------------------
+  // benchmark: the whole robot decision, skill gate included, classic vs
+  // table, over the real states of many rooms so the branches of the
+  // classic robot see what they would on a server
+
+  static Match room(int r) {
+    Match m = new Match(630, 400);
+    m.teams = (r % 2) == 1;
+    m.winScore = 1000000;
+    m.setSeed(r);
+    m.setup();
+    for (int i=0; i<m.players.length; i++) {
+      m.players[i].isRobot = true;
+      m.players[i].smart = 1 + r % 10;
+    }
+    m.start();
+    return m;
+  }
+
+  static volatile int sink;
+
+  // hashInt() for the gate, as the AIPass does, so both runs see the same
+  // numbers and the rooms' own sequence is left alone
+  static long timeDecisions(Match[] rooms, PolicyTable t) {
+    long start = System.nanoTime();
+    int acc = 0;
+    for (int r=0; r<rooms.length; r++) {
+      Match m = rooms[r];
+      Person[] players = m.players;
+      for (int i=0; i<players.length; i++) {
+        Person p = players[i];
+        if (t != null)
+          acc += t.decide(p, m.hashInt(p.slot));
+        else if (m.hashInt(p.slot) % p.smart == 0)
+          acc += p.classicActions();
+      }
+    }
+    sink = acc;
+    return System.nanoTime() - start;
+  }
+
+  public static void main(String[] args) throws IOException {
+    String mode = args.length > 0 ? args[0] : "bench";
+    String file = args.length > 1 ? args[1] : "policy.dat";
+
+    if (mode.equals("generate")) {
+      int matches = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+      long t0 = System.currentTimeMillis();
+      PolicyTable t = generate(matches, 16);
+      FileOutputStream out = new FileOutputStream(file);
+      t.write(out);
+      out.close();
+      System.out.println("policy: wrote " + file + " (" + CELLS + " bytes) in "
+                         + (System.currentTimeMillis()-t0)/1000.0 + "s");
+      return;
+    }
+
+    PolicyTable t = load(new File(".").toURI().toURL(), file);
+    int count = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+    Match[] rooms = new Match[count];
+    for (int r=0; r<count; r++)
+      rooms[r] = room(r);
+
+    // the rooms play on; every tick each robot is decided both ways, in
+    // turns so neither always goes first. The first tenth is warmup. The
+    // median tick is reported, a tick the thread was descheduled in would
+    // swamp a sum.
+    int ticks = seconds * 1000 / Match.TICK_MS;
+    int warmup = ticks / 10;
+    long[] classic = new long[ticks - warmup];
+    long[] table = new long[ticks - warmup];
+    int perTick = 0;
+    for (int r=0; r<count; r++)
+      perTick += rooms[r].players.length;
+    for (int tick=0; tick<ticks; tick++) {
+      for (int r=0; r<count; r++)
+        rooms[r].step();
+      long a, b;
+      if (tick % 2 == 0) {
+        a = timeDecisions(rooms, null);
+        b = timeDecisions(rooms, t);
+      } else {
+        b = timeDecisions(rooms, t);
+        a = timeDecisions(rooms, null);
+      }
+      if (tick < warmup)
+        continue;
+      classic[tick - warmup] = a;
+      table[tick - warmup] = b;
+    }
+    Arrays.sort(classic);
+    Arrays.sort(table);
+    System.out.println("rooms=" + count + " decisions/tick=" + perTick
+                       + " median ns/decision classic=" + Math.round(classic[classic.length/2] * 100.0 / perTick) / 100.0
+                       + " table=" + Math.round(table[table.length/2] * 100.0 / perTick) / 100.0);
+  }
+}
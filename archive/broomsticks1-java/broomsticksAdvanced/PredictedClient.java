@@ -0,0 +1,127 @@
+//=========================================================================
+//#
+//#  PredictedClient.java
+//#
+//#  Description: a GameClient that predicts its own player (see
+//#               Prediction), over TCP
+//#
+//#  usage: java PredictedClient [seconds] [input lag in ticks]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+
+class PredictedClient extends GameClient {
+
+  public Match match;
+  public Prediction prediction;
+  public InterpolationBuffer remote;   // for drawing everyone else, null before WELCOME
+
+  PredictedClient(SocketChannel ch, Match m) throws IOException {
+    super(ch);
+    match = m;
+    prediction = new Prediction(m);
+  }
+
+  // m is set up like the room (see GameServer.setupRoom) before joining
+  public static PredictedClient connect(String host, int port, Match m) throws IOException {
+    SocketChannel ch = SocketChannel.open(new InetSocketAddress(host, port));
+    return new PredictedClient(ch, m);
+  }
+
+  protected void handle(int type, java.nio.ByteBuffer b) throws IOException {
+    super.handle(type, b);
+    if (type == GameServer.WELCOME) {
+      if (!prediction.welcome(this)) {
+        error = "room doesn't match the local setup";
+        close();
+        return;
+      }
+      remote = prediction.remote;
+    }
+  }
+
+  protected void stateReceived() {
+    prediction.received(this);
+  }
+
+  // one game tick, in place of match.step(): read the server, correct
+  // if needed, then send and simulate this tick's input
+  public void tick() throws IOException {
+    poll();
+    prediction.tick(this);
+  }
+
+  public String summary() {
+    return prediction.summary();
+  }
+
+  // -------------------------------------------------------------------
+  // against a local server: one predicted player pressing random keys.
+  // Inputs are held back a few ticks to stand in for a slower link
+
+  static class Lagged extends PredictedClient {
+    int lag;
+    int[] heldSeq, heldBits;
+
+    Lagged(SocketChannel ch, Match m, int theLag) throws IOException {
+      super(ch, m);
+      lag = theLag;
+      heldSeq = new int[Prediction.RING];
+      heldBits = new int[Prediction.RING];
+    }
+
+    public void sendInput(int s, int bits) throws IOException {
+      heldSeq[s & (Prediction.RING - 1)] = s;
+      heldBits[s & (Prediction.RING - 1)] = bits;
+      int due = s - lag;
+      if (due > 0 && heldSeq[due & (Prediction.RING - 1)] == due)
+        super.sendInput(due, heldBits[due & (Prediction.RING - 1)]);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int lag = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+
+    GameServer server = new GameServer(0);
+    Thread st = new Thread(server, "server");
+    st.start();
+
+    Match m = new Match(630, 400);
+    m.teams = false;
+    GameServer.setupRoom(m, 1);
+    SocketChannel ch = SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+    PredictedClient c = new Lagged(ch, m, lag);
+    c.join(1, false);
+
+    Random rnd = new Random(1);
+    long next = System.nanoTime();
+    long end = next + seconds * 1000000000L;
+    while (System.nanoTime() < end && !c.closed) {
+      long wait = next - System.nanoTime();
+      if (wait > 0)
+        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+      next += Match.TICK_MS * 1000000L;
+      if (c.welcomed && rnd.nextInt(4) == 0)
+        m.players[c.slot].handleAction(rnd.nextInt(4));
+      c.tick();
+    }
+    server.stop();
+    st.join();
+    if (c.error != null)
+      System.out.println("error: " + c.error);
+    System.out.println("input lag " + lag + " ticks, " + c.prediction.ticks + " ticks");
+    System.out.println(c.summary());
+    StringBuffer line = new StringBuffer("depths:");
+    int[] depths = c.prediction.depths;
+    for (int i=0; i<depths.length; i++)
+      if (depths[i] > 0)
+        line.append(" " + i + ":" + depths[i]);
+    System.out.println(line);
+  }
+}
@@ -0,0 +1,171 @@
+//=========================================================================
+//#
+//#  Prediction.java
+//#
+//#  Description: client side prediction over any GameClient transport.
+//#               The client runs the room's match itself, so the local
+//#               player moves as soon as a key is pressed. Every tick's
+//#               input and resulting state go in a ring; when a server
+//#               state disagrees with what was predicted for the same
+//#               input, the match is reset to the server's state and the
+//#               inputs since are played again
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+
+class Prediction {
+
+  static final int RING = 32;          // power of two; deeper corrections snap
+  static final float POS_SLACK = 0.5f; // px; the server state is quantized
+  static final float VEL_SLACK = 0.05f;
+
+  public Match match;
+  int slot;
+  int seq;                             // last input sent and simulated
+  int[] inputs;                        // by seq
+  NetState[] predicted;                // match after the input with that seq
+  NetState state;                      // the client's latest server state
+  boolean fresh;                       // a state came in since the last tick
+  boolean robot;                       // the seat is handed to the robot, as on the server
+  public InterpolationBuffer remote;   // for drawing everyone else, null before WELCOME
+
+  // stats
+  public long ticks, checks, rollbacks, snaps, resimTicks;
+  public int maxDepth;
+  public int[] depths;                 // rollbacks by depth
+  public LatencyHistogram resim;
+
+  // m is set up like the room (see GameServer.setupRoom) before joining
+  Prediction(Match m) {
+    match = m;
+    seq = 0;
+    inputs = new int[RING];
+    predicted = new NetState[RING];
+    fresh = false;
+    depths = new int[RING];
+    resim = new LatencyHistogram("rollback", 20, 1000);
+  }
+
+  // the client's WELCOME; false if the room isn't the local setup
+  public boolean welcome(GameClient c) {
+    if (c.players != match.players.length || c.balls != match.balls.length)
+      return false;
+    slot = c.slot;
+    for (int i=0; i<RING; i++)
+      predicted[i] = new NetState(c.players, c.balls);
+    remote = new InterpolationBuffer(c.players, c.balls);
+    match.players[slot].isRobot = false;
+    match.players[slot].forced = 0;    // keys collect here from now on
+    robot = false;
+    return true;
+  }
+
+  // from the client's stateReceived()
+  public void received(GameClient c) {
+    state = c.state;
+    fresh = true;
+    remote.add(c.frame, c.state, System.nanoTime());
+  }
+
+  // one game tick, in place of match.step(), after the client polled:
+  // correct if needed, then send and simulate this tick's input
+  public void tick(GameClient c) throws IOException {
+    if (!c.welcomed || c.closed)
+      return;
+    if (fresh) {
+      fresh = false;
+      reconcile();
+    }
+    Person me = match.players[slot];
+    int bits = me.forced & 63;
+    seq++;
+    c.shown = remote.shown;            // what the keys were pressed against
+    c.sendInput(seq, bits);
+    inputs[seq & (RING - 1)] = bits;
+    simulate(bits);
+    predicted[seq & (RING - 1)].capture(match);
+    me.forced = 0;
+    ticks++;
+  }
+
+  // the seat's input as GameServer.Room.tick() applies it
+  void simulate(int bits) {
+    Person me = match.players[slot];
+    if ((bits & (1<<Person.MODEL)) != 0)
+      me.switchModel();
+    if ((bits & (1<<Person.ROBOT)) != 0)
+      robot = !robot;
+    me.isRobot = robot;
+    me.forced = robot ? -1 : bits & 15;
+    if (match.started)
+      match.step();
+  }
+
+  void reconcile() {
+    int ack = state.ack;
+    int depth = seq - ack;
+    if (ack <= 0 || depth < 0 || depth >= RING) {
+      // nothing to compare with: take the server's word
+      state.applyTo(match);
+      robot = match.players[slot].isRobot;
+      snaps++;
+      return;
+    }
+    checks++;
+    if (agrees(predicted[ack & (RING - 1)], state))
+      return;
+
+    long t0 = System.nanoTime();
+    state.applyTo(match);
+    robot = match.players[slot].isRobot;
+    for (int k=ack+1; k<=seq; k++) {
+      simulate(inputs[k & (RING - 1)]);
+      predicted[k & (RING - 1)].capture(match);
+    }
+    match.players[slot].forced = 0;
+    resim.record(System.nanoTime() - t0);
+    rollbacks++;
+    resimTicks += depth;
+    depths[depth]++;
+    if (depth > maxDepth)
+      maxDepth = depth;
+  }
+
+  // b is the server's; what it left out of view isn't checked
+  static boolean agrees(NetState a, NetState b) {
+    int i;
+    if (a.tick != b.tick || a.score0 != b.score0 || a.score1 != b.score1
+        || a.flags != b.flags || a.winner != b.winner || a.timer != b.timer)
+      return false;
+    for (i=0; i<a.players; i++) {
+      if (!b.has(i))
+        continue;
+      if (a.model[i] != b.model[i] || a.robot[i] != b.robot[i]
+          || Math.abs(a.px[i] - b.px[i]) > POS_SLACK || Math.abs(a.py[i] - b.py[i]) > POS_SLACK
+          || Math.abs(a.pvx[i] - b.pvx[i]) > VEL_SLACK || Math.abs(a.pvy[i] - b.pvy[i]) > VEL_SLACK)
+        return false;
+    }
+    for (i=0; i<a.balls; i++) {
+      if (!b.has(a.players + i))
+        continue;
+      if (a.alive[i] != b.alive[i]
+          || Math.abs(a.bx[i] - b.bx[i]) > POS_SLACK || Math.abs(a.by[i] - b.by[i]) > POS_SLACK
+          || Math.abs(a.bvx[i] - b.bvx[i]) > VEL_SLACK || Math.abs(a.bvy[i] - b.bvy[i]) > VEL_SLACK)
+        return false;
+    }
+    return true;
+  }
+
+  public String summary() {
+    if (checks == 0)
+      return "prediction: no corrections yet";
+    double mean = rollbacks == 0 ? 0 : (double) resimTicks / rollbacks;
+    return "prediction: " + rollbacks + " rollbacks in " + checks + " checks ("
+      + Math.round(rollbacks * 1000.0 / checks) / 10.0 + "%), depth mean "
+      + Math.round(mean * 10) / 10.0 + " max " + maxDepth + ", " + snaps + " snaps; replay mean "
+      + resim.mean() / 1000 + " us max " + resim.max / 1000 + " us of a " + Match.TICK_MS + " ms tick";
+  }
+}
@@ -0,0 +1,148 @@
+//=========================================================================
+//#
+//#  RobotTuner.java
+//#
+//#  Description: plays many headless robot-vs-robot matches in parallel
+//#               and prints win rates and match lengths per skill level
+//#
+//#  usage: java RobotTuner [matches per cell] [threads] [max seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+class RobotTuner {
+
+  // robot skill: Person.move() acts when nextInt()%smart == 0
+  static final int[] SMART = { 1, 5, 10, 15, 20, 25, 30 };
+
+  // ball setups: gold balls and how evasive they are (GoldBall.smart)
+  static final int[] GOLD      = { 0, 1, 1 };
+  static final int[] GOLDSMART = { 1, 1, 5 };
+
+  int matches, maxTicks;
+
+  // [config][smart0][smart1]
+  int[][][] wins0, wins1, draws;
+  long[][][] ticks;
+
+  RobotTuner(int theMatches, int maxSeconds) {
+    matches = theMatches;
+    maxTicks = maxSeconds * 1000 / Match.TICK_MS;
+    int n = SMART.length;
+    wins0 = new int[GOLD.length][n][n];
+    wins1 = new int[GOLD.length][n][n];
+    draws = new int[GOLD.length][n][n];
+    ticks = new long[GOLD.length][n][n];
+  }
+
+  // one grid cell, run on a worker thread; cells don't share anything
+  class Cell implements Runnable {
+    int config, a, b;
+
+    Cell(int c, int i, int j) {
+      config = c;
+      a = i;
+      b = j;
+    }
+
+    public void run() {
+      for (int r=0; r<matches; r++) {
+        Match m = new Match(630, 400);
+        m.goldBalls = GOLD[config];
+        m.goldTicks = 60 * 1000 / Match.TICK_MS;
+        m.setSeed(((long) config << 48) ^ ((long) a << 40) ^ ((long) b << 32) ^ r);
+        m.setup();
+        for (int k=0; k<m.goldBalls; k++)
+          m.balls[m.redBalls+m.blackBalls+k].smart = GOLDSMART[config];
+        m.players[0].isRobot = true;
+        m.players[0].smart = SMART[a];
+        m.players[1].isRobot = true;
+        m.players[1].smart = SMART[b];
+
+        m.start();
+        while (m.started && m.tick < maxTicks)
+          m.step();
+
+        int w = m.winner;
+        if (w < 0 && m.teamScore[0] != m.teamScore[1])
+          w = m.teamScore[0] > m.teamScore[1] ? 0 : 1;
+        if (w == 0)
+          wins0[config][a][b]++;
+        else if (w == 1)
+          wins1[config][a][b]++;
+        else
+          draws[config][a][b]++;
+        ticks[config][a][b] += m.tick;
+      }
+    }
+  }
+
+  public void run(int threads) throws InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (int c=0; c<GOLD.length; c++)
+      for (int i=0; i<SMART.length; i++)
+        for (int j=0; j<SMART.length; j++)
+          pool.execute(new Cell(c, i, j));
+    pool.shutdown();
+    pool.awaitTermination(1, TimeUnit.DAYS);
+  }
+
+  public void print() {
+    for (int c=0; c<GOLD.length; c++) {
+      System.out.println();
+      System.out.println("# gold=" + GOLD[c] + " goldsmart=" + GOLDSMART[c]
+                         + " matches/cell=" + matches + " timeout_s=" + maxTicks * Match.TICK_MS / 1000);
+      System.out.println("# win rate of robot 0 (rows: robot 0 smart, cols: robot 1 smart), draws count half");
+      header();
+      for (int i=0; i<SMART.length; i++) {
+        StringBuffer sb = new StringBuffer(pad("" + SMART[i]));
+        for (int j=0; j<SMART.length; j++) {
+          double rate = (wins0[c][i][j] + 0.5 * draws[c][i][j]) / matches;
+          sb.append(pad("" + Math.round(rate * 100) / 100.0));
+        }
+        System.out.println(sb.toString());
+      }
+      System.out.println("# mean match length in seconds");
+      header();
+      for (int i=0; i<SMART.length; i++) {
+        StringBuffer sb = new StringBuffer(pad("" + SMART[i]));
+        for (int j=0; j<SMART.length; j++) {
+          long secs = ticks[c][i][j] * Match.TICK_MS / 1000 / matches;
+          sb.append(pad("" + secs));
+        }
+        System.out.println(sb.toString());
+      }
+    }
+  }
+
+  void header() {
+    StringBuffer sb = new StringBuffer(pad("smart"));
+    for (int j=0; j<SMART.length; j++)
+      sb.append(pad("" + SMART[j]));
+    System.out.println(sb.toString());
+  }
+
+  static String pad(String s) {
+    while (s.length() < 8)
+      s = s + " ";
+    return s;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int matches = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int maxSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+
+    RobotTuner tuner = new RobotTuner(matches, maxSeconds);
+    long t0 = System.currentTimeMillis();
+    tuner.run(threads);
+    long t1 = System.currentTimeMillis();
+    tuner.print();
+    System.out.println();
+    System.out.println("# " + GOLD.length * SMART.length * SMART.length * matches
+                       + " matches on " + threads + " threads in " + (t1-t0)/1000.0 + "s");
+  }
+}
@@ -0,0 +1,176 @@
+//=========================================================================
+//#
+//#  SkyCache.java
+//#
+//#  Description: loads and scales sky backgrounds on a background thread
+//#               and keeps the most recently used few in a bounded cache
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.net.*;
+
+class SkyCache implements Runnable {
+
+  Component owner;
+  URL base;
+  String[] names;     // slot -> image path, null for the plain sky
+  int width, height;
+
+  Image[] ready;      // scaled and fully decoded, null if not cached
+  boolean[] failed;   // image missing or broken, don't retry
+  long[] lastUsed;
+  long useCount;
+  int capacity;
+
+  int[] pending;      // FIFO of slots to load
+  int pendingHead, pendingCount;
+
+  Thread thread;
+
+  SkyCache(Component c, URL codeBase, String[] skyNames, int w, int h, int cap) {
+    owner = c;
+    base = codeBase;
+    names = skyNames;
+    width = w;
+    height = h;
+    capacity = cap;
+    ready = new Image[names.length];
+    failed = new boolean[names.length];
+    lastUsed = new long[names.length];
+    pending = new int[names.length];
+    pendingHead = 0;
+    pendingCount = 0;
+    useCount = 0;
+    thread = null;
+  }
+
+  public synchronized void start() {
+    if (thread == null) {
+      thread = new Thread(this, "sky loader");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      thread.start();
+    }
+  }
+
+  public synchronized void stop() {
+    thread = null;
+    notifyAll();
+  }
+
+  // Never blocks on I/O: returns the scaled sky if it is cached, otherwise
+  // queues it and returns null so the caller can draw the plain sky.
+  public synchronized Image get(int slot) {
+    if (slot <= 0 || slot >= names.length || names[slot] == null)
+      return null;
+    Image im = ready[slot];
+    if (im != null)
+      lastUsed[slot] = ++useCount;
+    else
+      request(slot);
+    return im;
+  }
+
+  public synchronized void prefetch(int slot) {
+    if (slot <= 0 || slot >= names.length || names[slot] == null)
+      return;
+    if (ready[slot] == null)
+      request(slot);
+    else
+      lastUsed[slot] = ++useCount;
+  }
+
+  void request(int slot) {
+    if (failed[slot])
+      return;
+    for (int i=0; i<pendingCount; i++)
+      if (pending[(pendingHead+i) % pending.length] == slot)
+        return;
+    pending[(pendingHead+pendingCount) % pending.length] = slot;
+    pendingCount++;
+    notifyAll();
+  }
+
+  synchronized int nextRequest() throws InterruptedException {
+    while (pendingCount == 0 && thread == Thread.currentThread())
+      wait();
+    if (thread != Thread.currentThread())
+      return -1;
+    int slot = pending[pendingHead];
+    pendingHead = (pendingHead+1) % pending.length;
+    pendingCount--;
+    return slot;
+  }
+
+  synchronized void publish(int slot, Image im) {
+    if (im == null) {
+      failed[slot] = true;
+      return;
+    }
+    if (ready[slot] != null) {
+      im.flush();
+      return;
+    }
+    // make room by evicting the least recently used skies
+    int cached = 0;
+    for (int i=0; i<ready.length; i++)
+      if (ready[i] != null)
+        cached++;
+    while (cached >= capacity) {
+      int lru = -1;
+      for (int i=0; i<ready.length; i++)
+        if (ready[i] != null && (lru < 0 || lastUsed[i] < lastUsed[lru]))
+          lru = i;
+      ready[lru].flush();
+      ready[lru] = null;
+      cached--;
+    }
+    ready[slot] = im;
+    lastUsed[slot] = ++useCount;
+  }
+
+  public void run() {
+    try {
+      while (true) {
+        int slot = nextRequest();
+        if (slot < 0)
+          break;
+        publish(slot, load(names[slot]));
+      }
+    } catch (InterruptedException e) { }
+  }
+
+  // decode and scale into a buffered image so drawing it is a plain blit
+  Image load(String name) throws InterruptedException {
+    Image src;
+    try {
+      src = Toolkit.getDefaultToolkit().getImage(new URL(base, name));
+    } catch (MalformedURLException e) {
+      System.out.println("sky: bad name " + name);
+      return null;
+    }
+    MediaTracker t = new MediaTracker(owner);
+    t.addImage(src, 0);
+    t.waitForID(0);
+    if (t.isErrorID(0)) {
+      System.out.println("sky: could not load " + name);
+      src.flush();
+      return null;
+    }
+
+    Image scaled = src.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING);
+    t.addImage(scaled, 1);
+    t.waitForID(1);
+    BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics g = out.getGraphics();
+    g.drawImage(scaled, 0, 0, null);
+    g.dispose();
+    scaled.flush();
+    src.flush();
+    return out;
+  }
+}
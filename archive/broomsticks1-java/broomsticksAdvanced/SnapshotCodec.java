@@ -0,0 +1,447 @@
+//=========================================================================
+//#
+//#  SnapshotCodec.java
+//#
+//#  Description: compact STATE encoding. A NetState is quantized to
+//#               ints (1/64 px), and each field is sent as a bit packed
+//#               delta against a snapshot the receiver already has, or
+//#               against zero for a keyframe. Positions are predicted
+//#               from the baseline and the new velocity first, so a
+//#               player in free flight costs a few bits. Both ends keep
+//#               the last HISTORY snapshots by frame number so they
+//#               agree on the baseline. With an interest mask only some
+//#               players and balls are sent; one entering the mask is
+//#               sent whole, one leaving costs a bit
+//#
+//#  usage: java SnapshotCodec [ticks]
+//#
+//#  Header: frame:int age:byte (frames back to the base, 0 = keyframe,
+//#          +128 when masked) ack:int tick:int seed:long
+//#  then one code per field: 0 = unchanged, 10 + 4 bits, 110 + 8,
+//#  1110 + 12, 11110 + 16, 11111 + 32 bits of zigzag delta. Masked,
+//#  each player and ball starts with a bit saying whether it's there
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.nio.*;
+
+class SnapshotCodec {
+
+  static final int HISTORY = 32;       // power of two
+  static final float SCALE = 64;
+  static final int HEADER = 21;
+  static final int ACK_OFFSET = 5;     // from the start of the header
+  static final int MASKED = 128;
+
+  // field layout of a quantized snapshot
+  static final int MATCH_FIELDS = 5;   // score0 score1 flags winner timer
+  static final int PLAYER_FIELDS = 7;  // vx vy x y model side robot
+  static final int BALL_FIELDS = 5;    // alive vx vy x y
+
+  int players, balls, fields;
+  int[][] history;
+  int[] historyFrame;
+  int[] zero;
+  int[] velocity;                      // for a position field, its velocity field, else -1
+
+  // players then balls; entity e has fields first[e]..first[e+1]
+  public int entities, words;
+  int[] first;
+  long[][] historyMask;                // receiver: who was in each snapshot held
+
+  // stats
+  public long encodes, keyframes, bytesOut;
+
+  SnapshotCodec(int thePlayers, int theBalls) {
+    players = thePlayers;
+    balls = theBalls;
+    fields = MATCH_FIELDS + players * PLAYER_FIELDS + balls * BALL_FIELDS;
+    history = new int[HISTORY][fields];
+    historyFrame = new int[HISTORY];
+    Arrays.fill(historyFrame, -1);
+    zero = new int[fields];
+    entities = players + balls;
+    words = (entities + 63) >> 6;
+    first = new int[entities + 1];
+    for (int e=0; e<=entities; e++)
+      first[e] = e <= players ? MATCH_FIELDS + e * PLAYER_FIELDS
+        : MATCH_FIELDS + players * PLAYER_FIELDS + (e - players) * BALL_FIELDS;
+    historyMask = new long[HISTORY][words];
+    velocity = new int[fields];
+    Arrays.fill(velocity, -1);
+    int i, k = MATCH_FIELDS;
+    for (i=0; i<players; i++, k+=PLAYER_FIELDS) {
+      velocity[k + 2] = k;
+      velocity[k + 3] = k + 1;
+    }
+    for (i=0; i<balls; i++, k+=BALL_FIELDS) {
+      velocity[k + 3] = k + 1;
+      velocity[k + 4] = k + 2;
+    }
+  }
+
+  // worst case, header included
+  public int maxSize() {
+    return HEADER + (fields * 37 + 7) / 8;
+  }
+
+  static int q(float v) {
+    return Math.round(v * SCALE);
+  }
+
+  void quantize(NetState s, int[] d) {
+    int i, k = 0;
+    d[k++] = s.score0;
+    d[k++] = s.score1;
+    d[k++] = s.flags;
+    d[k++] = s.winner;
+    d[k++] = s.timer;
+    for (i=0; i<players; i++) {
+      d[k++] = q(s.pvx[i]);
+      d[k++] = q(s.pvy[i]);
+      d[k++] = q(s.px[i]);
+      d[k++] = q(s.py[i]);
+      d[k++] = s.model[i];
+      d[k++] = s.side[i];
+      d[k++] = s.robot[i];
+    }
+    for (i=0; i<balls; i++) {
+      d[k++] = s.alive[i];
+      d[k++] = q(s.bvx[i]);
+      d[k++] = q(s.bvy[i]);
+      d[k++] = q(s.bx[i]);
+      d[k++] = q(s.by[i]);
+    }
+  }
+
+  static boolean has(long[] mask, int e) {
+    return (mask[e >> 6] & (1L << e)) != 0;
+  }
+
+  // entities not in mask keep what s had
+  void dequantize(int[] d, NetState s, long[] mask) {
+    int i, k = 0;
+    s.score0 = d[k++];
+    s.score1 = d[k++];
+    s.flags = d[k++];
+    s.winner = d[k++];
+    s.timer = d[k++];
+    for (i=0; i<players; i++) {
+      if (!has(mask, i)) {
+        k += PLAYER_FIELDS;
+        continue;
+      }
+      s.pvx[i] = d[k++] / SCALE;
+      s.pvy[i] = d[k++] / SCALE;
+      s.px[i] = d[k++] / SCALE;
+      s.py[i] = d[k++] / SCALE;
+      s.model[i] = (byte) d[k++];
+      s.side[i] = (byte) d[k++];
+      s.robot[i] = (byte) d[k++];
+    }
+    for (i=0; i<balls; i++) {
+      if (!has(mask, players + i)) {
+        k += BALL_FIELDS;
+        continue;
+      }
+      s.alive[i] = (byte) d[k++];
+      s.bvx[i] = d[k++] / SCALE;
+      s.bvy[i] = d[k++] / SCALE;
+      s.bx[i] = d[k++] / SCALE;
+      s.by[i] = d[k++] / SCALE;
+    }
+  }
+
+  // the sender keeps every snapshot it sends; frame numbers only go up
+  public void store(NetState s, int frame) {
+    int slot = frame & (HISTORY - 1);
+    quantize(s, history[slot]);
+    historyFrame[slot] = frame;
+  }
+
+  // true if base can be used for frame: still held and not too old
+  public boolean hasBaseline(int base, int frame) {
+    return base >= 0 && base < frame && frame - base < HISTORY
+      && historyFrame[base & (HISTORY - 1)] == base;
+  }
+
+  // frame must have been stored; base is -1 or a frame the receiver acked
+  public void encode(int frame, int base, NetState s, ByteBuffer out) {
+    encode(frame, base, s, out, null, null);
+  }
+
+  // mask: the players and balls to send, null for all of them. baseMask:
+  // the ones the receiver got in the base frame. A receiver gets either
+  // masked snapshots or whole ones, not a mix
+  public void encode(int frame, int base, NetState s, ByteBuffer out, long[] mask, long[] baseMask) {
+    int start = out.position();
+    int[] cur = history[frame & (HISTORY - 1)];
+    int[] ref = zero;
+    int age = 0;
+    if (hasBaseline(base, frame)) {
+      ref = history[base & (HISTORY - 1)];
+      age = frame - base;
+    } else
+      keyframes++;
+    out.putInt(frame);
+    out.put((byte) (age | (mask != null ? MASKED : 0)));
+    out.putInt(s.ack);
+    out.putInt(s.tick);
+    out.putLong(s.seed);
+    BitWriter w = writer;
+    w.begin(out);
+    put(w, cur, ref, age, 0, MATCH_FIELDS);
+    for (int e=0; e<entities; e++) {
+      if (mask == null)
+        put(w, cur, ref, age, first[e], first[e+1]);
+      else if (!has(mask, e))
+        w.write(0, 1);
+      else {
+        w.write(1, 1);
+        if (age > 0 && has(baseMask, e))
+          put(w, cur, ref, age, first[e], first[e+1]);
+        else
+          put(w, cur, zero, 0, first[e], first[e+1]);  // entering: whole
+      }
+    }
+    w.end();
+    encodes++;
+    bytesOut += out.position() - start;
+  }
+
+  void put(BitWriter w, int[] cur, int[] ref, int age, int from, int to) {
+    for (int f=from; f<to; f++) {
+      int guess = ref[f];
+      if (age > 0 && velocity[f] >= 0)
+        guess += cur[velocity[f]] * age;
+      w.delta(cur[f] - guess);
+    }
+  }
+
+  void get(BitReader r, int[] cur, int[] ref, int age, int from, int to) {
+    for (int f=from; f<to; f++) {
+      int guess = ref[f];
+      if (age > 0 && velocity[f] >= 0)
+        guess += cur[velocity[f]] * age;
+      cur[f] = guess + r.delta();
+    }
+  }
+
+  // fills s and remembers the frame; false if the baseline is gone, in
+  // which case the receiver should ack -1 to get a keyframe. Players
+  // and balls left out keep their old values in s, and are not in
+  // s.present
+  public boolean decode(ByteBuffer in, NetState s) {
+    int frame = in.getInt();
+    int flags = in.get() & 0xff;
+    int age = flags & ~MASKED;
+    boolean masked = (flags & MASKED) != 0;
+    int[] ref = zero;
+    long[] baseMask = null;
+    if (age > 0) {
+      int base = frame - age;
+      if (historyFrame[base & (HISTORY - 1)] != base)
+        return false;
+      ref = history[base & (HISTORY - 1)];
+      baseMask = historyMask[base & (HISTORY - 1)];
+    }
+    int slot = frame & (HISTORY - 1);
+    int[] cur = history[slot];
+    long[] mask = historyMask[slot];
+    s.ack = in.getInt();
+    s.tick = in.getInt();
+    s.seed = in.getLong();
+    BitReader r = reader;
+    r.begin(in);
+    get(r, cur, ref, age, 0, MATCH_FIELDS);
+    Arrays.fill(mask, 0);
+    for (int e=0; e<entities; e++) {
+      if (!masked)
+        get(r, cur, ref, age, first[e], first[e+1]);
+      else if (r.read(1) == 0)
+        continue;
+      else if (age > 0 && has(baseMask, e))
+        get(r, cur, ref, age, first[e], first[e+1]);
+      else
+        get(r, cur, zero, 0, first[e], first[e+1]);
+      mask[e >> 6] |= 1L << e;
+    }
+    historyFrame[slot] = frame;
+    System.arraycopy(mask, 0, s.present, 0, words);
+    dequantize(cur, s, mask);
+    return true;
+  }
+
+  public String summary() {
+    if (encodes == 0)
+      return "snapshots: none";
+    return "snapshots: " + encodes + " sent, " + keyframes + " keyframes, "
+      + Math.round(bytesOut * 10.0 / encodes) / 10.0 + " bytes avg";
+  }
+
+  // -------------------------------------------------------------------
+  // bits, most significant first
+
+  BitWriter writer = new BitWriter();
+  BitReader reader = new BitReader();
+
+  static class BitWriter {
+    ByteBuffer buf;
+    long acc;
+    int n;
+
+    void begin(ByteBuffer b) {
+      buf = b;
+      acc = 0;
+      n = 0;
+    }
+
+    void write(int value, int bits) {
+      acc = (acc << bits) | (value & ((1L << bits) - 1));
+      n += bits;
+      while (n >= 8) {
+        n -= 8;
+        buf.put((byte) (acc >>> n));
+      }
+    }
+
+    void delta(int d) {
+      if (d == 0) {
+        write(0, 1);
+        return;
+      }
+      int z = (d << 1) ^ (d >> 31);
+      if ((z >>> 4) == 0)
+        write((0x2 << 4) | z, 6);
+      else if ((z >>> 8) == 0)
+        write((0x6 << 8) | z, 11);
+      else if ((z >>> 12) == 0)
+        write((0xe << 12) | z, 16);
+      else if ((z >>> 16) == 0)
+        write((0x1e << 16) | z, 21);
+      else {
+        write(0x1f, 5);
+        write(z, 32);
+      }
+    }
+
+    void end() {
+      if (n > 0)
+        buf.put((byte) (acc << (8 - n)));
+      buf = null;
+    }
+  }
+
+  static class BitReader {
+    ByteBuffer buf;
+    long acc;
+    int n;
+
+    void begin(ByteBuffer b) {
+      buf = b;
+      acc = 0;
+      n = 0;
+    }
+
+    int read(int bits) {
+      while (n < bits) {
+        acc = (acc << 8) | (buf.get() & 0xff);
+        n += 8;
+      }
+      n -= bits;
+      return (int) ((acc >>> n) & ((1L << bits) - 1));
+    }
+
+    int delta() {
+      if (read(1) == 0)
+        return 0;
+      int z;
+      if (read(1) == 0)
+        z = read(4);
+      else if (read(1) == 0)
+        z = read(8);
+      else if (read(1) == 0)
+        z = read(12);
+      else if (read(1) == 0)
+        z = read(16);
+      else
+        z = read(32);
+      return (z >>> 1) ^ -(z & 1);
+    }
+  }
+
+  // -------------------------------------------------------------------
+  // bench: robot matches, encoded every tick against the tick before,
+  // against an ack 4 ticks old (~120 ms round trip) and as keyframes
+
+  static int[] LAGS = { 1, 4, 0 };
+
+  public static void main(String[] args) {
+    int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    bench(false, ticks);
+    bench(true, ticks);
+  }
+
+  static void bench(boolean teams, int ticks) {
+    Match m = new Match(630, 400);
+    m.teams = teams;
+    m.setSeed(7);
+    m.setup();
+    for (int i=0; i<m.players.length; i++) {
+      m.players[i].isRobot = true;
+      m.players[i].smart = 5;
+    }
+    m.start();
+    NetState s = new NetState(m.players.length, m.balls.length);
+    NetState got = new NetState(m.players.length, m.balls.length);
+    SnapshotCodec server = new SnapshotCodec(s.players, s.balls);
+    SnapshotCodec[] client = new SnapshotCodec[LAGS.length];
+    ByteBuffer out = ByteBuffer.allocateDirect(server.maxSize());
+    int[] want = new int[server.fields], check = new int[server.fields];
+    long[] bytes = new long[LAGS.length], nanos = new long[LAGS.length];
+    int j, frame, errors = 0, measured = 0;
+    for (j=0; j<LAGS.length; j++)
+      client[j] = new SnapshotCodec(s.players, s.balls);
+
+    for (frame=0; frame<ticks; frame++) {
+      if (m.started)
+        m.step();
+      else
+        m.start();
+      s.capture(m);
+      server.store(s, frame);
+      server.quantize(s, want);
+      boolean measure = frame >= ticks / 10;
+      for (j=0; j<LAGS.length; j++) {
+        int base = LAGS[j] == 0 ? -1 : frame - LAGS[j];
+        out.clear();
+        long t0 = System.nanoTime();
+        server.encode(frame, base, s, out);
+        long t1 = System.nanoTime();
+        if (measure) {
+          bytes[j] += out.position();
+          nanos[j] += t1 - t0;
+        }
+        out.flip();
+        if (!client[j].decode(out, got)) {
+          // a receiver that hasn't got the baseline yet
+          continue;
+        }
+        client[j].quantize(got, check);
+        if (!Arrays.equals(check, want))
+          errors++;
+      }
+      if (measure)
+        measured++;
+    }
+
+    System.out.println((teams ? "2v2" : "1v1") + " players=" + s.players + " balls=" + s.balls
+                       + " plain=" + s.size() + " bytes/tick, decode errors=" + errors);
+    for (j=0; j<LAGS.length; j++)
+      System.out.println("  " + (LAGS[j] == 0 ? "keyframe" : "ack -" + LAGS[j])
+                         + ": " + Math.round(bytes[j] * 10.0 / measured) / 10.0 + " bytes/tick, "
+                         + nanos[j] / measured + " ns/encode");
+  }
+}
@@ -0,0 +1,61 @@
+//=========================================================================
+//#
+//#  SoundEvents.java
+//#
+//#  Description: collects the sound requests made during one game tick,
+//#               drops duplicates and rate limits each clip
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class SoundEvents {
+
+  SoundMixer mixer;
+  int tick;
+  long[] emitters;     // per clip, bit per emitter that asked this tick
+  int[] minTicks;      // per clip, ticks between two plays
+  int[] nextTick;      // per clip, first tick it may play again
+
+  public int requested, played, limited;
+
+  SoundEvents(SoundMixer m, int clips) {
+    mixer = m;
+    tick = 0;
+    emitters = new long[clips];
+    minTicks = new int[clips];
+    nextTick = new int[clips];
+    requested = 0;
+    played = 0;
+    limited = 0;
+  }
+
+  public void setRateLimit(int clip, int ticks) {
+    minTicks[clip] = ticks;
+  }
+
+  // called any number of times per tick, only sets a bit
+  public void request(int clip, int emitter) {
+    emitters[clip] |= 1L << (emitter & 63);
+    requested++;
+  }
+
+  // called once at the end of every tick: at most one play per clip, no
+  // matter how many players collided
+  public void endTick() {
+    for (int c=0; c<emitters.length; c++) {
+      if (emitters[c] == 0)
+        continue;
+      emitters[c] = 0;
+      if (tick < nextTick[c]) {
+        limited++;
+        continue;
+      }
+      nextTick[c] = tick + minTicks[c];
+      mixer.play(c);
+      played++;
+    }
+    tick++;
+  }
+}
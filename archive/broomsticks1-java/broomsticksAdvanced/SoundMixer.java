@@ -0,0 +1,251 @@
+//=========================================================================
+//#
+//#  SoundMixer.java
+//#
+//#  Description: software mixer on its own thread, fed by a lock-free
+//#               queue so the game thread never blocks on audio
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.net.*;
+import java.io.*;
+import javax.sound.sampled.*;
+
+class SoundMixer implements Runnable {
+
+  static final float RATE = 22050f;
+  static final int PERIOD = 256;     // frames mixed per write (~12ms)
+  static final int LINE_PERIODS = 3; // line buffer size, bounds the latency
+  static final int VOICES = 8;
+  static final int QUEUE = 64;       // power of two
+
+  URL base;
+  String[] names;
+  short[][] pcm;                     // preloaded clips at RATE, mono
+
+  // bounded multi-producer queue of clip ids (see play())
+  AtomicLong tail;
+  long head;                         // only touched by the mixer thread
+  AtomicLongArray seq;
+  int[] cmdClip;
+  long[] cmdTime;
+  int dropped;
+
+  // voice pool, only touched by the mixer thread
+  int[] voiceClip;                   // -1 if free
+  int[] voicePos;
+  int stolen;
+
+  // command latency: play() until the sample reaches the speaker
+  long latencyCount, latencyTotal, latencyMax;
+  long bufferNanos;
+
+  SourceDataLine line;
+  volatile Thread thread;
+
+  SoundMixer(URL codeBase, String[] clipNames) {
+    base = codeBase;
+    names = clipNames;
+    pcm = new short[names.length][];
+
+    tail = new AtomicLong(0);
+    head = 0;
+    seq = new AtomicLongArray(QUEUE);
+    for (int i=0; i<QUEUE; i++)
+      seq.set(i, i);
+    cmdClip = new int[QUEUE];
+    cmdTime = new long[QUEUE];
+
+    voiceClip = new int[VOICES];
+    voicePos = new int[VOICES];
+    for (int i=0; i<VOICES; i++)
+      voiceClip[i] = -1;
+
+    thread = null;
+  }
+
+  public void start() {
+    if (thread == null) {
+      thread = new Thread(this, "sound mixer");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MAX_PRIORITY);
+      thread.start();
+    }
+  }
+
+  public void stop() {
+    thread = null;
+  }
+
+  // Safe to call from any thread, never blocks. Each slot carries a
+  // sequence number: a producer claims the slot at tail with a CAS, fills
+  // it and then publishes it by bumping the sequence. If the mixer has
+  // fallen a whole queue behind the request is dropped.
+  public boolean play(int clip) {
+    while (true) {
+      long t = tail.get();
+      int i = (int) t & (QUEUE-1);
+      long s = seq.get(i);
+      if (s < t) {
+        dropped++;
+        return false;
+      }
+      if (s == t && tail.compareAndSet(t, t+1)) {
+        cmdClip[i] = clip;
+        cmdTime[i] = System.nanoTime();
+        seq.set(i, t+1);
+        return true;
+      }
+    }
+  }
+
+  public void run() {
+    for (int c=0; c<names.length; c++)
+      pcm[c] = load(names[c]);
+
+    AudioFormat fmt = new AudioFormat(RATE, 16, 1, true, false);
+    try {
+      line = AudioSystem.getSourceDataLine(fmt);
+      line.open(fmt, PERIOD * LINE_PERIODS * 2);
+    } catch (Exception e) {
+      System.out.println("sound: no audio line, sound disabled (" + e + ")");
+      return;
+    }
+    bufferNanos = (long) (line.getBufferSize() / 2 * 1e9 / RATE);
+    line.start();
+    System.out.println("sound: mixer started, buffer " + line.getBufferSize()/2 + " frames");
+
+    int[] mix = new int[PERIOD];
+    byte[] out = new byte[PERIOD * 2];
+    while (thread == Thread.currentThread()) {
+      drainCommands();
+      mixPeriod(mix, out);
+      line.write(out, 0, out.length); // blocks until there is room
+    }
+    line.drain();
+    line.close();
+    System.out.println("sound: " + latencyReport());
+  }
+
+  void drainCommands() {
+    // audio queued in the line ahead of the block we are about to mix
+    long queued = (long) ((line.getBufferSize() - line.available()) / 2 * 1e9 / RATE);
+    long now = System.nanoTime();
+    while (true) {
+      int i = (int) head & (QUEUE-1);
+      if (seq.get(i) != head+1)
+        break;
+      int clip = cmdClip[i];
+      long lat = now - cmdTime[i] + queued;
+      seq.set(i, head+QUEUE);
+      head++;
+
+      latencyCount++;
+      latencyTotal += lat;
+      if (lat > latencyMax)
+        latencyMax = lat;
+      if (clip >= 0 && clip < pcm.length && pcm[clip] != null)
+        startVoice(clip);
+    }
+  }
+
+  void startVoice(int clip) {
+    int v = -1;
+    for (int i=0; i<VOICES; i++)
+      if (voiceClip[i] < 0) {
+        v = i;
+        break;
+      }
+    if (v < 0) {
+      // all busy: steal the voice that has played the longest
+      v = 0;
+      for (int i=1; i<VOICES; i++)
+        if (voicePos[i] > voicePos[v])
+          v = i;
+      stolen++;
+    }
+    voiceClip[v] = clip;
+    voicePos[v] = 0;
+  }
+
+  void mixPeriod(int[] mix, byte[] out) {
+    int i;
+    for (i=0; i<PERIOD; i++)
+      mix[i] = 0;
+    for (int v=0; v<VOICES; v++) {
+      if (voiceClip[v] < 0)
+        continue;
+      short[] s = pcm[voiceClip[v]];
+      int pos = voicePos[v];
+      int n = Math.min(PERIOD, s.length - pos);
+      for (i=0; i<n; i++)
+        mix[i] += s[pos+i];
+      voicePos[v] = pos + n;
+      if (voicePos[v] >= s.length)
+        voiceClip[v] = -1;
+    }
+    for (i=0; i<PERIOD; i++) {
+      int m = mix[i];
+      if (m > 32767) m = 32767;
+      if (m < -32768) m = -32768;
+      out[2*i] = (byte) m;
+      out[2*i+1] = (byte) (m >> 8);
+    }
+  }
+
+  // decode to 16 bit mono and resample to RATE once, up front
+  short[] load(String name) {
+    try {
+      AudioInputStream in = AudioSystem.getAudioInputStream(new URL(base, name));
+      AudioFormat src = in.getFormat();
+      AudioFormat pcmFmt = new AudioFormat(src.getSampleRate(), 16, src.getChannels(), true, false);
+      AudioInputStream pcmIn = AudioSystem.getAudioInputStream(pcmFmt, in);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = pcmIn.read(buf)) > 0)
+        bytes.write(buf, 0, n);
+      pcmIn.close();
+      byte[] b = bytes.toByteArray();
+
+      int ch = src.getChannels();
+      int frames = b.length / (2*ch);
+      short[] mono = new short[frames];
+      for (int f=0; f<frames; f++) {
+        int sum = 0;
+        for (int c=0; c<ch; c++) {
+          int k = 2*(f*ch + c);
+          sum += (short) ((b[k] & 0xff) | (b[k+1] << 8));
+        }
+        mono[f] = (short) (sum / ch);
+      }
+
+      double step = src.getSampleRate() / RATE;
+      int len = (int) (frames / step);
+      short[] out = new short[len];
+      for (int f=0; f<len; f++) {
+        double p = f * step;
+        int k = (int) p;
+        double frac = p - k;
+        int a = mono[k];
+        int c = (k+1 < frames) ? mono[k+1] : a;
+        out[f] = (short) (a + (c - a) * frac);
+      }
+      return out;
+    } catch (Exception e) {
+      System.out.println("sound: could not load " + name + " (" + e + ")");
+      return null;
+    }
+  }
+
+  public String latencyReport() {
+    long avg = latencyCount > 0 ? latencyTotal / latencyCount : 0;
+    return "plays=" + latencyCount + " avg_ms=" + avg/1000000.0
+      + " max_ms=" + latencyMax/1000000.0 + " bound_ms=" + (bufferNanos + (long) (PERIOD * 1e9 / RATE))/1000000.0
+      + " stolen=" + stolen + " dropped=" + dropped;
+  }
+}
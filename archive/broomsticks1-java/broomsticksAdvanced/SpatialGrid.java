@@ -0,0 +1,222 @@
+//=========================================================================
+//#
+//#  SpatialGrid.java
+//#
+//#  Description: uniform grid over the players (or balls), rebuilt once
+//#               per tick, answering "k nearest players within range"
+//#               for the gold ball AI and "everything in the cells
+//#               around here" for interest management
+//#
+//#  usage: java SpatialGrid [players] [gold balls] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class SpatialGrid {
+
+  int cellSize, cols, rows;
+
+  // players of cell c are items[start[c]..start[c+1]), in index order
+  int[] start, next, items, cellOf;
+  float[] px, py;                 // player positions at rebuild()
+  int n;
+
+  // k nearest scratch, sorted by distance
+  int[] bestIdx;
+  float[] bestDist;
+
+  // stats
+  public long ticks, queries, visited, nanos, maxNanos;
+
+  SpatialGrid(int width, int height, int theCellSize) {
+    cellSize = theCellSize;
+    cols = (width + cellSize - 1) / cellSize;
+    rows = (height + cellSize - 1) / cellSize;
+    start = new int[cols*rows + 1];
+    next = new int[cols*rows];
+    items = new int[0];
+    cellOf = new int[0];
+    px = new float[0];
+    py = new float[0];
+    bestIdx = new int[0];
+    bestDist = new float[0];
+    n = 0;
+  }
+
+  int col(float x) {
+    int c = (int) x / cellSize;
+    return c < 0 ? 0 : (c >= cols ? cols-1 : c);
+  }
+
+  int row(float y) {
+    int r = (int) y / cellSize;
+    return r < 0 ? 0 : (r >= rows ? rows-1 : r);
+  }
+
+  // counting sort of the players into their cells
+  public void rebuild(FlyingObject[] players) {
+    int i;
+    n = players.length;
+    if (items.length < n) {
+      items = new int[n];
+      cellOf = new int[n];
+      px = new float[n];
+      py = new float[n];
+    }
+    for (i=0; i<start.length; i++)
+      start[i] = 0;
+    for (i=0; i<n; i++) {
+      px[i] = players[i].x;
+      py[i] = players[i].y;
+      cellOf[i] = row(py[i]) * cols + col(px[i]);
+      start[cellOf[i] + 1]++;
+    }
+    for (i=0; i<cols*rows; i++)
+      start[i+1] += start[i];
+    // filling each cell from its end backwards keeps it in index order
+    for (i=0; i<cols*rows; i++)
+      next[i] = start[i+1];
+    for (i=n-1; i>=0; i--)
+      items[--next[cellOf[i]]] = i;
+  }
+
+  // Writes into out the players with |dx| < range and |dy| < range of
+  // (x, y), at most k of them, the nearest ones if there are more. They
+  // come out in index order, the order a scan over all players would
+  // find them in. Returns how many.
+  public int near(float x, float y, int range, int k, int[] out) {
+    queries++;
+    if (bestIdx.length < k) {
+      bestIdx = new int[k];
+      bestDist = new float[k];
+    }
+    int found = 0;
+    int c0 = col(x - range), c1 = col(x + range);
+    int r0 = row(y - range), r1 = row(y + range);
+    for (int r=r0; r<=r1; r++) {
+      for (int c=c0; c<=c1; c++) {
+        int cell = r * cols + c;
+        for (int s=start[cell]; s<start[cell+1]; s++) {
+          int j = items[s];
+          visited++;
+          int dx = (int) (x - px[j]);
+          int dy = (int) (y - py[j]);
+          if (Math.abs(dx) >= range || Math.abs(dy) >= range)
+            continue;
+          float d = (float) dx*dx + (float) dy*dy;
+          if (found == k && d >= bestDist[k-1])
+            continue;
+          // insert by distance, dropping the farthest when full
+          int at = (found < k) ? found++ : k-1;
+          while (at > 0 && bestDist[at-1] > d) {
+            bestDist[at] = bestDist[at-1];
+            bestIdx[at] = bestIdx[at-1];
+            at--;
+          }
+          bestDist[at] = d;
+          bestIdx[at] = j;
+        }
+      }
+    }
+    // back to index order
+    for (int i=0; i<found; i++) {
+      int j = bestIdx[i];
+      int at = i;
+      while (at > 0 && out[at-1] > j) {
+        out[at] = out[at-1];
+        at--;
+      }
+      out[at] = j;
+    }
+    return found;
+  }
+
+  // Sets bit base+j of mask for every item j in the cells overlapping
+  // the box of +-rangeX, +-rangeY around (x, y); whole cells, no
+  // distance test. Returns how many.
+  public int mark(float x, float y, int rangeX, int rangeY, long[] mask, int base) {
+    int found = 0;
+    int c0 = col(x - rangeX), c1 = col(x + rangeX);
+    int r0 = row(y - rangeY), r1 = row(y + rangeY);
+    for (int r=r0; r<=r1; r++) {
+      // cells of a row are next to each other in items
+      int from = start[r * cols + c0], to = start[r * cols + c1 + 1];
+      for (int s=from; s<to; s++) {
+        int j = base + items[s];
+        mask[j >> 6] |= 1L << j;
+      }
+      found += to - from;
+    }
+    return found;
+  }
+
+  // time spent on the gold ball AI in one tick, rebuild included
+  public void addNanos(long t) {
+    ticks++;
+    nanos += t;
+    if (t > maxNanos)
+      maxNanos = t;
+  }
+
+  public void resetStats() {
+    ticks = 0;
+    queries = 0;
+    visited = 0;
+    nanos = 0;
+    maxNanos = 0;
+  }
+
+  public String summary() {
+    if (ticks == 0)
+      return "gold ai: idle";
+    return "gold ai: " + Math.round(nanos / ticks / 100) / 10.0 + " us/tick, max "
+      + maxNanos / 1000 + " us, " + (queries == 0 ? 0 : Math.round(visited * 10 / queries) / 10.0) + " players/query";
+  }
+
+  // -------------------------------------------------------------------
+  // benchmark: gold ball AI with the grid against the plain scan
+
+  static Match arena(int players, int gold) {
+    Match m = new Match(2000, 1200);
+    m.goldBalls = gold;
+    m.goldTicks = 0;
+    m.winScore = 1000000;
+    m.setSeed(1);
+    m.setup();
+    Person[] p = new Person[players];
+    for (int i=0; i<players; i++) {
+      p[i] = new Person(m.balls[0], m, 1 + i%4, 50 + (i*97) % (m.width-100), 50 + (i*61) % (m.height-100));
+      p[i].side = i % 2;
+      p[i].isRobot = true;
+      p[i].smart = 1;
+    }
+    m.players = p;
+    for (int i=0; i<m.balls.length; i++) {
+      m.balls[i].x = 50 + (i*131) % (m.width-100);
+      m.balls[i].y = 50 + (i*71) % (m.height-100);
+    }
+    m.start();
+    return m;
+  }
+
+  public static void main(String[] args) {
+    int players = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int gold = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int ticks = seconds * 1000 / Match.TICK_MS;
+
+    for (int pass=0; pass<2; pass++) {   // first pass is warmup
+      for (int g=0; g<2; g++) {
+        Match m = arena(players, gold);
+        m.useGrid = g == 1;
+        for (int t=0; t<ticks; t++)
+          m.step();
+        if (pass == 1)
+          System.out.println((m.useGrid ? "grid" : "scan") + ": players=" + players
+                             + " gold=" + gold + " " + m.grid.summary());
+      }
+    }
+  }
+}
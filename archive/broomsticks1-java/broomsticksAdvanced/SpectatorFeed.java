@@ -0,0 +1,312 @@
+//=========================================================================
+//#
+//#  SpectatorFeed.java
+//#
+//#  Description: one room's snapshots for any number of spectators.
+//#               Each tick is encoded once, as a delta on the tick
+//#               before, into a pooled direct buffer; every spectator
+//#               queues a duplicate of it and the socket is written from
+//#               those with one gathering write, so nothing is copied
+//#               per spectator. A spectator whose queue fills up loses
+//#               what is queued and gets a keyframe of the newest tick
+//#               once its socket drains, instead of falling further
+//#               behind. Keyframes are encoded only when someone waits
+//#               for one, at most once a tick
+//#
+//#  usage: java SpectatorFeed [spectators] [stalled %] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+class SpectatorFeed {
+
+  static final int QUEUE = 8;          // frames per spectator before it skips
+  static final int SEND_BUFFER = 8192; // socket buffer asked for per spectator
+
+  // an encoded STATE frame, shared by the spectators that queued it
+  static class Frame {
+    ByteBuffer buf;
+    int refs;
+  }
+
+  SnapshotCodec codec;
+  ArrayList<Frame> pool;               // free Frames
+  int frame;
+  NetState state;
+  Frame delta, key;                    // this tick's, encoded when first wanted
+
+  // stats
+  public long ticks, queued, skips, keyframes, written;
+  public int frames;                   // allocated, free or not
+
+  SpectatorFeed(SnapshotCodec theCodec) {
+    codec = theCodec;
+    pool = new ArrayList<Frame>();
+    frames = 0;
+  }
+
+  // ---- per tick, after codec.store(s, theFrame)
+
+  public void begin(int theFrame, NetState s) {
+    frame = theFrame;
+    state = s;
+    delta = null;
+    key = null;
+    ticks++;
+  }
+
+  public void send(Watcher w) {
+    if (w.waiting) {
+      if (!w.drained())
+        return;                        // still writing an old frame
+      if (key == null) {
+        key = encode(-1);
+        keyframes++;
+      }
+      w.offer(key);
+      w.waiting = false;
+      return;
+    }
+    if (w.count == QUEUE) {
+      w.drop();
+      w.waiting = true;
+      skips++;
+      return;
+    }
+    if (delta == null)
+      delta = encode(frame - 1);
+    w.offer(delta);
+  }
+
+  public void end() {
+    if (delta != null)
+      release(delta);
+    if (key != null)
+      release(key);
+    delta = key = null;
+    state = null;
+  }
+
+  Frame encode(int base) {
+    Frame f;
+    if (pool.isEmpty()) {
+      f = new Frame();
+      f.buf = ByteBuffer.allocateDirect(3 + codec.maxSize());
+      frames++;
+    } else
+      f = pool.remove(pool.size() - 1);
+    ByteBuffer b = f.buf;
+    b.clear();
+    b.position(3);
+    codec.encode(frame, base, state, b);
+    b.putShort(0, (short) (b.position() - 2));
+    b.put(2, (byte) GameServer.STATE);
+    b.putInt(3 + SnapshotCodec.ACK_OFFSET, 0);  // spectators have no inputs
+    b.flip();
+    f.refs = 1;                        // ours until end()
+    return f;
+  }
+
+  void release(Frame f) {
+    if (--f.refs == 0)
+      pool.add(f);
+  }
+
+  public String summary() {
+    if (ticks == 0)
+      return "spectators: idle";
+    return "spectators: " + Math.round(queued * 10.0 / ticks) / 10.0 + " frames queued/tick, "
+      + keyframes + " keyframes, " + skips + " skips, " + frames + " buffers, "
+      + written / ticks + " bytes written/tick";
+  }
+
+  // -------------------------------------------------------------------
+  // one spectator's queue of shared frames
+
+  class Watcher {
+    Frame[] queue;
+    ByteBuffer[] views;                // duplicates, each with its own position
+    ByteBuffer[] gather;
+    int head, count;
+    boolean waiting;                   // for a keyframe; nothing is queued meanwhile
+
+    Watcher() {
+      queue = new Frame[QUEUE];
+      views = new ByteBuffer[QUEUE];
+      gather = new ByteBuffer[QUEUE + 1];
+      head = 0;
+      count = 0;
+      waiting = true;                  // starts with a keyframe
+    }
+
+    void offer(Frame f) {
+      int k = (head + count) % QUEUE;
+      f.refs++;
+      queue[k] = f;
+      views[k] = f.buf.duplicate();
+      count++;
+      queued++;
+    }
+
+    boolean started() {
+      return count > 0 && views[head].position() > 0;
+    }
+
+    // nothing left but maybe the end of the frame being written
+    boolean drained() {
+      return count == 0 || (count == 1 && started());
+    }
+
+    // lose the queue, except a frame already partly on the wire
+    void drop() {
+      int keep = started() ? 1 : 0;
+      for (int i=keep; i<count; i++) {
+        int k = (head + i) % QUEUE;
+        release(queue[k]);
+        queue[k] = null;
+        views[k] = null;
+      }
+      count = keep;
+    }
+
+    public void close() {
+      drop();
+      if (count > 0) {
+        release(queue[head]);
+        queue[head] = null;
+        views[head] = null;
+        count = 0;
+      }
+    }
+
+    public boolean pending() {
+      return count > 0;
+    }
+
+    // out holds the connection's own frames, in write mode. A frame
+    // partly written goes on first, so frames never interleave
+    public long write(GatheringByteChannel ch, ByteBuffer out) throws IOException {
+      out.flip();
+      int n = 0, i = 0;
+      if (started()) {
+        gather[n++] = views[head];
+        i = 1;
+      }
+      if (out.hasRemaining())
+        gather[n++] = out;
+      for (; i<count; i++)
+        gather[n++] = views[(head + i) % QUEUE];
+      long w = n == 0 ? 0 : ch.write(gather, 0, n);
+      out.compact();
+      while (count > 0 && !views[head].hasRemaining()) {
+        release(queue[head]);
+        queue[head] = null;
+        views[head] = null;
+        head = (head + 1) % QUEUE;
+        count--;
+      }
+      written += w;
+      return w;
+    }
+  }
+
+  // -------------------------------------------------------------------
+  // bench: two players in a room and many spectators on localhost. Some
+  // spectators stop reading altogether; the rest read every tick and
+  // should see every frame
+
+  public static void main(String[] args) throws Exception {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    double stalled = args.length > 1 ? Double.parseDouble(args[1]) / 100 : 0.1;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    GameServer server = new GameServer(0);
+    Thread st = new Thread(server, "server");
+    st.start();
+    GameClient[] players = new GameClient[2];
+    for (int i=0; i<players.length; i++) {
+      players[i] = GameClient.connect("localhost", server.port());
+      players[i].join(1, false);
+    }
+    while (!players[0].welcomed || !players[1].welcomed) {
+      players[0].poll();
+      players[1].poll();
+      Thread.sleep(1);
+    }
+
+    int stuck = (int) Math.round(n * stalled);
+    GameClient[] watch = new GameClient[n];
+    for (int i=0; i<n; i++) {
+      SocketChannel ch = SocketChannel.open();
+      if (i < stuck)
+        ch.socket().setReceiveBufferSize(4096);
+      ch.connect(new InetSocketAddress("localhost", server.port()));
+      watch[i] = new GameClient(ch);
+      watch[i].watch(1);
+    }
+
+    Random rnd = new Random(1);
+    long start = System.nanoTime(), next = start;
+    long end = start + seconds * 1000000000L;
+    long busy0 = 0, ticks0 = 0, states0 = 0;
+    int seq = 0, lost = 0;
+    boolean measuring = false;
+    while (System.nanoTime() < end) {
+      long now = System.nanoTime();
+      if (!measuring && now - start > 3000000000L) {
+        measuring = true;
+        busy0 = server.busyNanos;
+        ticks0 = server.ticks;
+        for (int i=stuck; i<n; i++)
+          states0 += watch[i].states;
+      }
+      if (now >= next) {
+        seq++;
+        for (int i=0; i<players.length; i++) {
+          players[i].poll();
+          players[i].sendInput(seq, rnd.nextInt(16));
+        }
+        next += Match.TICK_MS * 1000000L;
+      }
+      for (int i=stuck; i<n; i++) {
+        int before = watch[i].frame;
+        watch[i].poll();
+        if (before >= 0 && watch[i].frame < 0)
+          lost++;                      // a delta without its baseline
+      }
+      Thread.sleep(1);
+    }
+    // the stuck ones wake up and should be on a keyframe straight away
+    long[] woke = new long[stuck];
+    for (int i=0; i<stuck; i++)
+      woke[i] = watch[i].states;
+    for (int k=0; k<30; k++) {
+      for (int i=0; i<stuck; i++)
+        watch[i].poll();
+      Thread.sleep(10);
+    }
+    int recovered = 0;
+    for (int i=0; i<stuck; i++)
+      if (watch[i].frame >= 0 && watch[i].states > woke[i])
+        recovered++;
+    server.stop();
+    st.join();
+
+    long ticks = server.ticks - ticks0, states = -states0;
+    for (int i=stuck; i<n; i++)
+      states += watch[i].states;
+    SpectatorFeed feed = server.feed(1);
+    System.out.println(n + " spectators (" + stuck + " stalled), " + seconds + " s");
+    System.out.println("server busy " + Math.round((server.busyNanos - busy0) / ticks / 100) / 10.0
+                       + " us/tick, " + Math.round(states * 10.0 / ticks / (n - stuck)) / 10.0
+                       + " states/tick per reading spectator, " + lost + " lost baselines");
+    System.out.println(feed.summary());
+    System.out.println("stalled spectators on a fresh keyframe after waking: " + recovered + " of " + stuck);
+  }
+}
@@ -0,0 +1,101 @@
+//=========================================================================
+//#
+//#  ThinkScheduler.java
+//#
+//#  Description: lets robots and balls decide only every few ticks,
+//#               spread evenly so each tick does about the same amount
+//#               of AI work; agents repeat their last decision between
+//#
+//#  usage: java ThinkScheduler [players] [gold balls] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class ThinkScheduler {
+
+  int every;          // each agent thinks once every this many ticks
+  int tick;
+
+  // stats
+  public long ticks, thinks;
+  public int now, maxPerTick;
+
+  ThinkScheduler(int theEvery) {
+    setEvery(theEvery);
+    tick = 0;
+    now = 0;
+  }
+
+  public void setEvery(int theEvery) {
+    every = theEvery < 1 ? 1 : theEvery;
+  }
+
+  public void beginTick(int t) {
+    if (now > maxPerTick)
+      maxPerTick = now;
+    ticks++;
+    thinks += now;
+    now = 0;
+    tick = t;
+  }
+
+  // Agent slots are handed out in creation order, so agents with
+  // consecutive slots think on consecutive ticks.
+  public boolean due(FlyingObject f) {
+    if (!isDue(f))
+      return false;
+    now++;
+    return true;
+  }
+
+  // same, without counting; safe to call from several threads
+  public boolean isDue(FlyingObject f) {
+    return every <= 1 || (tick + f.slot) % every == 0;
+  }
+
+  public void resetStats() {
+    ticks = 0;
+    thinks = 0;
+    maxPerTick = 0;
+  }
+
+  public String summary() {
+    if (ticks == 0)
+      return "think: idle";
+    return "think: every " + every + " ticks, " + Math.round(thinks * 10 / ticks) / 10.0
+      + " agents/tick, max " + maxPerTick;
+  }
+
+  // -------------------------------------------------------------------
+  // benchmark: tick cost in a big robot arena for a few cadences
+
+  public static void main(String[] args) {
+    int players = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    int gold = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+    int ticks = seconds * 1000 / Match.TICK_MS;
+    int[] cadence = { 1, 2, 4, 8 };
+
+    for (int pass=0; pass<2; pass++) {   // first pass is warmup
+      for (int c=0; c<cadence.length; c++) {
+        Match m = SpatialGrid.arena(players, gold);
+        m.think.setEvery(cadence[c]);
+        long total = 0, max = 0;
+        for (int t=0; t<ticks; t++) {
+          long t0 = System.nanoTime();
+          m.step();
+          long took = System.nanoTime() - t0;
+          total += took;
+          if (took > max)
+            max = took;
+        }
+        if (pass == 1)
+          System.out.println("players=" + players + " gold=" + gold + " tick_us=" + total / ticks / 1000
+                             + " max_us=" + max / 1000 + " " + m.think.summary()
+                             + " " + m.grid.summary());
+      }
+    }
+  }
+}
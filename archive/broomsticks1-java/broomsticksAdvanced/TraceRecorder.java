@@ -0,0 +1,93 @@
+//=========================================================================
+//#
+//#  TraceRecorder.java
+//#
+//#  Description: one room's side of a play trace. At the end of a tick
+//#               appends each player's state and actions to the writer's
+//#               current column chunk, as the change since the row it
+//#               wrote for that player the tick before; the TraceWriter
+//#               thread does the rest
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+
+class TraceRecorder {
+
+  TraceWriter writer;
+  int room;
+  int[] last;                          // per player, the columns of its last row
+  int known;                           // players with a row so far
+  public long dropped;                 // rows lost in this room
+
+  TraceRecorder(TraceWriter w, int theRoom) {
+    writer = w;
+    room = theRoom;
+    last = new int[4 * TraceWriter.COLUMNS];
+    known = 0;
+  }
+
+  // called by Match.step() at the end of a tick; only copies ints. ROOM
+  // and PLAYER are written as they are, the other columns minus the
+  // same player's last row, which is only kept here: a room costs the
+  // writer no memory of its own, and all rooms fill one chunk in turn.
+  public void record(Match m) {
+    int i, n = m.players.length;
+    TraceWriter.Chunk chunk = writer.space(n);
+    if (chunk == null) {
+      // the writer is behind; lose this tick rather than stall it
+      dropped += n;
+      writer.addDropped(n);
+      for (i=0; i<n; i++)
+        m.players[i].applied = 0;
+      return;
+    }
+    if (n * TraceWriter.COLUMNS > last.length) {
+      int[] more = new int[n * TraceWriter.COLUMNS];
+      System.arraycopy(last, 0, more, 0, last.length);
+      last = more;
+    }
+    int[][] c = chunk.cols;
+    int[] l = last;
+    int row = chunk.rows;
+    for (i=0; i<n; i++, row++) {
+      Person p = m.players[i];
+      int b = i * TraceWriter.COLUMNS;
+      int v;
+      c[TraceWriter.ROOM][row] = room;
+      if (i < known) {
+        c[TraceWriter.PLAYER][row] = i;
+      } else {
+        // a new player, or a new room under an old id: start from 0
+        c[TraceWriter.PLAYER][row] = i | TraceWriter.FIRST;
+        for (int k=0; k<TraceWriter.COLUMNS; k++)
+          l[b+k] = 0;
+        known = i+1;
+      }
+      v = m.tick;
+      c[TraceWriter.TICK][row] = v - l[b+TraceWriter.TICK];
+      l[b+TraceWriter.TICK] = v;
+      v = (int) (p.x * TraceWriter.SCALE);
+      c[TraceWriter.X][row] = v - l[b+TraceWriter.X];
+      l[b+TraceWriter.X] = v;
+      v = (int) (p.y * TraceWriter.SCALE);
+      c[TraceWriter.Y][row] = v - l[b+TraceWriter.Y];
+      l[b+TraceWriter.Y] = v;
+      v = (int) (p.velocityX * TraceWriter.SCALE);
+      c[TraceWriter.VX][row] = v - l[b+TraceWriter.VX];
+      l[b+TraceWriter.VX] = v;
+      v = (int) (p.velocityY * TraceWriter.SCALE);
+      c[TraceWriter.VY][row] = v - l[b+TraceWriter.VY];
+      l[b+TraceWriter.VY] = v;
+      v = p.applied;
+      c[TraceWriter.ACTIONS][row] = v - l[b+TraceWriter.ACTIONS];
+      l[b+TraceWriter.ACTIONS] = v;
+      v = p.side | (p.isRobot ? 2 : 0) | (m.teamBasket[p.side] ? 4 : 0);
+      c[TraceWriter.FLAGS][row] = v - l[b+TraceWriter.FLAGS];
+      l[b+TraceWriter.FLAGS] = v;
+      p.applied = 0;
+    }
+    chunk.rows = row;
+  }
+}
@@ -0,0 +1,309 @@
+//=========================================================================
+//#
+//#  TraceWriter.java
+//#
+//#  Description: background writer for play traces. Rooms take turns
+//#               filling one fixed size column chunk (see TraceRecorder);
+//#               this thread encodes full chunks and appends them to one
+//#               file. All recorders of a writer must be called from the
+//#               same thread, as the server's and the applet's tick are
+//#
+//#  usage: java TraceWriter bench [rooms] [seconds] [file]
+//#         java TraceWriter dump [file]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+class TraceWriter implements Runnable {
+
+  static final int MAGIC = 0x42525432; // "BRT2", one per chunk
+
+  // columns, one int per row each; positions and velocities are in
+  // 1/64 pixel
+  static final int TICK = 0, ROOM = 1, PLAYER = 2, X = 3, Y = 4, VX = 5, VY = 6;
+  static final int ACTIONS = 7;        // 1<<UP.. bits applied during the tick
+  static final int FLAGS = 8;          // side | robot<<1 | has the ball<<2
+  static final int COLUMNS = 9;
+  static final String[] NAMES = { "tick", "room", "player", "x", "y", "vx", "vy", "actions", "flags" };
+  static final float SCALE = 64;
+  static final int FIRST = 0x100;      // in PLAYER: this row's changes start from 0
+
+  static class Chunk {
+    int[][] cols;
+    int rows;
+
+    Chunk(int capacity) {
+      cols = new int[COLUMNS][capacity];
+      rows = 0;
+    }
+  }
+
+  int rowsPerChunk;
+  ArrayBlockingQueue<Chunk> free, full;
+  Chunk current;                       // being filled by the recorders, or null
+  OutputStream out;
+  Thread thread;
+  volatile boolean closing;
+  byte[] buf;                          // encoded column
+  int len;
+
+  // stats
+  public volatile long chunksWritten, bytesWritten, rowsWritten;
+  public long dropped;                 // rows lost because no chunk was free, all rooms
+
+  TraceWriter(OutputStream theOut, int chunks, int theRowsPerChunk) {
+    out = theOut;
+    rowsPerChunk = theRowsPerChunk;
+    free = new ArrayBlockingQueue<Chunk>(chunks);
+    full = new ArrayBlockingQueue<Chunk>(chunks);
+    for (int i=0; i<chunks; i++)
+      free.add(new Chunk(rowsPerChunk));
+    buf = new byte[rowsPerChunk * 5 + 16];
+    thread = new Thread(this, "trace writer");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  public TraceRecorder newRecorder(int room) {
+    return new TraceRecorder(this, room);
+  }
+
+  // a chunk with space for rows more rows, or null if all are in use;
+  // never blocks. Only touches the queues once a chunk is full, so
+  // that is once per rowsPerChunk rows, not once per room.
+  Chunk space(int rows) {
+    if (current != null && current.rows + rows > rowsPerChunk) {
+      full.offer(current);             // never blocks, full can hold every chunk
+      current = null;
+    }
+    if (current == null)
+      current = free.poll();
+    return current;
+  }
+
+  synchronized void addDropped(int rows) {
+    dropped += rows;
+  }
+
+  public void run() {
+    try {
+      while (true) {
+        Chunk c = full.poll(100, TimeUnit.MILLISECONDS);
+        if (c == null) {
+          if (closing && full.isEmpty())
+            break;
+          continue;
+        }
+        write(c);
+        c.rows = 0;
+        free.offer(c);
+      }
+      out.flush();
+    } catch (Exception e) {
+      System.out.println("trace: writer stopped: " + e);
+    }
+  }
+
+  // MAGIC, rows, then per column its byte length and the zigzag varints
+  // of its values. The recorders already wrote everything but ROOM and
+  // PLAYER as the change since that player's row the tick before.
+  void write(Chunk c) throws IOException {
+    DataOutputStream d = new DataOutputStream(out);
+    d.writeInt(MAGIC);
+    d.writeInt(c.rows);
+    for (int k=0; k<COLUMNS; k++) {
+      int[] col = c.cols[k];
+      len = 0;
+      for (int i=0; i<c.rows; i++) {
+        int v = col[i];
+        varint((v << 1) ^ (v >> 31));
+      }
+      d.writeInt(len);
+      d.write(buf, 0, len);
+      bytesWritten += 4 + len;
+    }
+    bytesWritten += 8;
+    rowsWritten += c.rows;
+    chunksWritten++;
+  }
+
+  void varint(int v) {
+    while ((v & ~0x7f) != 0) {
+      buf[len++] = (byte) ((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    buf[len++] = (byte) v;
+  }
+
+  // hands over the last chunk and waits for everything to be written;
+  // from the recording thread
+  public void close() throws IOException {
+    if (current != null && current.rows > 0)
+      full.offer(current);
+    current = null;
+    closing = true;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    out.close();
+  }
+
+  // -------------------------------------------------------------------
+  // reading
+
+  // calls back once per chunk with the decoded columns
+  interface Reader {
+    void chunk(int[][] cols, int rows);
+  }
+
+  // undoes the recorders' changes with each room's and player's last
+  // row, kept for the whole file since a player's rows are spread over
+  // many chunks
+  public static void read(InputStream is, Reader r) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+    HashMap<Long,int[]> last = new HashMap<Long,int[]>();
+    while (true) {
+      int magic;
+      try {
+        magic = in.readInt();
+      } catch (EOFException e) {
+        return;
+      }
+      if (magic != MAGIC)
+        throw new IOException("not a trace chunk");
+      int rows = in.readInt();
+      int[][] cols = new int[COLUMNS][rows];
+      for (int k=0; k<COLUMNS; k++) {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        int pos = 0;
+        for (int i=0; i<rows; i++) {
+          int v = 0, shift = 0;
+          while (true) {
+            int x = b[pos++];
+            v |= (x & 0x7f) << shift;
+            if ((x & 0x80) == 0)
+              break;
+            shift += 7;
+          }
+          cols[k][i] = (v >>> 1) ^ -(v & 1);
+        }
+      }
+      for (int i=0; i<rows; i++) {
+        int player = cols[PLAYER][i];
+        Long key = Long.valueOf(((long) cols[ROOM][i] << 32) | (player & ~FIRST));
+        int[] l = last.get(key);
+        if (l == null || (player & FIRST) != 0) {
+          l = new int[COLUMNS];
+          last.put(key, l);
+        }
+        cols[PLAYER][i] = player & ~FIRST;
+        for (int k=0; k<COLUMNS; k++) {
+          if (k == ROOM || k == PLAYER)
+            continue;
+          l[k] += cols[k][i];
+          cols[k][i] = l[k];
+        }
+      }
+      r.chunk(cols, rows);
+    }
+  }
+
+  // -------------------------------------------------------------------
+  // bench: robot rooms stepped with and without recording
+
+  static Match room(int r) {
+    Match m = new Match(630, 400);
+    m.teams = (r % 2) == 1;
+    m.winScore = 1000000;
+    m.setSeed(r);
+    m.setup();
+    for (int i=0; i<m.players.length; i++) {
+      m.players[i].isRobot = true;
+      m.players[i].smart = 1 + r % 10;
+    }
+    m.start();
+    return m;
+  }
+
+  static long stepRooms(Match[] rooms, int ticks) {
+    long t0 = System.nanoTime();
+    for (int t=0; t<ticks; t++)
+      for (int r=0; r<rooms.length; r++)
+        rooms[r].step();
+    return System.nanoTime() - t0;
+  }
+
+  public static void main(String[] args) throws IOException {
+    String mode = args.length > 0 ? args[0] : "bench";
+
+    if (mode.equals("dump")) {
+      String file = args.length > 1 ? args[1] : "trace.dat";
+      final PrintStream ps = System.out;
+      StringBuffer sb = new StringBuffer();
+      for (int k=0; k<COLUMNS; k++)
+        sb.append(k == 0 ? "" : ",").append(NAMES[k]);
+      ps.println(sb.toString());
+      read(new FileInputStream(file), new Reader() {
+        public void chunk(int[][] cols, int rows) {
+          for (int i=0; i<rows; i++) {
+            StringBuffer line = new StringBuffer();
+            for (int k=0; k<COLUMNS; k++) {
+              if (k > 0)
+                line.append(',');
+              if (k >= X && k <= VY)
+                line.append(cols[k][i] / SCALE);
+              else
+                line.append(cols[k][i]);
+            }
+            ps.println(line.toString());
+          }
+        }
+      });
+      return;
+    }
+
+    int rooms = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+    String file = args.length > 3 ? args[3] : "trace.dat";
+    int ticks = seconds * 1000 / Match.TICK_MS;
+
+    Match[] plain = new Match[rooms];
+    Match[] traced = new Match[rooms];
+    for (int r=0; r<rooms; r++) {
+      plain[r] = room(r);
+      traced[r] = room(r);
+    }
+    TraceWriter w = new TraceWriter(new BufferedOutputStream(new FileOutputStream(file), 1 << 16),
+                                    64, 4096);
+    for (int r=0; r<rooms; r++)
+      traced[r].recorder = w.newRecorder(r);
+
+    stepRooms(plain, ticks / 10);   // warmup
+    stepRooms(traced, ticks / 10);
+    long a = stepRooms(plain, ticks);
+    // on few cores the writer runs in between ticks; count its CPU time
+    // apart from the tick thread's own cost
+    java.lang.management.ThreadMXBean mx = java.lang.management.ManagementFactory.getThreadMXBean();
+    long cpu0 = mx.getThreadCpuTime(w.thread.getId());
+    long b = stepRooms(traced, ticks);
+    long writerCpu = mx.getThreadCpuTime(w.thread.getId()) - cpu0;
+    w.close();
+
+    long rows = w.rowsWritten;
+    System.out.println("rooms=" + rooms + " ticks=" + ticks
+                       + " us/room-tick plain=" + Math.round(a / 10.0 / ticks / rooms) / 100.0
+                       + " traced=" + Math.round(b / 10.0 / ticks / rooms) / 100.0
+                       + " of which writer=" + Math.round(writerCpu / 10.0 / ticks / rooms) / 100.0);
+    System.out.println("rows=" + rows + " dropped=" + w.dropped + " bytes=" + w.bytesWritten
+                       + " bytes/row=" + Math.round(w.bytesWritten * 100.0 / Math.max(rows, 1)) / 100.0
+                       + " (raw " + COLUMNS * 4 + ")");
+  }
+}
@@ -0,0 +1,42 @@
+//=========================================================================
+//#
+//#  UdpChannel.java
+//#
+//#  Description: a PacketChannel on a non-blocking DatagramChannel
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+class UdpChannel implements PacketChannel {
+
+  DatagramChannel ch;
+
+  UdpChannel(DatagramChannel theCh) throws IOException {
+    ch = theCh;
+    ch.configureBlocking(false);
+  }
+
+  // an unbound one, for a client
+  public static UdpChannel open() throws IOException {
+    DatagramChannel ch = DatagramChannel.open();
+    ch.socket().bind(new InetSocketAddress(0));
+    return new UdpChannel(ch);
+  }
+
+  public void send(ByteBuffer packet, SocketAddress to) throws IOException {
+    ch.send(packet, to);               // a full socket buffer drops it, as UDP may
+  }
+
+  public SocketAddress receive(ByteBuffer into) throws IOException {
+    return ch.receive(into);
+  }
+
+  public void close() throws IOException {
+    ch.close();
+  }
+}
@@ -0,0 +1,217 @@
+//=========================================================================
+//#
+//#  UdpGameClient.java
+//#
+//#  Description: GameClient over UDP. Every packet repeats the inputs
+//#               the server hasn't acked yet (up to `redundancy` of
+//#               them), so a lost packet costs nothing once the next one
+//#               gets through, and nothing waits behind it the way it
+//#               does on TCP. Stale and reordered states are skipped
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+
+class UdpGameClient extends GameClient {
+
+  static final int REDUNDANT = 8;
+  static final int RING = 64;          // power of two, >= REDUNDANT and acks in flight
+  static final long JOIN_RETRY = 250000000L;
+
+  PacketChannel net;
+  SocketAddress server;
+  ByteBuffer packet, recv;
+  public int redundancy;
+
+  int seq;                             // packets sent
+  int[] packetSeq, packetInput;        // newest input in each packet sent
+  int[] inputBits;                     // by input seq
+  long[] inputSent;                    // first sent, ns
+  int newestInput, ackedInput, confirmed;
+  int serverSeq;                       // newest server packet seen
+
+  int joinRoom, joinWidth, joinHeight;
+  boolean joinTeams, joining;
+  long joinSent;
+
+  // stats
+  public long packetsIn, inputsSent, inputBytes;
+  public long ackWindows, ackHits;     // of 32 packets before each ack, how many arrived
+  public LatencyHistogram inputLatency; // input sent -> a state that used it
+
+  UdpGameClient(PacketChannel theNet, SocketAddress theServer) {
+    super();
+    net = theNet;
+    server = theServer;
+    packet = ByteBuffer.allocateDirect(PacketChannel.MAX_PACKET);
+    recv = ByteBuffer.allocate(PacketChannel.MAX_PACKET);
+    redundancy = REDUNDANT;
+    seq = 0;
+    packetSeq = new int[RING];
+    packetInput = new int[RING];
+    inputBits = new int[RING];
+    inputSent = new long[RING];
+    newestInput = 0;
+    ackedInput = 0;
+    confirmed = 0;
+    serverSeq = 0;
+    joining = false;
+    inputLatency = new LatencyHistogram("input", 1000, 1000);
+  }
+
+  public static UdpGameClient connect(String host, int port) throws IOException {
+    return new UdpGameClient(UdpChannel.open(), new InetSocketAddress(host, port));
+  }
+
+  // ---- sending
+
+  void begin(int type) {
+    packet.clear();
+    seq++;
+    packet.putInt(seq);
+    packet.put((byte) type);
+  }
+
+  void send() throws IOException {
+    packet.flip();
+    net.send(packet, server);
+  }
+
+  public void join(int room, boolean teams, int width, int height) throws IOException {
+    joinRoom = room;
+    joinTeams = teams;
+    joinWidth = width;
+    joinHeight = height;
+    joining = true;
+    sendJoin();
+  }
+
+  void sendJoin() throws IOException {
+    begin(GameServer.JOIN);
+    packet.putInt(joinRoom);
+    packet.put((byte) (joinTeams ? 1 : 0));
+    packet.putShort((short) joinWidth);
+    packet.putShort((short) joinHeight);
+    send();
+    joinSent = System.nanoTime();
+  }
+
+  // seq goes up by one per tick; bits as 1<<Person.UP..1<<Person.ROBOT
+  public void sendInput(int inputSeq, int bits) throws IOException {
+    int k = inputSeq & (RING - 1);
+    inputBits[k] = bits;
+    inputSent[k] = System.nanoTime();
+    newestInput = inputSeq;
+    inputsSent++;
+
+    int n = Math.min(redundancy, newestInput - ackedInput);
+    if (n < 1)
+      n = 1;
+    begin(GameServer.INPUTS);
+    packet.putInt(newestInput);
+    packet.putInt(frame);
+    packet.putInt(shown);
+    packet.putInt(cookie);
+    packet.put((byte) n);
+    for (int i=0; i<n; i++)
+      packet.put((byte) inputBits[(newestInput - i) & (RING - 1)]);
+    packetSeq[seq & (RING - 1)] = seq;
+    packetInput[seq & (RING - 1)] = newestInput;
+    inputBytes += packet.position();
+    send();
+  }
+
+  public void ping() throws IOException {
+    begin(GameServer.PING);
+    packet.putLong(System.nanoTime());
+    send();
+  }
+
+  public void leave() throws IOException {
+    begin(GameServer.LEAVE);
+    send();
+    close();
+  }
+
+  // ---- receiving
+
+  public boolean poll() throws IOException {
+    if (closed)
+      return false;
+    if (joining && !welcomed && System.nanoTime() - joinSent > JOIN_RETRY)
+      sendJoin();
+    while (!closed) {
+      recv.clear();
+      if (net.receive(recv) == null)
+        break;
+      recv.flip();
+      if (recv.remaining() < 13)
+        continue;
+      bytesIn += recv.remaining();
+      packetsIn++;
+      int s = recv.getInt();
+      int ack = recv.getInt();
+      int ackBits = recv.getInt();
+      if (s > serverSeq)
+        serverSeq = s;
+      acked(ack, ackBits);
+      handle(recv.get(), recv);
+    }
+    return !closed;
+  }
+
+  // the newest input the server is known to have; later packets stop
+  // repeating the ones up to it. The bits only feed the loss estimate
+  void acked(int ack, int ackBits) {
+    if (ack > 0 && packetSeq[ack & (RING - 1)] == ack && packetInput[ack & (RING - 1)] > ackedInput)
+      ackedInput = packetInput[ack & (RING - 1)];
+    if (ack > 32) {
+      ackWindows++;
+      ackHits += Integer.bitCount(ackBits);
+    }
+  }
+
+  protected void handle(int type, ByteBuffer b) throws IOException {
+    if (type == GameServer.WELCOME && welcomed)
+      return;                          // a repeat
+    if (type == GameServer.WELCOME && b.get(b.position() + 1) == 0) {
+      // no players: the server wants the cookie back before it seats
+      // us; the real WELCOME comes after, or the JOIN is sent again
+      cookie = b.getInt(b.position() + 7);
+      begin(GameServer.INPUTS);
+      packet.putInt(newestInput);
+      packet.putInt(frame);
+      packet.putInt(shown);
+      packet.putInt(cookie);
+      packet.put((byte) 0);
+      send();
+      return;
+    }
+    if (type == GameServer.STATE && state != null && frame >= 0 && b.getInt(b.position()) <= frame)
+      return;                          // reordered behind a newer one
+    super.handle(type, b);
+  }
+
+  protected void stateReceived() {
+    long now = System.nanoTime();
+    int used = state.ack;
+    if (used > newestInput || newestInput - used >= RING)
+      return;
+    for (int s=Math.max(confirmed + 1, newestInput - RING + 1); s<=used; s++)
+      inputLatency.record(now - inputSent[s & (RING - 1)]);
+    if (used > confirmed)
+      confirmed = used;
+  }
+
+  public void close() {
+    closed = true;
+    try {
+      net.close();
+    } catch (IOException e) {
+    }
+  }
+}
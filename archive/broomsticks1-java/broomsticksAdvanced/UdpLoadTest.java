@@ -0,0 +1,91 @@
+//=========================================================================
+//#
+//#  UdpLoadTest.java
+//#
+//#  Description: UDP clients against a local GameServer with packets
+//#               dropped at random both ways. Runs once without repeated
+//#               inputs and once with them, and reports how many inputs
+//#               reached the server and how long until a state showed
+//#               each one used
+//#
+//#  usage: java UdpLoadTest [loss %] [clients] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+
+class UdpLoadTest {
+
+  public static void main(String[] args) throws Exception {
+    double loss = args.length > 0 ? Double.parseDouble(args[0]) / 100 : 0.1;
+    int n = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    System.out.println("loss " + Math.round(loss * 1000) / 10.0 + "% each way, " + n + " clients, "
+                       + seconds + " s");
+    run(loss, n, seconds, 1);
+    run(loss, n, seconds, UdpGameClient.REDUNDANT);
+  }
+
+  static void run(double loss, int n, int seconds, int redundancy) throws Exception {
+    GameServer server = new GameServer(0);
+    NetworkSimulator down = new NetworkSimulator(server.udp, 99);
+    down.set(0, 0, loss, 0, 0);
+    server.udp = down;
+    Thread st = new Thread(server, "server");
+    st.start();
+
+    InetSocketAddress to = new InetSocketAddress("localhost", server.port());
+    LatencyHistogram latency = new LatencyHistogram("input", 1000, 1000);
+    UdpGameClient[] clients = new UdpGameClient[n];
+    for (int i=0; i<n; i++) {
+      NetworkSimulator up = new NetworkSimulator(UdpChannel.open(), i);
+      up.set(0, 0, loss, 0, 0);
+      clients[i] = new UdpGameClient(up, to);
+      clients[i].redundancy = redundancy;
+      clients[i].inputLatency = latency;
+      clients[i].join(i / 2, false);
+    }
+
+    Random rnd = new Random(1);
+    long next = System.nanoTime();
+    long end = next + seconds * 1000000000L;
+    int[] seq = new int[n];
+    while (System.nanoTime() < end) {
+      long wait = next - System.nanoTime();
+      if (wait > 0)
+        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+      next += Match.TICK_MS * 1000000L;
+      for (int i=0; i<n; i++) {
+        UdpGameClient c = clients[i];
+        c.poll();
+        if (c.welcomed)
+          c.sendInput(++seq[i], rnd.nextInt(16));
+      }
+    }
+    // let the last inputs land before counting
+    Thread.sleep(100);
+    server.stop();
+    st.join();
+
+    long sent = 0, bytes = 0, windows = 0, hits = 0, states = 0;
+    for (int i=0; i<n; i++) {
+      UdpGameClient c = clients[i];
+      sent += c.inputsSent;
+      bytes += c.inputBytes;
+      windows += c.ackWindows;
+      hits += c.ackHits;
+      states += c.states;
+      c.close();
+    }
+    System.out.println("redundancy " + redundancy + ": inputs reached the server "
+                       + Math.round(server.inputsIn * 1000.0 / sent) / 10.0 + "%, "
+                       + Math.round(bytes * 10.0 / sent) / 10.0 + " bytes/input packet, uplink loss seen "
+                       + (windows == 0 ? 0 : Math.round(1000 - hits * 1000.0 / windows / 32) / 10.0) + "%, "
+                       + states / n + " states/client");
+    System.out.println("  " + latency.summary());
+  }
+}
@@ -0,0 +1,303 @@
+//=========================================================================
+//#
+//#  VecEnv.java
+//#
+//#  Description: many headless matches stepped together for training
+//#               bots. Actions come in as int[] of 1<<UP.. bits per
+//#               player, observations go out to a float[] or FloatBuffer,
+//#               nothing is allocated per step
+//#
+//#  usage: java VecEnv [envs] [threads] [seconds]
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.nio.*;
+
+class VecEnv {
+
+  static final int MAX_TICKS = 3000;     // an episode ends here if nobody won
+
+  Match[] envs;
+  int players, balls;
+  int obsSize;                           // floats per env
+  long nextSeed;
+
+  // inputs and outputs of the current step, set by step()
+  int[] actions;
+  float[] obs, rewards;
+  FloatBuffer obsBuf;                    // null when stepping to a float[]
+  boolean[] dones;
+  int[] lastDiff;                        // score difference for side 0
+
+  // workers, each stepping a contiguous range of envs
+  Worker[] workers;
+  volatile int generation;
+  AtomicInteger pending;
+  Thread caller;
+  volatile boolean closed;
+
+  VecEnv(int n, boolean teams, int threads, long seed) {
+    envs = new Match[n];
+    nextSeed = seed;
+    for (int e=0; e<n; e++) {
+      Match m = new Match(630, 400);
+      m.teams = teams;
+      m.setup();
+      envs[e] = m;
+    }
+    players = envs[0].players.length;
+    balls = envs[0].balls.length;
+    obsSize = players*4 + balls*5 + 4;
+    rewards = new float[n*players];
+    dones = new boolean[n];
+    lastDiff = new int[n];
+    for (int e=0; e<n; e++)
+      reset(e);
+
+    pending = new AtomicInteger();
+    if (threads < 1)
+      threads = 1;
+    workers = new Worker[threads];
+    for (int t=0; t<threads; t++) {
+      workers[t] = new Worker(n*t/threads, n*(t+1)/threads);
+      // worker 0 is the calling thread
+      if (t > 0) {
+        workers[t].thread = new Thread(workers[t], "env-" + t);
+        workers[t].thread.setDaemon(true);
+        workers[t].thread.start();
+      }
+    }
+  }
+
+  public int size() {
+    return envs.length;
+  }
+
+  public int playersPerEnv() {
+    return players;
+  }
+
+  public int observationSize() {
+    return obsSize;
+  }
+
+  // put env e at the start of a new episode
+  void reset(int e) {
+    Match m = envs[e];
+    int i;
+    m.setSeed(nextSeed++);
+    for (i=0; i<m.players.length; i++) {
+      m.players[i].reset();
+      m.players[i].forced = 0;
+      m.players[i].decided = 0;
+    }
+    for (i=0; i<m.balls.length; i++)
+      m.balls[i].reset();
+    m.teamBasket[0] = false;
+    m.teamBasket[1] = false;
+    m.prevTeamBasket[0] = false;
+    m.prevTeamBasket[1] = false;
+    m.timer = 0;
+    m.start();
+    lastDiff[e] = 0;
+  }
+
+  // Applies actions[e*players + p] to player p of env e for one tick and
+  // writes the observations of every env to obs, starting at e*obsSize.
+  // rewards[e*players + p] is the change in p's side's lead this tick.
+  // Envs that finished have dones[e] set and are already reset, so obs
+  // holds the first state of their next episode.
+  public void step(int[] theActions, float[] theObs) {
+    obs = theObs;
+    obsBuf = null;
+    stepAll(theActions);
+  }
+
+  // same, to a buffer (e.g. a direct one shared with native code), from
+  // index 0. Each worker writes through its own view of the buffer, made
+  // when a new buffer is passed in.
+  public void step(int[] theActions, FloatBuffer theObs) {
+    obs = null;
+    if (theObs != obsBuf) {
+      obsBuf = theObs;
+      for (int t=0; t<workers.length; t++)
+        workers[t].view = theObs.duplicate();
+    }
+    stepAll(theActions);
+  }
+
+  public float[] rewards() {
+    return rewards;
+  }
+
+  public boolean[] dones() {
+    return dones;
+  }
+
+  void stepAll(int[] theActions) {
+    actions = theActions;
+    if (workers.length == 1) {
+      workers[0].work();
+      return;
+    }
+    caller = Thread.currentThread();
+    pending.set(workers.length - 1);
+    generation++;
+    for (int t=1; t<workers.length; t++)
+      LockSupport.unpark(workers[t].thread);
+    workers[0].work();
+    while (pending.get() > 0)
+      LockSupport.park(this);
+  }
+
+  public void close() {
+    closed = true;
+    for (int t=1; t<workers.length; t++)
+      LockSupport.unpark(workers[t].thread);
+  }
+
+  class Worker implements Runnable {
+    int from, to;
+    Thread thread;
+    float[] row;                         // one env's observation, for the buffer
+    FloatBuffer view;
+
+    Worker(int theFrom, int theTo) {
+      from = theFrom;
+      to = theTo;
+      row = new float[obsSize];
+    }
+
+    public void run() {
+      int seen = 0;
+      while (!closed) {
+        if (generation == seen) {
+          LockSupport.park(this);
+          continue;
+        }
+        seen = generation;
+        work();
+        if (pending.decrementAndGet() == 0)
+          LockSupport.unpark(caller);
+      }
+    }
+
+    void work() {
+      for (int e=from; e<to; e++) {
+        stepEnv(e);
+        if (obs != null)
+          observe(e, obs, e*obsSize);
+        else {
+          observe(e, row, 0);
+          view.position(e*obsSize);
+          view.put(row);
+        }
+      }
+    }
+  }
+
+  void stepEnv(int e) {
+    Match m = envs[e];
+    int p;
+    for (p=0; p<players; p++)
+      m.players[p].forced = actions[e*players + p];
+    m.step();
+
+    int diff = m.teamScore[0] - m.teamScore[1];
+    int delta = diff - lastDiff[e];
+    lastDiff[e] = diff;
+    for (p=0; p<players; p++)
+      rewards[e*players + p] = (m.players[p].side == 0) ? delta : -delta;
+
+    dones[e] = !m.started || m.tick >= MAX_TICKS;
+    if (dones[e])
+      reset(e);
+  }
+
+  void observe(int e, float[] o, int k) {
+    Match m = envs[e];
+    int p, b;
+    for (p=0; p<players; p++) {
+      Person q = m.players[p];
+      o[k++] = q.x;
+      o[k++] = q.y;
+      o[k++] = q.velocityX;
+      o[k++] = q.velocityY;
+    }
+    for (b=0; b<balls; b++) {
+      Ball q = m.balls[b];
+      o[k++] = q.alive ? 1 : 0;
+      o[k++] = q.x;
+      o[k++] = q.y;
+      o[k++] = q.velocityX;
+      o[k++] = q.velocityY;
+    }
+    o[k++] = m.teamBasket[0] ? 1 : 0;
+    o[k++] = m.teamBasket[1] ? 1 : 0;
+    o[k++] = m.teamScore[0];
+    o[k++] = m.teamScore[1];
+  }
+
+  // -------------------------------------------------------------------
+  // benchmark: random actions, env-steps per second
+
+  public static void main(String[] args) {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    VecEnv env = new VecEnv(n, false, threads, 1);
+    int[] actions = new int[env.size() * env.playersPerEnv()];
+    float[] obs = new float[env.size() * env.observationSize()];
+    FloatBuffer buf = ByteBuffer.allocateDirect(obs.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    long rng = 12345;
+
+    for (int pass=0; pass<2; pass++) {
+      boolean direct = pass == 1;
+      long steps = 0, episodes = 0;
+      long end = System.nanoTime() + seconds * 1000000000L / 2;
+      long t0 = System.nanoTime();
+      long alloc0 = allocated();
+      while (System.nanoTime() < end) {
+        for (int i=0; i<actions.length; i++) {
+          rng ^= rng << 13;
+          rng ^= rng >>> 7;
+          rng ^= rng << 17;
+          actions[i] = (int) (rng & 15);
+        }
+        if (direct)
+          env.step(actions, buf);
+        else
+          env.step(actions, obs);
+        boolean[] dones = env.dones();
+        for (int e=0; e<dones.length; e++)
+          if (dones[e])
+            episodes++;
+        steps += n;
+      }
+      long took = System.nanoTime() - t0;
+      long bytes = allocated() - alloc0;
+      System.out.println((direct ? "FloatBuffer" : "float[]") + ": envs=" + n + " threads=" + threads
+                         + " env_steps/s=" + Math.round(steps * 1e9 / took)
+                         + " episodes=" + episodes
+                         + (bytes >= 0 ? " bytes/step=" + Math.round((double) bytes / steps * 100) / 100.0 : ""));
+    }
+    env.close();
+  }
+
+  // bytes allocated by this thread so far, -1 if the VM can't tell
+  static long allocated() {
+    try {
+      Object bean = java.lang.management.ManagementFactory.getThreadMXBean();
+      java.lang.reflect.Method m = bean.getClass().getMethod("getThreadAllocatedBytes", new Class<?>[] { long.class });
+      m.setAccessible(true);
+      return ((Long) m.invoke(bean, new Object[] { Long.valueOf(Thread.currentThread().getId()) })).longValue();
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+}
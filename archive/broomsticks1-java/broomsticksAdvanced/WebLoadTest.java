@@ -0,0 +1,382 @@
+//=========================================================================
+//#
+//#  WebLoadTest.java
+//#
+//#  Description: fills a WebRelay with rooms the way browsers would. Each
+//#               room gets a host and a client speaking the web protocol
+//#               over WebSocket: both join, the host starts the game,
+//#               runs a Match and sends its state at 20Hz as
+//#               StateSerializer would, and its input every tick; the
+//#               client sends its input every tick; both ping once a
+//#               second. Reports how long states took host to client,
+//#               the ping round trip, and what the relay's thread spent
+//#               in CPU and allocation per message
+//#
+//#  usage: java WebLoadTest [rooms] [seconds] [host:port]
+//#
+//#  Without host:port a relay is started here, and only then is its
+//#  thread measured
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.lang.management.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+class WebLoadTest {
+
+  static final int STATE_MS = 50;      // NetworkManager's STATE_BROADCAST_INTERVAL
+  static final int PING_MS = 1000;
+  static final int SENT_RING = 64;     // host: send time by state tick
+
+  // one browser
+  static class Bot {
+    SocketChannel ch;
+    SelectionKey key;
+    ByteBuffer in, out, body;
+    JsonReader r;
+    JsonWriter w;
+    Random rnd;
+    String code;
+    boolean host, open, joined, started;
+    Bot peer;
+    Match match;                       // host only
+    int tick;
+    long[] sentAt;
+    int[] sentTick;
+    long nextState, nextPing;
+
+    // stats
+    long states, sent, inputs, hostInputs, pongs, errors, skipped;
+
+    Bot(String theCode, boolean theHost, long seed) {
+      code = theCode;
+      host = theHost;
+      in = ByteBuffer.allocate(65536);
+      out = ByteBuffer.allocate(65536);
+      body = ByteBuffer.allocate(4096);
+      r = new JsonReader();
+      w = new JsonWriter();
+      rnd = new Random(seed);
+      sentAt = new long[SENT_RING];
+      sentTick = new int[SENT_RING];
+    }
+
+    void connect(Selector sel, InetSocketAddress to) throws IOException {
+      ch = SocketChannel.open(to);
+      ch.configureBlocking(false);
+      ch.socket().setTcpNoDelay(true);
+      key = ch.register(sel, SelectionKey.OP_READ, this);
+      out.put(("GET /party/" + code + " HTTP/1.1\r\nHost: " + to.getHostName() + ":" + to.getPort()
+               + "\r\nUpgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Version: 13\r\n"
+               + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n\r\n").getBytes("ISO-8859-1"));
+    }
+
+    JsonWriter begin(String type) {
+      body.clear();
+      return w.begin(body).obj().key("type").str(type);
+    }
+
+    // what begin() started, as a masked text frame
+    void send() {
+      w.end();
+      body.flip();
+      int len = body.remaining();
+      if (out.remaining() < len + 8) {
+        skipped++;                     // the relay isn't reading us
+        return;
+      }
+      out.put((byte) 0x81);
+      if (len < 126)
+        out.put((byte) (0x80 | len));
+      else {
+        out.put((byte) (0x80 | 126));
+        out.putShort((short) len);
+      }
+      int mask = rnd.nextInt();
+      out.putInt(mask);
+      for (int i=0, k=24; i<len; i++, k=(k+24)&31)
+        out.put((byte) (body.get(i) ^ (mask >> k)));
+    }
+
+    void input(JsonWriter j) {
+      int keys = rnd.nextInt(8) == 0 ? 1 << rnd.nextInt(4) : 0;
+      j.key("input").obj();
+      j.key("left").bool((keys & 1<<Person.LEFT) != 0);
+      j.key("right").bool((keys & 1<<Person.RIGHT) != 0);
+      j.key("up").bool((keys & 1<<Person.UP) != 0);
+      j.key("down").bool((keys & 1<<Person.DOWN) != 0);
+      j.key("switch").bool(false);
+      j.end();
+      j.key("tick").num(tick);
+    }
+
+    // a game tick: step, and send what a browser would by now
+    void tick(long now) {
+      if (!started)
+        return;
+      tick++;
+      if (host) {
+        if (match.started)
+          match.step();
+        else
+          match.start();
+        input(begin("hostInput"));
+        send();
+        if (now >= nextState) {
+          nextState += STATE_MS * 1000000L;
+          begin("state").key("state");
+          w.state(match, tick, tick);
+          sentAt[tick & (SENT_RING - 1)] = now;
+          sentTick[tick & (SENT_RING - 1)] = tick;
+          sent++;
+          send();
+        }
+      } else {
+        input(begin("input"));
+        send();
+      }
+      if (now >= nextPing) {
+        nextPing += PING_MS * 1000000L;
+        begin("ping").key("id").num(tick).key("t").num(now / 1000);
+        send();
+      }
+    }
+
+    void flush() throws IOException {
+      out.flip();
+      ch.write(out);
+      out.compact();
+      int ops = SelectionKey.OP_READ | (out.position() > 0 ? SelectionKey.OP_WRITE : 0);
+      if (key.interestOps() != ops)
+        key.interestOps(ops);
+    }
+
+    void read(LatencyHistogram stateLatency, LatencyHistogram rtt) throws IOException {
+      if (ch.read(in) < 0)
+        throw new EOFException("relay closed " + code);
+      in.flip();
+      if (!open) {
+        int end = -1;
+        for (int i=0; i+3<in.limit(); i++)
+          if (in.get(i) == '\r' && in.get(i+1) == '\n' && in.get(i+2) == '\r' && in.get(i+3) == '\n') {
+            end = i + 4;
+            break;
+          }
+        if (end < 0) {
+          in.compact();
+          return;
+        }
+        if (in.get(9) != '1' || in.get(10) != '0' || in.get(11) != '1')
+          throw new IOException("handshake refused " + code);
+        in.position(end);
+        open = true;
+        // the host joins first, then the client, whichever connected first
+        if (host || peer.joined) {
+          begin("join").key("name").str((host ? "host " : "client ") + code);
+          send();
+        }
+      }
+      while (in.remaining() >= 2) {
+        int at = in.position(), len = in.get(at + 1) & 127, head = 2;
+        if (len == 126) {
+          if (in.remaining() < 4)
+            break;
+          len = in.getShort(at + 2) & 0xffff;
+          head = 4;
+        }
+        if (in.remaining() < head + len)
+          break;
+        if ((in.get(at) & 15) == 1)
+          message(at + head, at + head + len, stateLatency, rtt);
+        in.position(at + head + len);
+      }
+      in.compact();
+    }
+
+    void message(int from, int to, LatencyHistogram stateLatency, LatencyHistogram rtt) {
+      long now = System.nanoTime();
+      if (!r.check(in, from, to) || !r.find("type"))
+        throw new IllegalStateException("bad message from the relay in " + code);
+      if (r.is("state")) {
+        states++;
+        if (r.find("state") && r.check(in, r.from, r.to) && r.find("tick")) {
+          int t = (int) number(r.from, r.to);
+          if (peer.sentTick[t & (SENT_RING - 1)] == t)
+            stateLatency.record(now - peer.sentAt[t & (SENT_RING - 1)]);
+        }
+      } else if (r.is("input"))
+        inputs++;
+      else if (r.is("hostInput"))
+        hostInputs++;
+      else if (r.is("pong")) {
+        pongs++;
+        if (r.find("t"))
+          rtt.record(now - number(r.from, r.to) * 1000);
+      } else if (r.is("joined")) {
+        joined = true;
+        if (host && peer.open) {
+          peer.begin("join").key("name").str("client " + code);
+          peer.send();
+        }
+      } else if (r.is("playerJoined")) {
+        if (host) {
+          begin("gameStart").key("settings").obj();
+          w.key("dive").bool(false).key("accel").num(2).key("maxSpeed").num(6);
+          w.key("redBalls").num(1).key("blackBalls").num(2).key("goldBalls").num(1);
+          w.key("goldPoints").num(150).key("duration").num(60).key("winScore").num(50);
+          w.key("goldSpawnTick").num(2000).key("seed").num(code.hashCode() & 0xffff);
+          w.end();
+          send();
+        }
+      } else if (r.is("gameStart")) {
+        started = true;
+        nextState = nextPing = now;
+        nextPing += (code.hashCode() & 1023) * 1000000L;
+      } else if (r.is("error")) {
+        errors++;
+        if (errors == 1) {
+          r.find("message");
+          byte[] b = new byte[r.to - r.from];
+          for (int i=0; i<b.length; i++)
+            b[i] = in.get(r.from + i);
+          System.out.println(code + ": error " + new String(b));
+        }
+      }
+    }
+
+    long number(int from, int to) {
+      long v = 0;
+      for (int i=from; i<to; i++)
+        v = v * 10 + in.get(i) - '0';
+      return v;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int n = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+    WebRelay relay = null;
+    Thread rt = null;
+    InetSocketAddress to;
+    if (args.length > 2) {
+      String[] hp = args[2].split(":");
+      to = new InetSocketAddress(hp[0], Integer.parseInt(hp[1]));
+    } else {
+      relay = new WebRelay(0);
+      rt = new Thread(relay, "webrelay");
+      rt.start();
+      to = new InetSocketAddress("localhost", relay.port());
+    }
+
+    Selector sel = Selector.open();
+    Bot[] bots = new Bot[n * 2];
+    for (int i=0; i<n; i++) {
+      String code = "R" + i;
+      bots[2*i] = new Bot(code, true, 2*i);
+      bots[2*i+1] = new Bot(code, false, 2*i+1);
+      bots[2*i].peer = bots[2*i+1];
+      bots[2*i+1].peer = bots[2*i];
+      bots[2*i].match = new Match(630, 400);
+      GameServer.setupRoom(bots[2*i].match, i);
+      bots[2*i].connect(sel, to);
+      bots[2*i+1].connect(sel, to);
+    }
+
+    LatencyHistogram stateLatency = new LatencyHistogram("state", 100, 2000);
+    LatencyHistogram rtt = new LatencyHistogram("ping", 100, 2000);
+    ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    long start = System.nanoTime(), warm = start + 2000000000L;
+    long end = warm + (long) (seconds * 1000000000L);
+    long next = start, cpu0 = 0, alloc0 = 0, in0 = 0, out0 = 0, bytes0 = 0;
+    boolean measuring = false;
+    while (true) {
+      long now = System.nanoTime();
+      if (!measuring && now >= warm) {
+        measuring = true;
+        stateLatency.reset();
+        rtt.reset();
+        for (int i=0; i<bots.length; i++) {
+          Bot b = bots[i];
+          b.states = b.inputs = b.hostInputs = b.pongs = b.sent = 0;
+        }
+        if (relay != null) {
+          cpu0 = mx.getThreadCpuTime(rt.getId());
+          alloc0 = allocated(mx, rt);
+          in0 = relay.messagesIn;
+          out0 = relay.messagesOut;
+          bytes0 = relay.bytesOut;
+        }
+      }
+      if (now >= end)
+        break;
+      if (now >= next) {
+        next += Match.TICK_MS * 1000000L;
+        for (int i=0; i<bots.length; i++)
+          bots[i].tick(now);
+        for (int i=0; i<bots.length; i++)
+          bots[i].flush();
+      }
+      sel.select(Math.max(1, (next - System.nanoTime()) / 1000000));
+      Iterator<SelectionKey> it = sel.selectedKeys().iterator();
+      while (it.hasNext()) {
+        SelectionKey k = it.next();
+        it.remove();
+        Bot b = (Bot) k.attachment();
+        if (k.isReadable())
+          b.read(stateLatency, rtt);
+        if (k.isValid() && k.isWritable())
+          b.flush();
+      }
+    }
+
+    long states = 0, stateSent = 0, inputs = 0, hostInputs = 0, pongs = 0, errors = 0, skipped = 0;
+    int rooms = 0;
+    for (int i=0; i<bots.length; i++) {
+      Bot b = bots[i];
+      if (b.host) {
+        if (b.started)
+          rooms++;
+        stateSent += b.sent;
+      }
+      states += b.states;
+      inputs += b.inputs;
+      hostInputs += b.hostInputs;
+      pongs += b.pongs;
+      errors += b.errors;
+      skipped += b.skipped;
+      b.ch.close();
+    }
+    System.out.println(n + " rooms, " + rooms + " started, " + seconds + " s measured after 2 s warmup; "
+                       + errors + " errors, " + skipped + " sends skipped");
+    System.out.println("  states " + states + " of " + stateSent + " delivered, inputs " + inputs
+                       + ", host inputs " + hostInputs + ", pongs " + pongs);
+    System.out.println("  state host->client p50 " + stateLatency.percentile(0.5) / 1000 + " us p99 "
+                       + stateLatency.percentile(0.99) / 1000 + " us; ping p50 " + rtt.percentile(0.5) / 1000
+                       + " us p99 " + rtt.percentile(0.99) / 1000 + " us");
+    if (relay != null) {
+      long cpu = mx.getThreadCpuTime(rt.getId()) - cpu0, alloc = allocated(mx, rt) - alloc0;
+      long msgs = relay.messagesIn - in0, out = relay.messagesOut - out0;
+      System.out.println("  relay: " + Math.round(msgs / seconds) + " messages/s in, "
+                         + Math.round(out / seconds) + " out, " + Math.round((relay.bytesOut - bytes0) / seconds / 1024)
+                         + " KB/s; cpu " + Math.round(cpu / seconds / 1e7) + "% of a core, "
+                         + cpu / Math.max(msgs, 1) + " ns per message in; "
+                         + (alloc < 0 ? "allocation not measurable" : Math.round(alloc * 10.0 / Math.max(msgs, 1)) / 10.0
+                            + " bytes allocated per message in"));
+      relay.stop();
+      rt.join();
+      System.out.println("  " + relay.summary());
+    }
+  }
+
+  // bytes the thread has allocated, -1 where the JVM won't say
+  static long allocated(ThreadMXBean mx, Thread t) {
+    if (mx instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(t.getId());
+    return -1;
+  }
+}
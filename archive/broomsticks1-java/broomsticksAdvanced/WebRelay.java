@@ -0,0 +1,713 @@
+//=========================================================================
+//#
+//#  WebRelay.java
+//#
+//#  Description: the web game's relay (partykit/server.ts) as a plain
+//#               WebSocket server on one selector thread, so the browser
+//#               client can be pointed here instead of partykit. Rooms,
+//#               players, the host and every message the relay sends
+//#               are the same as there. Buffers come from a pool of
+//#               chunks shared by all connections and are only held
+//#               while there's something in them; replies are written
+//#               once with a JsonWriter and copied to each connection
+//#               they go to, and what the relay passes on (a state,
+//#               settings, an input) is copied as the sender wrote it
+//#
+//#  usage: java WebRelay [port]
+//#
+//#  Clients connect to ws://host:port/party/{room}, as the web
+//#  client's NetworkManager does with VITE_PARTYKIT_HOST set to
+//#  host:port. Text frames only, unfragmented, up to MAX_MESSAGE bytes
+//#
+//=========================================================================
+
+import java.lang.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+
+class WebRelay implements Runnable {
+
+  static final int CHUNK = 16384;
+  static final int MAX_CHUNKS = 8;     // queued per connection; one further behind is dropped
+  static final int MAX_MESSAGE = CHUNK - 14;
+  static final int MAX_PLAYERS = 2;
+  static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+  Selector selector;
+  ServerSocketChannel server;
+  HashMap<String, Room> rooms;         // by code
+  ArrayList<ByteBuffer> free;          // pooled chunks
+  ArrayList<Conn> dirty;               // connections with something new to write
+  ArrayList<Conn> dropping;            // connections that fell too far behind
+  ByteBuffer msg;                      // the message being written, its header in front
+  JsonWriter w;
+  JsonReader r;
+  volatile boolean running;
+
+  // stats
+  public long connections, framesIn, messagesIn, messagesOut, bytesIn, bytesOut, dropped, chunks;
+  public int clients;
+
+  WebRelay(int port) throws IOException {
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    server.configureBlocking(false);
+    server.socket().setReuseAddress(true);
+    server.socket().bind(new InetSocketAddress(port));
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    rooms = new HashMap<String, Room>();
+    free = new ArrayList<ByteBuffer>();
+    dirty = new ArrayList<Conn>();
+    dropping = new ArrayList<Conn>();
+    msg = ByteBuffer.allocate(4 + 3 * CHUNK);
+    w = new JsonWriter();
+    r = new JsonReader();
+    running = true;
+  }
+
+  public int port() {
+    return server.socket().getLocalPort();
+  }
+
+  public void stop() {
+    running = false;
+    selector.wakeup();
+  }
+
+  // -------------------------------------------------------------------
+  // one WebSocket connection, and its player once it has joined
+
+  class Conn {
+    SocketChannel ch;
+    SelectionKey key;
+    ByteBuffer in;                     // a chunk while there's something unread
+    ByteBuffer[] out;                  // chunks waiting to go, each ready to read
+    int outs;
+    boolean open;                      // handshake done
+    boolean closing, closed, dirty;
+    Room room;
+    byte[] id;                         // as JSON, quoted
+
+    // PlayerInfo
+    byte[] name;                       // as JSON, null if the join had none
+    boolean isHost, ready;
+
+    Conn(SocketChannel theCh) {
+      ch = theCh;
+      out = new ByteBuffer[MAX_CHUNKS];
+      outs = 0;
+      open = false;
+      closing = false;
+      closed = false;
+      dirty = false;
+      id = ("\"" + UUID.randomUUID() + "\"").getBytes();
+    }
+  }
+
+  // a partykit room: every connection to /party/{code}
+  class Room {
+    String code;
+    ArrayList<Conn> conns;
+    ArrayList<Conn> players;           // Conns that joined, in order
+    Conn host;
+    boolean started;
+
+    Room(String theCode) {
+      code = theCode;
+      conns = new ArrayList<Conn>();
+      players = new ArrayList<Conn>();
+      host = null;
+      started = false;
+    }
+  }
+
+  ByteBuffer acquire() {
+    if (free.isEmpty()) {
+      chunks++;
+      return ByteBuffer.allocateDirect(CHUNK);
+    }
+    return free.remove(free.size() - 1);
+  }
+
+  void release(ByteBuffer b) {
+    b.clear();
+    free.add(b);
+  }
+
+  // -------------------------------------------------------------------
+  // the loop
+
+  public void run() {
+    try {
+      while (running) {
+        selector.select();
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey k = it.next();
+          it.remove();
+          if (!k.isValid())
+            continue;
+          if (k.isAcceptable()) {
+            accept();
+            continue;
+          }
+          Conn c = (Conn) k.attachment();
+          try {
+            if (k.isReadable())
+              read(c);
+            if (k.isValid() && k.isWritable())
+              flush(c);
+          } catch (IOException e) {
+            close(c);
+          }
+        }
+        flushAll();
+      }
+      Iterator<SelectionKey> it = selector.keys().iterator();
+      while (it.hasNext())
+        it.next().channel().close();
+      selector.close();
+    } catch (IOException e) {
+      System.out.println("webrelay: " + e);
+    }
+  }
+
+  // write out everything queued while handling this round's reads, once
+  // per connection however many messages it got
+  void flushAll() {
+    while (!dirty.isEmpty() || !dropping.isEmpty()) {
+      while (!dropping.isEmpty())
+        close(dropping.remove(dropping.size() - 1));
+      for (int i=0; i<dirty.size(); i++) {
+        Conn c = dirty.get(i);
+        c.dirty = false;
+        if (c.closed)
+          continue;
+        try {
+          flush(c);
+        } catch (IOException e) {
+          close(c);
+        }
+      }
+      dirty.clear();
+    }
+  }
+
+  void accept() throws IOException {
+    SocketChannel ch = server.accept();
+    if (ch == null)
+      return;
+    ch.configureBlocking(false);
+    ch.socket().setTcpNoDelay(true);
+    Conn c = new Conn(ch);
+    c.key = ch.register(selector, SelectionKey.OP_READ, c);
+    connections++;
+    clients++;
+  }
+
+  void flush(Conn c) throws IOException {
+    if (c.outs > 0) {
+      bytesOut += c.ch.write(c.out, 0, c.outs);
+      int done = 0;
+      while (done < c.outs && !c.out[done].hasRemaining())
+        release(c.out[done++]);
+      if (done > 0) {
+        System.arraycopy(c.out, done, c.out, 0, c.outs - done);
+        for (int i=c.outs-done; i<c.outs; i++)
+          c.out[i] = null;
+        c.outs -= done;
+      }
+    }
+    if (c.closing && c.outs == 0) {
+      close(c);                        // the close frame is out
+      return;
+    }
+    int ops = SelectionKey.OP_READ | (c.outs > 0 ? SelectionKey.OP_WRITE : 0);
+    if (c.key.interestOps() != ops)
+      c.key.interestOps(ops);
+  }
+
+  // append m to what's waiting for c, a chunk at a time; a connection
+  // with MAX_CHUNKS already waiting is dropped
+  void queue(Conn c, ByteBuffer m) {
+    if (c.closing)
+      return;
+    int at = m.position(), lim = m.limit();
+    while (m.hasRemaining()) {
+      ByteBuffer b = c.outs > 0 ? c.out[c.outs - 1] : null;
+      if (b == null || b.limit() == b.capacity()) {
+        if (c.outs == MAX_CHUNKS) {
+          c.closing = true;
+          dropping.add(c);
+          dropped++;
+          break;
+        }
+        b = acquire();
+        b.limit(0);
+        c.out[c.outs++] = b;
+      }
+      int p = b.position();
+      b.position(b.limit());
+      b.limit(b.capacity());
+      m.limit(m.position() + Math.min(b.remaining(), m.remaining()));
+      b.put(m);
+      m.limit(lim);
+      b.limit(b.position());
+      b.position(p);
+    }
+    m.position(at);
+    if (!c.dirty) {
+      c.dirty = true;
+      dirty.add(c);
+    }
+  }
+
+  // the socket goes now; onClose
+  void close(Conn c) {
+    if (c.closed)
+      return;
+    c.closed = true;
+    c.closing = true;
+    leave(c);
+    if (c.in != null)
+      release(c.in);
+    c.in = null;
+    for (int i=0; i<c.outs; i++) {
+      release(c.out[i]);
+      c.out[i] = null;
+    }
+    c.outs = 0;
+    c.key.cancel();
+    try {
+      c.ch.close();
+    } catch (IOException e) {
+    }
+    clients--;
+  }
+
+  // a close frame, then the socket once it's out; onClose runs now, so
+  // nothing more is sent to or taken from this connection
+  void shut(Conn c, int code) {
+    msg.clear();
+    msg.put((byte) 0x88);
+    if (code < 0)
+      msg.put((byte) 0);
+    else {
+      msg.put((byte) 2);
+      msg.putShort((short) code);
+    }
+    msg.flip();
+    queue(c, msg);
+    c.closing = true;
+    leave(c);
+  }
+
+  // -------------------------------------------------------------------
+  // reading
+
+  void read(Conn c) throws IOException {
+    if (c.closing) {
+      c.key.interestOps(SelectionKey.OP_WRITE);
+      return;                          // waiting for the close frame to go
+    }
+    if (c.in == null)
+      c.in = acquire();
+    int n = c.ch.read(c.in);
+    if (n < 0) {
+      close(c);
+      return;
+    }
+    bytesIn += n;
+    c.in.flip();
+    if (!c.open)
+      handshake(c);
+    while (c.open && !c.closing && frame(c))
+      ;
+    if (c.closed)
+      return;                          // closed while handling
+    if (c.closing)
+      c.in.position(c.in.limit());
+    if (c.in.hasRemaining())
+      c.in.compact();
+    else {
+      release(c.in);
+      c.in = null;
+    }
+  }
+
+  // the HTTP upgrade; onConnect
+  void handshake(Conn c) throws IOException {
+    ByteBuffer b = c.in;
+    int end = -1;
+    for (int i=b.position(); i+3<b.limit(); i++)
+      if (b.get(i) == '\r' && b.get(i+1) == '\n' && b.get(i+2) == '\r' && b.get(i+3) == '\n') {
+        end = i + 4;
+        break;
+      }
+    if (end < 0) {
+      if (b.limit() == b.capacity())
+        respond(c, "431 Request Header Fields Too Large");
+      return;
+    }
+    byte[] head = new byte[end - b.position()];
+    b.get(head);
+    String[] lines = new String(head, "ISO-8859-1").split("\r\n");
+    String[] request = lines[0].split(" ");
+    String key = null;
+    boolean upgrade = false;
+    for (int i=1; i<lines.length; i++) {
+      int colon = lines[i].indexOf(':');
+      if (colon < 0)
+        continue;
+      String name = lines[i].substring(0, colon).trim();
+      String value = lines[i].substring(colon + 1).trim();
+      if (name.equalsIgnoreCase("Sec-WebSocket-Key"))
+        key = value;
+      else if (name.equalsIgnoreCase("Upgrade") && value.equalsIgnoreCase("websocket"))
+        upgrade = true;
+    }
+    String path = request.length > 1 ? request[1] : "";
+    if (path.indexOf('?') >= 0)
+      path = path.substring(0, path.indexOf('?'));
+    String code = path.startsWith("/party/") ? path.substring(7) : "";
+    if (!request[0].equals("GET") || code.length() == 0 || code.indexOf('/') >= 0) {
+      respond(c, "404 Not Found");
+      return;
+    }
+    if (key == null || !upgrade) {
+      respond(c, "400 Bad Request");
+      return;
+    }
+    queue(c, ByteBuffer.wrap(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n"
+                              + "Connection: Upgrade\r\nSec-WebSocket-Accept: " + accept(key)
+                              + "\r\n\r\n").getBytes("ISO-8859-1")));
+    c.open = true;
+    Room room = rooms.get(code);
+    if (room == null) {
+      room = new Room(code);
+      rooms.put(code, room);
+    }
+    room.conns.add(c);
+    c.room = room;
+  }
+
+  void respond(Conn c, String status) throws IOException {
+    queue(c, ByteBuffer.wrap(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\n"
+                              + "Connection: close\r\n\r\n").getBytes("ISO-8859-1")));
+    c.closing = true;
+  }
+
+  static String accept(String key) throws IOException {
+    byte[] d;
+    try {
+      d = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes("ISO-8859-1"));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException("no SHA-1");
+    }
+    String abc = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    StringBuffer s = new StringBuffer();
+    for (int i=0; i<d.length; i+=3) {
+      int v = (d[i] & 0xff) << 16 | (i+1 < d.length ? (d[i+1] & 0xff) << 8 : 0)
+        | (i+2 < d.length ? d[i+2] & 0xff : 0);
+      s.append(abc.charAt(v >> 18 & 63));
+      s.append(abc.charAt(v >> 12 & 63));
+      s.append(i+1 < d.length ? abc.charAt(v >> 6 & 63) : '=');
+      s.append(i+2 < d.length ? abc.charAt(v & 63) : '=');
+    }
+    return s.toString();
+  }
+
+  // one frame if it's all in; false to wait for more
+  boolean frame(Conn c) {
+    ByteBuffer b = c.in;
+    int at = b.position(), avail = b.remaining();
+    if (avail < 2)
+      return false;
+    int b0 = b.get(at) & 0xff, b1 = b.get(at + 1) & 0xff;
+    int op = b0 & 15, len = b1 & 127, head = 2;
+    if ((b1 & 0x80) == 0) {
+      shut(c, 1002);                   // clients must mask
+      return false;
+    }
+    if ((b0 & 0x70) != 0) {
+      shut(c, 1002);                   // no extension was agreed on
+      return false;
+    }
+    if ((b0 & 0x80) == 0 || op == 0) {
+      shut(c, 1003);                   // fragments aren't taken
+      return false;
+    }
+    if (len == 127) {
+      shut(c, 1009);                   // a 64 bit length is never under MAX_MESSAGE
+      return false;
+    }
+    if (len == 126) {
+      if (avail < 4)
+        return false;
+      len = b.getShort(at + 2) & 0xffff;
+      head = 4;
+    }
+    if (len > MAX_MESSAGE || (op >= 8 && len > 125)) {
+      shut(c, len > MAX_MESSAGE ? 1009 : 1002);
+      return false;
+    }
+    if (avail < head + 4 + len)
+      return false;
+    int mask = b.getInt(at + head), from = at + head + 4, to = from + len;
+    int i = from;
+    for (; i+4<=to; i+=4)
+      b.putInt(i, b.getInt(i) ^ mask);
+    for (int k=24; i<to; i++, k-=8)
+      b.put(i, (byte) (b.get(i) ^ (mask >> k)));
+    b.position(to);
+    framesIn++;
+    switch (op) {
+    case 1:
+      message(c, b, from, to);
+      break;
+    case 8:
+      shut(c, len >= 2 ? b.getShort(from) & 0xffff : -1);
+      break;
+    case 9:
+      msg.clear();
+      msg.put((byte) 0x8a);
+      msg.put((byte) len);
+      int lim = b.limit();
+      b.limit(to);
+      b.position(from);
+      msg.put(b);
+      b.limit(lim);
+      msg.flip();
+      queue(c, msg);
+      break;
+    }
+    return true;                       // binary frames and pongs are ignored
+  }
+
+  // -------------------------------------------------------------------
+  // onMessage: what can't be parsed, or has no type the relay knows, is
+  // ignored
+
+  void message(Conn c, ByteBuffer b, int from, int to) {
+    messagesIn++;
+    if (!r.check(b, from, to) || !r.find("type"))
+      return;
+    Room room = c.room;
+    try {
+      if (r.is("join"))
+        join(c);
+      else if (r.is("ready")) {
+        if (room.players.contains(c))
+          c.ready = true;
+      } else if (r.is("gameStart"))
+        gameStart(c);
+      else if (r.is("settings")) {
+        if (c != room.host || room.started)
+          return;
+        begin().key("type").str("settings");
+        member("settings");
+        w.end();
+        broadcast(room, c);
+      } else if (r.is("state")) {
+        if (c != room.host)
+          return;
+        begin().key("type").str("state");
+        member("state");
+        w.end();
+        broadcast(room, c);
+      } else if (r.is("input")) {
+        if (c == room.host || room.host == null)
+          return;
+        begin().key("type").str("input");
+        w.key("playerId").raw(c.id);
+        member("input");
+        member("tick");
+        w.end();
+        send(room.host);
+      } else if (r.is("hostInput")) {
+        if (c != room.host)
+          return;
+        begin().key("type").str("hostInput");
+        member("input");
+        member("tick");
+        w.end();
+        broadcast(room, c);
+      } else if (r.is("ping")) {
+        begin().key("type").str("pong");
+        member("id");
+        member("t");
+        w.end();
+        send(c);
+      } else if (r.is("leave"))
+        shut(c, 1000);
+    } catch (BufferOverflowException e) {
+      // an answer bigger than msg; not sent
+    }
+  }
+
+  void join(Conn c) {
+    Room room = c.room;
+    if (room.players.size() >= MAX_PLAYERS) {
+      error(c, "Room is full");
+      return;
+    }
+    if (room.started) {
+      error(c, "Game already in progress");
+      return;
+    }
+    c.isHost = room.players.isEmpty();
+    if (c.isHost)
+      room.host = c;
+    c.name = null;
+    if (r.find("name")) {
+      c.name = new byte[r.to - r.from];
+      for (int i=0; i<c.name.length; i++)
+        c.name[i] = r.in.get(r.from + i);
+    }
+    c.ready = false;
+    if (!room.players.contains(c))
+      room.players.add(c);
+
+    begin().key("type").str("joined");
+    w.key("playerId").raw(c.id);
+    w.key("isHost").bool(c.isHost);
+    w.key("roomCode").str(room.code);
+    w.key("players").arr();
+    for (int i=0; i<room.players.size(); i++)
+      player(room.players.get(i));
+    w.endArr().end();
+    send(c);
+
+    begin().key("type").str("playerJoined");
+    w.key("player");
+    player(c);
+    w.end();
+    broadcast(room, c);
+  }
+
+  void player(Conn p) {
+    w.obj().key("id").raw(p.id);
+    if (p.name != null)
+      w.key("name").raw(p.name);
+    w.key("isHost").bool(p.isHost);
+    w.key("ready").bool(p.ready);
+    w.end();
+  }
+
+  void gameStart(Conn c) {
+    Room room = c.room;
+    if (c != room.host) {
+      error(c, "Only host can start");
+      return;
+    }
+    if (room.players.size() < 2) {
+      error(c, "Need 2 players");
+      return;
+    }
+    room.started = true;
+    begin().key("type").str("gameStart");
+    w.key("config").obj();
+    w.key("hostId").raw(c.id);
+    member("settings");
+    w.end().end();
+    broadcast(room, null);
+  }
+
+  // onClose, for a socket closed either way
+  void leave(Conn c) {
+    Room room = c.room;
+    if (room == null)
+      return;
+    c.room = null;
+    room.conns.remove(c);
+    if (room.players.remove(c)) {
+      begin().key("type").str("playerLeft");
+      w.key("playerId").raw(c.id);
+      w.end();
+      broadcast(room, c);
+      if (room.host == c) {
+        room.host = null;
+        room.started = false;
+        begin().key("type").str("error");
+        w.key("message").str("Host disconnected");
+        w.end();
+        broadcast(room, null);
+      }
+    }
+    if (room.conns.isEmpty())
+      rooms.remove(room.code);
+  }
+
+  void error(Conn c, String message) {
+    begin().key("type").str("error");
+    w.key("message").str(message);
+    w.end();
+    send(c);
+  }
+
+  // -------------------------------------------------------------------
+  // writing: a message goes in msg after 4 bytes kept for its header
+
+  JsonWriter begin() {
+    msg.clear();
+    msg.position(4);
+    return w.begin(msg).obj();
+  }
+
+  // as JSON.stringify() writes { key: msg.key }: left out if the
+  // message read had no such key
+  void member(String key) {
+    if (r.find(key))
+      w.key(key).raw(r.in, r.from, r.to);
+  }
+
+  // the text frame header in front of what begin() started
+  void seal() {
+    int len = msg.position() - 4, at = 0;
+    if (len < 126) {
+      at = 2;
+      msg.put(3, (byte) len);
+    } else {
+      msg.put(1, (byte) 126);
+      msg.putShort(2, (short) len);
+    }
+    msg.put(at, (byte) 0x81);
+    msg.limit(msg.position());
+    msg.position(at);
+  }
+
+  void send(Conn c) {
+    seal();
+    queue(c, msg);
+    messagesOut++;
+  }
+
+  // to every connection in the room, joined or not, but except
+  void broadcast(Room room, Conn except) {
+    seal();
+    for (int i=0; i<room.conns.size(); i++) {
+      Conn c = room.conns.get(i);
+      if (c != except && !c.closing) {
+        queue(c, msg);
+        messagesOut++;
+      }
+    }
+  }
+
+  public String summary() {
+    return "webrelay: " + clients + " connected (" + connections + " in all), " + rooms.size() + " rooms, "
+      + messagesIn + " messages in, " + messagesOut + " out, " + bytesOut / 1024 + " KB out, "
+      + dropped + " dropped as too slow, " + chunks + " chunks of " + CHUNK / 1024 + " KB";
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 1999;
+    WebRelay s = new WebRelay(port);
+    System.out.println("webrelay: listening on " + s.port());
+    s.run();
+  }
+}